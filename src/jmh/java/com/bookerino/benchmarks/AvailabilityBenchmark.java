@@ -0,0 +1,58 @@
+
+package com.bookerino.benchmarks;
+
+import com.bookerino.availability.AvailabilityIndex;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Room;
+import org.openjdk.jmh.annotations.*;
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Availability search over the in-memory night index, filled through the change listener so no
+ * database is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AvailabilityBenchmark {
+    @Param({ "100", "1000" })
+    public int roomCount;
+    
+    @Param({ "2", "14" })
+    public int nights;
+    
+    private AvailabilityIndex index;
+    private LocalDate checkIn;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        index = new AvailabilityIndex(400);
+        LocalDate today = LocalDate.now();
+        Random random = new Random(42);
+        for (int id = 1; id <= roomCount; id++) {
+            index.roomSaved(new Room(id, "Room " + id, "Double", id % 4 + 1, 200, "available", null, null));
+            LocalDate day = today.plusDays(random.nextInt(5));
+            while (day.isBefore(today.plusDays(400))) {
+                LocalDate checkOut = day.plusDays(1 + random.nextInt(6));
+                index.bookingCreated(new Booking(0, "Guest", "g@example.com", id, day, checkOut, "confirmed", 0));
+                day = checkOut.plusDays(random.nextInt(8));
+            }
+        }
+        checkIn = today.plusDays(120);
+    }
+    
+    @Benchmark
+    public int[] findAvailable() {
+        return index.findAvailable(checkIn, checkIn.plusDays(nights), 2);
+    }
+    
+    @Benchmark
+    public Boolean isAvailable() {
+        return index.isAvailable(roomCount / 2, checkIn, checkIn.plusDays(nights));
+    }
+}
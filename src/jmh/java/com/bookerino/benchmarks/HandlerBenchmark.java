@@ -0,0 +1,138 @@
+
+package com.bookerino.benchmarks;
+
+import com.bookerino.analytics.RoomRatings;
+import com.bookerino.availability.AvailabilityIndex;
+import com.bookerino.cache.RoomCache;
+import com.bookerino.cache.TableVersions;
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.handlers.*;
+import com.bookerino.pricing.QuoteEngine;
+import org.openjdk.jmh.annotations.*;
+import java.io.IOException;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full handler path (query parsing, pooled connection, SQL, serialization) with an in-memory
+ * exchange, so the network is left out.
+ *
+ * Runs against the PostgreSQL instance in DATABASE_URL, which should be a scratch database:
+ * the first run seeds rooms named {@code bench-N} and a few bookings for each of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class HandlerBenchmark {
+    private static final int SEED_ROOMS = 200;
+    private static final int SEED_BOOKINGS_PER_ROOM = 10;
+    
+    private RoomHandler roomHandler;
+    private BookingHandler bookingHandler;
+    private AvailabilityHandler availabilityHandler;
+    private RoomCache roomCache;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        if (System.getenv("DATABASE_URL") == null) {
+            throw new IllegalStateException("HandlerBenchmark needs DATABASE_URL pointing at a scratch database");
+        }
+        DatabaseConnection.initialize();
+        seed();
+        
+        roomCache = new RoomCache();
+        TableVersions versions = new TableVersions();
+        AvailabilityIndex availability = new AvailabilityIndex();
+        availability.rebuild();
+        roomHandler = new RoomHandler(roomCache, versions, new RoomRatings());
+        bookingHandler = new BookingHandler(roomCache, new BookingGuard(availability), versions, new QuoteEngine(roomCache::getRoom));
+        availabilityHandler = new AvailabilityHandler(availability, roomCache, versions);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DatabaseConnection.shutdown();
+    }
+    
+    static void seed() throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM rooms WHERE name LIKE 'bench-%'")) {
+                rs.next();
+                if (rs.getInt(1) > 0) {
+                    return;
+                }
+            }
+            
+            conn.setAutoCommit(false);
+            try (PreparedStatement rooms = conn.prepareStatement(
+                     "INSERT INTO rooms (name, type, capacity, price, status) VALUES (?, 'Double', ?, ?, 'available')",
+                     new String[] { "id" });
+                 PreparedStatement bookings = conn.prepareStatement(
+                     "INSERT INTO bookings (guest_name, guest_email, room_id, check_in, check_out, status, total_price) " +
+                     "VALUES (?, ?, ?, ?, ?, 'confirmed', ?)")) {
+                for (int i = 0; i < SEED_ROOMS; i++) {
+                    rooms.setString(1, "bench-" + i);
+                    rooms.setInt(2, i % 4 + 1);
+                    rooms.setDouble(3, 100 + i);
+                    rooms.addBatch();
+                }
+                rooms.executeBatch();
+                
+                LocalDate start = LocalDate.now().plusDays(1);
+                try (ResultSet keys = rooms.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        for (int b = 0; b < SEED_BOOKINGS_PER_ROOM; b++) {
+                            LocalDate checkIn = start.plusDays(b * 7L);
+                            bookings.setString(1, "Bench Guest " + b);
+                            bookings.setString(2, "bench" + b + "@example.com");
+                            bookings.setInt(3, keys.getInt(1));
+                            bookings.setDate(4, Date.valueOf(checkIn));
+                            bookings.setDate(5, Date.valueOf(checkIn.plusDays(3)));
+                            bookings.setDouble(6, 300);
+                            bookings.addBatch();
+                        }
+                    }
+                }
+                bookings.executeBatch();
+            }
+            conn.commit();
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Exchange {
+        final StubExchange exchange = new StubExchange("GET", "/");
+    }
+    
+    @Benchmark
+    public int listRoomsCached(Exchange state) throws IOException {
+        roomHandler.handle(state.exchange.reset("GET", "/api/rooms?limit=100"));
+        return state.exchange.getResponseSize();
+    }
+    
+    @Benchmark
+    public int listRoomsUncached(Exchange state) throws IOException {
+        roomCache.invalidateAll();
+        roomHandler.handle(state.exchange.reset("GET", "/api/rooms?limit=100"));
+        return state.exchange.getResponseSize();
+    }
+    
+    @Benchmark
+    public int listBookings(Exchange state) throws IOException {
+        bookingHandler.handle(state.exchange.reset("GET", "/api/bookings?limit=100"));
+        return state.exchange.getResponseSize();
+    }
+    
+    @Benchmark
+    public int searchAvailability(Exchange state) throws IOException {
+        LocalDate checkIn = LocalDate.now().plusDays(5);
+        availabilityHandler.handle(state.exchange.reset("GET",
+            "/api/availability?checkIn=" + checkIn + "&checkOut=" + checkIn.plusDays(2) + "&guests=2"));
+        return state.exchange.getResponseSize();
+    }
+}
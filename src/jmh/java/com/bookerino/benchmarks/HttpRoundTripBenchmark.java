@@ -0,0 +1,92 @@
+
+package com.bookerino.benchmarks;
+
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.server.HttpServer;
+import com.bookerino.server.ServerOptions;
+import org.openjdk.jmh.annotations.*;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end requests over loopback against a real {@link HttpServer}, for each way of running
+ * exchanges. Eight client threads share one keep-alive {@link HttpClient}, so the dispatcher
+ * mode shows how one slow handler holds up everything behind it.
+ *
+ * Needs DATABASE_URL (see {@link HandlerBenchmark} for what gets seeded).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class HttpRoundTripBenchmark {
+    @Param({ "DISPATCHER", "POOL" })
+    public ServerOptions.ExecutionMode executor;
+    
+    /** Eight threads asking for the same three URLs is what coalescing is for; off shows the cost without it. */
+    @Param({ "false", "true" })
+    public boolean coalescing;
+    
+    private HttpServer server;
+    private HttpClient client;
+    private HttpRequest analytics;
+    private HttpRequest rooms;
+    private HttpRequest bookings;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (System.getenv("DATABASE_URL") == null) {
+            throw new IllegalStateException("HttpRoundTripBenchmark needs DATABASE_URL pointing at a scratch database");
+        }
+        DatabaseConnection.initialize();
+        HandlerBenchmark.seed();
+        
+        // Every request comes from one client, which the rate limits would throttle
+        server = new HttpServer(0, ServerOptions.fromEnvironment()
+            .setExecutionMode(executor)
+            .setAdmissionControl(false)
+            .setCoalescing(coalescing));
+        server.start();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        
+        String base = "http://127.0.0.1:" + server.getPort();
+        analytics = HttpRequest.newBuilder(URI.create(base + "/api/analytics")).build();
+        rooms = HttpRequest.newBuilder(URI.create(base + "/api/rooms?limit=50")).build();
+        bookings = HttpRequest.newBuilder(URI.create(base + "/api/bookings?limit=50")).build();
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        DatabaseConnection.shutdown();
+    }
+    
+    @Benchmark
+    public int analytics() throws Exception {
+        return send(analytics);
+    }
+    
+    @Benchmark
+    public int rooms() throws Exception {
+        return send(rooms);
+    }
+    
+    @Benchmark
+    public int bookings() throws Exception {
+        return send(bookings);
+    }
+    
+    private int send(HttpRequest request) throws Exception {
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(request.uri() + " returned " + response.statusCode());
+        }
+        return response.body().length;
+    }
+}
@@ -0,0 +1,62 @@
+
+package com.bookerino.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A forward-only {@link ResultSet} over rows held in memory, supporting the getters the row
+ * writers use. It isolates serialization cost from the driver and the network.
+ */
+public final class InMemoryResultSet {
+    private InMemoryResultSet() {
+    }
+    
+    public static ResultSet of(String[] columns, Object[][] rows) {
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < columns.length; i++) {
+            index.put(columns[i], i);
+        }
+        int[] cursor = { -1 };
+        return (ResultSet) Proxy.newProxyInstance(
+            InMemoryResultSet.class.getClassLoader(),
+            new Class<?>[] { ResultSet.class },
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "next":
+                        return ++cursor[0] < rows.length;
+                    case "beforeFirst":
+                        cursor[0] = -1;
+                        return null;
+                    case "close":
+                        return null;
+                    case "wasNull":
+                        return false;
+                    case "getString":
+                    case "getDate":
+                    case "getTimestamp":
+                    case "getObject":
+                        return value(index, rows[cursor[0]], args[0]);
+                    case "getInt":
+                        return ((Number) value(index, rows[cursor[0]], args[0])).intValue();
+                    case "getLong":
+                        return ((Number) value(index, rows[cursor[0]], args[0])).longValue();
+                    case "getDouble":
+                        return ((Number) value(index, rows[cursor[0]], args[0])).doubleValue();
+                    default:
+                        throw new SQLException("Not supported by InMemoryResultSet: " + method.getName());
+                }
+            });
+    }
+    
+    private static Object value(Map<String, Integer> index, Object[] row, Object column) throws SQLException {
+        Integer i = column instanceof Integer ? (Integer) column - 1 : index.get(column);
+        if (i == null) {
+            throw new SQLException("Unknown column: " + column);
+        }
+        return row[i];
+    }
+}
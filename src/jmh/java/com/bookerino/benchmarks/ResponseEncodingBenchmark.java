@@ -0,0 +1,75 @@
+
+package com.bookerino.benchmarks;
+
+import com.bookerino.analytics.AnalyticsSnapshot;
+import com.bookerino.analytics.RevenueTimeSeries;
+import com.bookerino.handlers.AnalyticsHandler;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Review;
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a response string into bytes on the wire: the handlers' {@code sendResponse}
+ * (encode once, fixed Content-Length) through {@link AnalyticsHandler}, and the raw encodings for
+ * bodies of different sizes. Needs no database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseEncodingBenchmark {
+    @Param({ "1024", "65536" })
+    public int bodySize;
+    
+    private String body;
+    private AnalyticsHandler analyticsHandler;
+    private final StubExchange exchange = new StubExchange("GET", "/api/analytics");
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        StringBuilder json = new StringBuilder(bodySize + 64).append('[');
+        for (int i = 0; json.length() < bodySize; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"Chambre ").append(i).append(" – vue mer\"},");
+        }
+        json.setCharAt(json.length() - 1, ']');
+        body = json.toString();
+        
+        AnalyticsSnapshot snapshot = new AnalyticsSnapshot();
+        for (int i = 0; i < 1000; i++) {
+            snapshot.bookingCreated(new Booking(i, "Guest", "g@example.com", 1,
+                LocalDate.of(2030, 1, 1), LocalDate.of(2030, 1, 3), "confirmed", 600));
+            snapshot.reviewCreated(new Review(i, 1, "Guest", i % 5 + 1, ""));
+        }
+        analyticsHandler = new AnalyticsHandler(snapshot, new RevenueTimeSeries());
+    }
+    
+    @Benchmark
+    public int analyticsHandler() throws IOException {
+        analyticsHandler.handle(exchange.reset("GET", "/api/analytics"));
+        return exchange.getResponseSize();
+    }
+    
+    @Benchmark
+    public int encodeOnce() throws IOException {
+        out.reset();
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        return bytes.length;
+    }
+    
+    @Benchmark
+    public int encodeThroughWriter() throws IOException {
+        out.reset();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        writer.write(body);
+        writer.flush();
+        return out.size();
+    }
+}
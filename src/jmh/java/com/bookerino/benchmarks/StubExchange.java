@@ -0,0 +1,129 @@
+
+package com.bookerino.benchmarks;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+/**
+ * In-memory {@link HttpExchange} so handlers can be benchmarked without sockets. The response
+ * body goes to a reusable buffer; call {@link #reset} between invocations.
+ */
+public class StubExchange extends HttpExchange {
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream(64 * 1024);
+    private String method;
+    private URI uri;
+    private byte[] requestBody = new byte[0];
+    private InputStream requestStream;
+    private int responseCode = -1;
+    
+    public StubExchange(String method, String uri) {
+        reset(method, uri);
+    }
+    
+    public StubExchange reset(String method, String uri) {
+        this.method = method;
+        this.uri = URI.create(uri);
+        this.requestStream = new ByteArrayInputStream(requestBody);
+        this.responseCode = -1;
+        requestHeaders.clear();
+        responseHeaders.clear();
+        responseBody.reset();
+        return this;
+    }
+    
+    public StubExchange withBody(byte[] body) {
+        this.requestBody = body;
+        this.requestStream = new ByteArrayInputStream(body);
+        return this;
+    }
+    
+    public int getResponseSize() {
+        return responseBody.size();
+    }
+    
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+    
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+    
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+    
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+    
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+    
+    @Override
+    public void close() {
+    }
+    
+    @Override
+    public InputStream getRequestBody() {
+        return requestStream;
+    }
+    
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+    
+    @Override
+    public void sendResponseHeaders(int rCode, long responseLength) {
+        this.responseCode = rCode;
+    }
+    
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return new InetSocketAddress("127.0.0.1", 50000);
+    }
+    
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+    
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return new InetSocketAddress("127.0.0.1", 5000);
+    }
+    
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+    
+    @Override
+    public Object getAttribute(String name) {
+        return null;
+    }
+    
+    @Override
+    public void setAttribute(String name, Object value) {
+    }
+    
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+    }
+    
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
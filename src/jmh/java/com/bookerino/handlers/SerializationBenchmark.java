@@ -0,0 +1,85 @@
+
+package com.bookerino.handlers;
+
+import com.bookerino.benchmarks.InMemoryResultSet;
+import org.json.*;
+import org.openjdk.jmh.annotations.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResultSet-to-JSON conversion for booking lists: the streaming row writer the handlers use
+ * against building a {@link JSONArray} of {@link JSONObject}s and serializing it afterwards.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final String[] COLUMNS = {
+        "id", "guest_name", "guest_email", "room_id", "check_in", "check_out", "status", "total_price"
+    };
+    
+    @Param({ "10", "100", "1000" })
+    public int rows;
+    
+    private ResultSet resultSet;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+    
+    @Setup(Level.Trial)
+    public void createRows() {
+        Object[][] data = new Object[rows][];
+        for (int i = 0; i < rows; i++) {
+            data[i] = new Object[] {
+                i + 1, "Guest " + i, "guest" + i + "@example.com", i % 50 + 1,
+                Date.valueOf("2030-01-01"), Date.valueOf("2030-01-04"),
+                i % 3 == 0 ? "confirmed" : "pending", 300.0 + i
+            };
+        }
+        resultSet = InMemoryResultSet.of(COLUMNS, data);
+    }
+    
+    @Setup(Level.Invocation)
+    public void rewind() throws SQLException {
+        resultSet.beforeFirst();
+        out.reset();
+    }
+    
+    @Benchmark
+    public int streamingWriter() throws SQLException, IOException {
+        JsonStreamWriter json = new JsonStreamWriter(
+            new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192));
+        json.beginArray();
+        while (resultSet.next()) {
+            BookingHandler.writeBooking(json, resultSet);
+        }
+        json.endArray();
+        json.flush();
+        return out.size();
+    }
+    
+    @Benchmark
+    public int jsonObjectTree() throws SQLException, IOException {
+        JSONArray bookings = new JSONArray();
+        while (resultSet.next()) {
+            JSONObject booking = new JSONObject();
+            booking.put("id", resultSet.getInt("id"));
+            booking.put("guestName", resultSet.getString("guest_name"));
+            booking.put("guestEmail", resultSet.getString("guest_email"));
+            booking.put("roomId", resultSet.getInt("room_id"));
+            booking.put("checkIn", resultSet.getDate("check_in").toString());
+            booking.put("checkOut", resultSet.getDate("check_out").toString());
+            booking.put("status", resultSet.getString("status"));
+            booking.put("totalPrice", resultSet.getDouble("total_price"));
+            bookings.put(booking);
+        }
+        out.write(bookings.toString().getBytes(StandardCharsets.UTF_8));
+        return out.size();
+    }
+}
@@ -1,14 +1,26 @@
 
 package com.bookerino;
 
+import com.bookerino.analytics.AnalyticsSnapshot;
 import com.bookerino.database.DatabaseConnection;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.database.RowMappers;
+import com.bookerino.pricing.Quote;
+import com.bookerino.pricing.QuoteEngine;
+import com.bookerino.reports.ReportOptions;
+import com.bookerino.reports.ReportRunner;
 import java.sql.*;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
     private static Scanner scanner = new Scanner(System.in);
     
     public static void main(String[] args) {
+        if (ReportOptions.isReportCommand(args)) {
+            System.exit(runReports(args));
+        }
         try {
             // Initialize database
             DatabaseConnection.initialize();
@@ -24,12 +36,52 @@ public class Main {
             
             System.out.println("\nLa revedere!");
             scanner.close();
+            DatabaseConnection.shutdown();
         } catch (Exception e) {
             System.err.println("Eroare la pornirea aplicației: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
+    /**
+     * Non-interactive mode for scheduled jobs: exports the reports named by {@code --report} to
+     * files and exits with 0 when all of them were written, 1 when any failed and 2 on bad arguments.
+     */
+    private static int runReports(String[] args) {
+        ReportOptions options;
+        try {
+            options = ReportOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(ReportOptions.USAGE);
+            return 2;
+        }
+        
+        try {
+            DatabaseConnection.initialize();
+            long start = System.nanoTime();
+            List<ReportRunner.Result> results = new ReportRunner(options).run();
+            int failed = 0;
+            for (ReportRunner.Result result : results) {
+                if (result.succeeded()) {
+                    System.out.printf("%-10s %,10d rows %,12d bytes %6d ms  %s%n", result.report().name().toLowerCase(),
+                        result.rows(), result.bytes(), result.elapsedMillis(), result.file());
+                } else {
+                    failed++;
+                    System.err.printf("%-10s failed: %s%n", result.report().name().toLowerCase(), result.error().getMessage());
+                }
+            }
+            System.out.printf("%d of %d reports written for %s to %s in %d ms%n", results.size() - failed, results.size(),
+                options.getFrom(), options.getTo(), (System.nanoTime() - start) / 1_000_000);
+            return failed == 0 ? 0 : 1;
+        } catch (Exception e) {
+            System.err.println("Report run failed: " + e.getMessage());
+            return 1;
+        } finally {
+            DatabaseConnection.shutdown();
+        }
+    }
+    
     private static boolean showMainMenu() {
         System.out.println("\n=== MENIU PRINCIPAL ===");
         System.out.println("1. Gestionare Camere");
@@ -85,27 +137,24 @@ public class Main {
     }
     
     private static void displayRooms() {
-        try {
-            Connection conn = DatabaseConnection.getConnection();
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT * FROM rooms ORDER BY room_number");
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM rooms ORDER BY name")) {
             
             System.out.println("\n--- LISTA CAMERE ---");
             System.out.printf("%-10s %-15s %-10s %-12s %-10s\n", 
-                "Nr. Cameră", "Tip", "Preț/Noapte", "Status", "Capacitate");
+                "Cameră", "Tip", "Preț/Noapte", "Status", "Capacitate");
             System.out.println("─".repeat(70));
             
             while (rs.next()) {
                 System.out.printf("%-10s %-15s %-10.2f RON %-12s %-10d\n",
-                    rs.getString("room_number"),
-                    rs.getString("room_type"),
-                    rs.getDouble("price_per_night"),
+                    rs.getString("name"),
+                    rs.getString("type"),
+                    rs.getDouble("price"),
                     rs.getString("status"),
                     rs.getInt("capacity")
                 );
             }
-            rs.close();
-            stmt.close();
         } catch (SQLException e) {
             System.err.println("Eroare la afișarea camerelor: " + e.getMessage());
         }
@@ -113,8 +162,8 @@ public class Main {
     
     private static void addRoom() {
         System.out.println("\n--- ADĂUGARE CAMERĂ NOUĂ ---");
-        System.out.print("Număr cameră: ");
-        String roomNumber = scanner.nextLine();
+        System.out.print("Nume cameră: ");
+        String roomName = scanner.nextLine();
         
         System.out.print("Tip cameră (Single/Double/Suite): ");
         String roomType = scanner.nextLine();
@@ -128,16 +177,7 @@ public class Main {
         scanner.nextLine(); // consume newline
         
         try {
-            Connection conn = DatabaseConnection.getConnection();
-            PreparedStatement pstmt = conn.prepareStatement(
-                "INSERT INTO rooms (room_number, room_type, price_per_night, capacity, status) VALUES (?, ?, ?, ?, 'available')"
-            );
-            pstmt.setString(1, roomNumber);
-            pstmt.setString(2, roomType);
-            pstmt.setDouble(3, price);
-            pstmt.setInt(4, capacity);
-            pstmt.executeUpdate();
-            pstmt.close();
+            Jdbc.insert(Queries.ROOM_INSERT, roomName, roomType, capacity, price, "available", "", "");
             
             System.out.println("✓ Cameră adăugată cu succes!");
         } catch (SQLException e) {
@@ -167,12 +207,11 @@ public class Main {
     }
     
     private static void displayBookings() {
-        try {
-            Connection conn = DatabaseConnection.getConnection();
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(
-                "SELECT b.*, r.room_number FROM bookings b JOIN rooms r ON b.room_id = r.id ORDER BY b.check_in DESC LIMIT 20"
-            );
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                "SELECT b.*, r.name AS room_name FROM bookings b JOIN rooms r ON b.room_id = r.id ORDER BY b.check_in DESC LIMIT 20"
+             )) {
             
             System.out.println("\n--- LISTA REZERVĂRI (ultimele 20) ---");
             System.out.printf("%-15s %-10s %-12s %-12s %-12s %-10s\n", 
@@ -182,15 +221,13 @@ public class Main {
             while (rs.next()) {
                 System.out.printf("%-15s %-10s %-12s %-12s %-12s %-10.2f RON\n",
                     rs.getString("guest_name"),
-                    rs.getString("room_number"),
+                    rs.getString("room_name"),
                     rs.getString("check_in"),
                     rs.getString("check_out"),
                     rs.getString("status"),
                     rs.getDouble("total_price")
                 );
             }
-            rs.close();
-            stmt.close();
         } catch (SQLException e) {
             System.err.println("Eroare la afișarea rezervărilor: " + e.getMessage());
         }
@@ -208,8 +245,8 @@ public class Main {
         String guestPhone = scanner.nextLine();
         
         displayRooms();
-        System.out.print("\nNumăr cameră: ");
-        String roomNumber = scanner.nextLine();
+        System.out.print("\nNume cameră: ");
+        String roomName = scanner.nextLine();
         
         System.out.print("Data check-in (YYYY-MM-DD): ");
         String checkIn = scanner.nextLine();
@@ -217,42 +254,64 @@ public class Main {
         System.out.print("Data check-out (YYYY-MM-DD): ");
         String checkOut = scanner.nextLine();
         
-        System.out.print("Preț total (RON): ");
-        double totalPrice = getDoubleInput();
-        
-        scanner.nextLine(); // consume newline
-        
+        Date checkInDate;
+        Date checkOutDate;
         try {
-            Connection conn = DatabaseConnection.getConnection();
+            checkInDate = Date.valueOf(checkIn.trim());
+            checkOutDate = Date.valueOf(checkOut.trim());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Dată invalidă! Folosiți formatul YYYY-MM-DD.");
+            return;
+        }
+        if (!checkOutDate.after(checkInDate)) {
+            System.out.println("Data check-out trebuie să fie după data check-in!");
+            return;
+        }
+        
+        try (Connection conn = DatabaseConnection.getConnection()) {
             
             // Get room ID
-            PreparedStatement getRoomStmt = conn.prepareStatement("SELECT id FROM rooms WHERE room_number = ?");
-            getRoomStmt.setString(1, roomNumber);
-            ResultSet rs = getRoomStmt.executeQuery();
+            Integer roomId = Jdbc.queryOne(conn, Queries.ROOM_ID_BY_NAME, rs -> rs.getInt("id"), roomName);
             
-            if (rs.next()) {
-                int roomId = rs.getInt("id");
+            if (roomId != null) {
+                // The total comes from the same quote engine as the API, never from the operator
+                QuoteEngine quotes = new QuoteEngine(id -> Jdbc.queryOne(conn, Queries.ROOM_BY_ID, RowMappers.ROOM, id));
+                Quote quote;
+                try {
+                    quote = quotes.quote(roomId, checkInDate.toLocalDate(), checkOutDate.toLocalDate());
+                } catch (IllegalArgumentException e) {
+                    System.out.println(e.getMessage());
+                    return;
+                }
+                double totalPrice = quote.total();
+                System.out.printf("Preț: %d nopți, subtotal %.2f RON", quote.nights(), quote.subtotal());
+                if (quote.discount() > 0) {
+                    System.out.printf(", reducere %.2f RON", quote.discount());
+                }
+                System.out.printf(", total %.2f RON\n", totalPrice);
+                System.out.print("Confirmați rezervarea? (d/n): ");
+                if (!scanner.nextLine().trim().equalsIgnoreCase("d")) {
+                    System.out.println("Rezervare anulată.");
+                    return;
+                }
                 
-                PreparedStatement pstmt = conn.prepareStatement(
+                try (PreparedStatement pstmt = conn.prepareStatement(
                     "INSERT INTO bookings (room_id, guest_name, guest_email, guest_phone, check_in, check_out, total_price, status) VALUES (?, ?, ?, ?, ?, ?, ?, 'confirmed')"
-                );
-                pstmt.setInt(1, roomId);
-                pstmt.setString(2, guestName);
-                pstmt.setString(3, guestEmail);
-                pstmt.setString(4, guestPhone);
-                pstmt.setString(5, checkIn);
-                pstmt.setString(6, checkOut);
-                pstmt.setDouble(7, totalPrice);
-                pstmt.executeUpdate();
-                pstmt.close();
+                )) {
+                    pstmt.setInt(1, roomId);
+                    pstmt.setString(2, guestName);
+                    pstmt.setString(3, guestEmail);
+                    pstmt.setString(4, guestPhone);
+                    pstmt.setDate(5, checkInDate);
+                    pstmt.setDate(6, checkOutDate);
+                    pstmt.setDouble(7, totalPrice);
+                    pstmt.executeUpdate();
+                }
                 
                 System.out.println("✓ Rezervare adăugată cu succes!");
             } else {
                 System.out.println("Camera nu a fost găsită!");
             }
-            
-            rs.close();
-            getRoomStmt.close();
         } catch (SQLException e) {
             System.err.println("Eroare la adăugarea rezervării: " + e.getMessage());
         }
@@ -272,12 +331,11 @@ public class Main {
     }
     
     private static void displayReviews() {
-        try {
-            Connection conn = DatabaseConnection.getConnection();
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(
-                "SELECT r.*, rm.room_number FROM reviews r JOIN rooms rm ON r.room_id = rm.id ORDER BY r.created_at DESC LIMIT 20"
-            );
+        try (Connection conn = DatabaseConnection.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(
+                "SELECT r.*, rm.name AS room_name FROM reviews r JOIN rooms rm ON r.room_id = rm.id ORDER BY r.created_at DESC LIMIT 20"
+             )) {
             
             System.out.println("\n--- LISTA RECENZII (ultimele 20) ---");
             System.out.printf("%-15s %-10s %-7s %-40s\n", 
@@ -291,13 +349,11 @@ public class Main {
                 }
                 System.out.printf("%-15s %-10s %-7d %-40s\n",
                     rs.getString("guest_name"),
-                    rs.getString("room_number"),
+                    rs.getString("room_name"),
                     rs.getInt("rating"),
                     comment
                 );
             }
-            rs.close();
-            stmt.close();
         } catch (SQLException e) {
             System.err.println("Eroare la afișarea recenziilor: " + e.getMessage());
         }
@@ -305,39 +361,14 @@ public class Main {
     
     private static void showAnalytics() {
         try {
-            Connection conn = DatabaseConnection.getConnection();
-            
-            // Total rooms
-            Statement stmt1 = conn.createStatement();
-            ResultSet rs1 = stmt1.executeQuery("SELECT COUNT(*) as total FROM rooms");
-            rs1.next();
-            int totalRooms = rs1.getInt("total");
-            rs1.close();
-            stmt1.close();
-            
-            // Total bookings
-            Statement stmt2 = conn.createStatement();
-            ResultSet rs2 = stmt2.executeQuery("SELECT COUNT(*) as total FROM bookings");
-            rs2.next();
-            int totalBookings = rs2.getInt("total");
-            rs2.close();
-            stmt2.close();
-            
-            // Total revenue
-            Statement stmt3 = conn.createStatement();
-            ResultSet rs3 = stmt3.executeQuery("SELECT COALESCE(SUM(total_price), 0) as total FROM bookings WHERE status = 'confirmed'");
-            rs3.next();
-            double totalRevenue = rs3.getDouble("total");
-            rs3.close();
-            stmt3.close();
-            
-            // Average rating
-            Statement stmt4 = conn.createStatement();
-            ResultSet rs4 = stmt4.executeQuery("SELECT COALESCE(AVG(rating), 0) as avg FROM reviews");
-            rs4.next();
-            double avgRating = rs4.getDouble("avg");
-            rs4.close();
-            stmt4.close();
+            // One round trip for all totals instead of a query per figure
+            AnalyticsSnapshot snapshot = new AnalyticsSnapshot();
+            snapshot.reconcile();
+            AnalyticsSnapshot.Totals totals = snapshot.getTotals();
+            long totalRooms = totals.rooms();
+            long totalBookings = totals.bookings();
+            double totalRevenue = totals.totalRevenue();
+            double avgRating = totals.averageRating();
             
             System.out.println("\n=== ANALITICĂ ===");
             System.out.println("─".repeat(40));
@@ -346,7 +377,7 @@ public class Main {
             System.out.printf("Venit Total:         %.2f RON\n", totalRevenue);
             System.out.printf("Rating Mediu:        %.2f/5\n", avgRating);
             System.out.println("─".repeat(40));
-            
+        
         } catch (SQLException e) {
             System.err.println("Eroare la afișarea analiticii: " + e.getMessage());
         }
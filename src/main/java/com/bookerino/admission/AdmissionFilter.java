@@ -0,0 +1,86 @@
+
+package com.bookerino.admission;
+
+import com.sun.net.httpserver.*;
+import org.json.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sheds load on one context before it reaches the handler: each client gets a token bucket for
+ * the route, and the route as a whole a cap on exchanges running at once. Either limit answers
+ * 429 with a Retry-After. Nothing blocks or takes a lock, so a flood costs a map lookup and a
+ * compare-and-set per request rather than a database query.
+ */
+public class AdmissionFilter extends Filter {
+    private static final int MAX_CLIENTS = 100_000;
+    
+    private final String route;
+    private final RouteLimits limits;
+    private final ClientKeys clients;
+    private final RateLimiter rateLimiter;
+    private final Semaphore slots;
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder concurrencyLimited = new LongAdder();
+    
+    public AdmissionFilter(String route, RouteLimits limits, ClientKeys clients) {
+        this.route = route;
+        this.limits = limits;
+        this.clients = clients;
+        this.rateLimiter = limits.isRateLimited() ? new RateLimiter(limits.ratePerSecond(), limits.burst(), MAX_CLIENTS) : null;
+        this.slots = limits.isConcurrencyLimited() ? new Semaphore(limits.maxConcurrent()) : null;
+    }
+    
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        if (rateLimiter != null) {
+            long waitNanos = rateLimiter.acquire(clients.keyFor(exchange), System.nanoTime());
+            if (waitNanos > 0) {
+                rateLimited.increment();
+                reject(exchange, (waitNanos + 999_999_999) / 1_000_000_000, "Rate limit exceeded");
+                return;
+            }
+        }
+        if (slots != null && !slots.tryAcquire()) {
+            concurrencyLimited.increment();
+            reject(exchange, 1, "Too many concurrent requests");
+            return;
+        }
+        admitted.increment();
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            if (slots != null) {
+                slots.release();
+            }
+        }
+    }
+    
+    private static void reject(HttpExchange exchange, long retryAfterSeconds, String message) throws IOException {
+        byte[] body = new JSONObject().put("error", message).toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfterSeconds));
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(429, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+    
+    public Stats getStats() {
+        return new Stats(route, admitted.sum(), rateLimited.sum(), concurrencyLimited.sum(),
+            rateLimiter != null ? rateLimiter.getClients() : 0,
+            slots != null ? limits.maxConcurrent() - slots.availablePermits() : 0);
+    }
+    
+    @Override
+    public String description() {
+        return "Admission control for " + route;
+    }
+    
+    public record Stats(String route, long admitted, long rateLimited, long concurrencyLimited, int clients, int running) {
+    }
+}
@@ -0,0 +1,53 @@
+
+package com.bookerino.admission;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.bookerino.config.Env;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Decides which bucket a request is charged to: the client's API key when it sends a known one,
+ * otherwise its IP address. Only keys listed in ADMISSION_API_KEYS count, so a client cannot
+ * escape its limit by inventing a new key per request.
+ *
+ * Behind a reverse proxy every request comes from the proxy's address; with
+ * ADMISSION_TRUST_FORWARDED_FOR set, the last X-Forwarded-For entry (the one the proxy added) is
+ * used instead. Leave it off when clients can reach the server directly, since they could
+ * otherwise pick their own address.
+ */
+public class ClientKeys {
+    static final String API_KEY_HEADER = "X-API-Key";
+    
+    private final Set<String> apiKeys = new HashSet<>();
+    private final boolean trustForwardedFor;
+    
+    public ClientKeys(String apiKeys, boolean trustForwardedFor) {
+        for (String key : apiKeys.split(",")) {
+            if (!key.isBlank()) {
+                this.apiKeys.add(key.trim());
+            }
+        }
+        this.trustForwardedFor = trustForwardedFor;
+    }
+    
+    public static ClientKeys fromEnvironment() {
+        return new ClientKeys(Env.getString("ADMISSION_API_KEYS", ""), Env.getBoolean("ADMISSION_TRUST_FORWARDED_FOR", false));
+    }
+    
+    String keyFor(HttpExchange exchange) {
+        if (!apiKeys.isEmpty()) {
+            String apiKey = exchange.getRequestHeaders().getFirst(API_KEY_HEADER);
+            if (apiKey != null && apiKeys.contains(apiKey.trim())) {
+                return "key:" + apiKey.trim();
+            }
+        }
+        if (trustForwardedFor) {
+            String forwarded = exchange.getRequestHeaders().getFirst("X-Forwarded-For");
+            if (forwarded != null && !forwarded.isBlank()) {
+                return "ip:" + forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+            }
+        }
+        return "ip:" + exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+}
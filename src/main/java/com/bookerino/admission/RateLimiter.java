@@ -0,0 +1,75 @@
+
+package com.bookerino.admission;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-client token buckets, kept as the generic cell rate algorithm: each client has a single
+ * "theoretical arrival time", advanced by one emission interval per admitted request and updated
+ * with a compare-and-set. There are no locks and no refill timers, and clients only ever contend
+ * with their own requests.
+ *
+ * A client whose arrival time has passed has a full bucket, exactly as if it had never been
+ * seen, so such clients are dropped whenever the map grows past {@code maxClients}.
+ */
+public class RateLimiter {
+    private final long emissionNanos;
+    private final long toleranceNanos;
+    private final int maxClients;
+    private final ConcurrentHashMap<String, AtomicLong> arrivals = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    
+    /**
+     * @param ratePerSecond sustained requests per second per client
+     * @param burst         requests a client with a full bucket may send at once
+     */
+    public RateLimiter(double ratePerSecond, int burst, int maxClients) {
+        this.emissionNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.toleranceNanos = emissionNanos * Math.max(1, burst);
+        this.maxClients = maxClients;
+    }
+    
+    /**
+     * Takes a token for {@code client}.
+     *
+     * @return 0 when the request is admitted, otherwise the nanoseconds until it would be
+     */
+    public long acquire(String client, long nowNanos) {
+        AtomicLong arrival = arrivals.get(client);
+        if (arrival == null) {
+            arrival = arrivals.computeIfAbsent(client, k -> new AtomicLong(nowNanos));
+            if (arrivals.size() > maxClients) {
+                sweep(nowNanos);
+            }
+        }
+        while (true) {
+            long current = arrival.get();
+            long next = Math.max(current, nowNanos) + emissionNanos;
+            long wait = next - nowNanos - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+    
+    private void sweep(long nowNanos) {
+        // One thread sweeps; the others carry on rather than queue behind it
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            arrivals.values().removeIf(arrival -> arrival.get() - nowNanos <= 0);
+        } finally {
+            sweeping.set(false);
+        }
+    }
+    
+    public int getClients() {
+        return arrivals.size();
+    }
+}
@@ -0,0 +1,39 @@
+
+package com.bookerino.admission;
+
+import com.bookerino.config.Env;
+import java.util.Locale;
+
+/**
+ * Admission limits for one route. A rate or concurrency of zero means no limit.
+ *
+ * The defaults come from ADMISSION_RATE, ADMISSION_BURST and ADMISSION_CONCURRENCY, and each can
+ * be overridden per route with the route's path in the name: ADMISSION_API_ROOMS_RATE applies to
+ * {@code /api/rooms}.
+ */
+public record RouteLimits(double ratePerSecond, int burst, int maxConcurrent) {
+    public static final RouteLimits UNLIMITED = new RouteLimits(0, 0, 0);
+    
+    public static RouteLimits defaults(int maxConcurrent) {
+        return new RouteLimits(
+            Env.getDouble("ADMISSION_RATE", 20),
+            Env.getInt("ADMISSION_BURST", 40),
+            Env.getInt("ADMISSION_CONCURRENCY", maxConcurrent));
+    }
+    
+    public RouteLimits forRoute(String route) {
+        String prefix = "ADMISSION_" + route.replaceAll("[^A-Za-z0-9]+", "_").replaceAll("^_|_$", "").toUpperCase(Locale.ROOT);
+        return new RouteLimits(
+            Env.getDouble(prefix + "_RATE", ratePerSecond),
+            Env.getInt(prefix + "_BURST", burst),
+            Env.getInt(prefix + "_CONCURRENCY", maxConcurrent));
+    }
+    
+    public boolean isRateLimited() {
+        return ratePerSecond > 0;
+    }
+    
+    public boolean isConcurrencyLimited() {
+        return maxConcurrent > 0;
+    }
+}
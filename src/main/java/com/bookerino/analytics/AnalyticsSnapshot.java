@@ -0,0 +1,244 @@
+
+package com.bookerino.analytics;
+
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.events.ChangeListener;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Review;
+import com.bookerino.model.Room;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dashboard totals kept in memory so {@code /api/analytics} is a constant-time read.
+ *
+ * The totals are loaded with one query at startup, adjusted as rooms, bookings and reviews are
+ * committed, and periodically reconciled against the database to correct any drift (rows written
+ * by other processes, failed listeners).
+ */
+public class AnalyticsSnapshot implements ChangeListener {
+    private static final String TOTALS_SQL =
+        "SELECT " +
+        "(SELECT COUNT(*) FROM bookings) AS total_bookings, " +
+        "(SELECT COALESCE(SUM(total_price), 0) FROM bookings WHERE status = 'confirmed') AS revenue, " +
+        "(SELECT COUNT(*) FROM reviews) AS review_count, " +
+        "(SELECT COALESCE(SUM(rating), 0) FROM reviews) AS rating_sum, " +
+        "(SELECT COUNT(*) FROM rooms) AS total_rooms, " +
+        "(SELECT COUNT(*) FROM rooms WHERE status = 'occupied') AS occupied_rooms, " +
+        "(SELECT array_agg(id) FROM rooms WHERE created_at >= CURRENT_TIMESTAMP - INTERVAL '5 minutes') AS recent_rooms, " +
+        "(SELECT array_agg(id) FROM bookings WHERE created_at >= CURRENT_TIMESTAMP - INTERVAL '5 minutes') AS recent_bookings, " +
+        "(SELECT array_agg(id) FROM reviews WHERE created_at >= CURRENT_TIMESTAMP - INTERVAL '5 minutes') AS recent_reviews";
+    
+    private final AtomicReference<Totals> totals = new AtomicReference<>(Totals.EMPTY);
+    private final ReentrantLock reconciling = new ReentrantLock();
+    /** Guards changesDuringReconcile, and the swap of totals against deltas applied meanwhile. */
+    private final Object changes = new Object();
+    private List<Change> changesDuringReconcile;
+    private volatile long reconciledAtMillis;
+    private volatile long updatedAtMillis;
+    /** Last change seen through the listener; reconciliation reads a replica only once it is settled. */
+    private volatile long changedAtMillis;
+    private volatile Totals lastDrift = Totals.EMPTY;
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * Replaces the in-memory totals with the database's and remembers how far apart they were.
+     * Deltas applied while the query runs are buffered and replayed on top of its result unless
+     * it already counted their row; only rows created in the last few minutes can be in both, so
+     * the query returns just their ids.
+     */
+    public void reconcile() throws SQLException {
+        // The scheduler and remote resyncs both call this; one buffer, one reconcile at a time
+        reconciling.lock();
+        try {
+            reconcileNow();
+        } finally {
+            reconciling.unlock();
+        }
+    }
+    
+    private void reconcileNow() throws SQLException {
+        synchronized (changes) {
+            changesDuringReconcile = new ArrayList<>();
+        }
+        
+        Totals loaded;
+        Map<String, Set<Integer>> recentIds = new HashMap<>();
+        try (Connection conn = DatabaseConnection.getReadConnection(changedAtMillis);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(TOTALS_SQL)) {
+            rs.next();
+            loaded = new Totals(
+                rs.getLong("total_bookings"),
+                rs.getBigDecimal("revenue").movePointRight(2).longValue(),
+                rs.getLong("review_count"),
+                rs.getLong("rating_sum"),
+                rs.getLong("total_rooms"),
+                rs.getLong("occupied_rooms")
+            );
+            for (String table : List.of("rooms", "bookings", "reviews")) {
+                recentIds.put(table, ids(rs.getArray("recent_" + table)));
+            }
+        } catch (SQLException e) {
+            synchronized (changes) {
+                changesDuringReconcile = null;
+            }
+            throw e;
+        }
+        
+        Totals reconciled = loaded;
+        Totals previous;
+        synchronized (changes) {
+            for (Change change : changesDuringReconcile) {
+                if (!recentIds.get(change.table()).contains(change.id())) {
+                    reconciled = reconciled.plus(change.delta());
+                }
+            }
+            changesDuringReconcile = null;
+            previous = totals.getAndSet(reconciled);
+        }
+        if (reconciledAtMillis != 0) {
+            lastDrift = reconciled.minus(previous);
+        }
+        reconciledAtMillis = System.currentTimeMillis();
+        updatedAtMillis = reconciledAtMillis;
+    }
+    
+    private static Set<Integer> ids(Array array) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        if (array != null) {
+            for (Object id : (Object[]) array.getArray()) {
+                ids.add(((Number) id).intValue());
+            }
+            array.free();
+        }
+        return ids;
+    }
+    
+    public synchronized void startReconciliation(long periodSeconds) {
+        if (scheduler != null || periodSeconds <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-analytics-reconcile");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (Exception e) {
+                System.err.println("Analytics reconciliation failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+    
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    
+    @Override
+    public void roomSaved(Room room) {
+        apply("rooms", room.id(), new Totals(0, 0, 0, 0, 1, room.isOccupied() ? 1 : 0));
+    }
+    
+    @Override
+    public void bookingCreated(Booking booking) {
+        long revenue = booking.isConfirmed() ? Math.round(booking.totalPrice() * 100) : 0;
+        apply("bookings", booking.id(), new Totals(1, revenue, 0, 0, 0, 0));
+    }
+    
+    @Override
+    public void reviewCreated(Review review) {
+        apply("reviews", review.id(), new Totals(0, 0, 1, review.rating(), 0, 0));
+    }
+    
+    private void apply(String table, int id, Totals delta) {
+        synchronized (changes) {
+            totals.accumulateAndGet(delta, Totals::plus);
+            if (changesDuringReconcile != null) {
+                changesDuringReconcile.add(new Change(table, id, delta));
+            }
+        }
+        updatedAtMillis = System.currentTimeMillis();
+        changedAtMillis = updatedAtMillis;
+    }
+    
+    public Totals getTotals() {
+        return totals.get();
+    }
+    
+    public long getReconciledAtMillis() {
+        return reconciledAtMillis;
+    }
+    
+    public long getUpdatedAtMillis() {
+        return updatedAtMillis;
+    }
+    
+    /**
+     * Difference found by the latest reconciliation (database minus memory); all zero when the
+     * incremental updates kept up.
+     */
+    public Totals getLastDrift() {
+        return lastDrift;
+    }
+    
+    private record Change(String table, int id, Totals delta) {}
+    
+    public record Totals(long bookings, long confirmedRevenueCents, long reviews, long ratingSum,
+                         long rooms, long occupiedRooms) {
+        static final Totals EMPTY = new Totals(0, 0, 0, 0, 0, 0);
+        
+        Totals plus(Totals other) {
+            return new Totals(
+                bookings + other.bookings,
+                confirmedRevenueCents + other.confirmedRevenueCents,
+                reviews + other.reviews,
+                ratingSum + other.ratingSum,
+                rooms + other.rooms,
+                occupiedRooms + other.occupiedRooms
+            );
+        }
+        
+        Totals minus(Totals other) {
+            return new Totals(
+                bookings - other.bookings,
+                confirmedRevenueCents - other.confirmedRevenueCents,
+                reviews - other.reviews,
+                ratingSum - other.ratingSum,
+                rooms - other.rooms,
+                occupiedRooms - other.occupiedRooms
+            );
+        }
+        
+        public double totalRevenue() {
+            return confirmedRevenueCents / 100.0;
+        }
+        
+        public double averageRating() {
+            return reviews > 0 ? (double) ratingSum / reviews : 0;
+        }
+        
+        public double occupancyRate() {
+            return rooms > 0 ? occupiedRooms * 100.0 / rooms : 0;
+        }
+        
+        public boolean isZero() {
+            return equals(EMPTY);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+
+package com.bookerino.analytics;
+
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.events.ChangeListener;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Room;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Room-nights and revenue per calendar day, for revenue and occupancy time series.
+ *
+ * Every non-cancelled booking is expanded into the nights it covers: each night adds one booked
+ * room-night, and for confirmed bookings one sold room-night plus an equal share of the total
+ * price (in cents, the remainder going to the first nights). The per-day counters are plain
+ * primitive arrays indexed from {@code baseDay}, grown as bookings reach further out, so a
+ * year of history is a few tens of kilobytes and a query is a linear pass over its days.
+ *
+ * New bookings are added as they commit; {@link #reload()} rebuilds everything from the database
+ * and runs periodically to pick up changes made elsewhere (status updates, other processes); it
+ * reads from a replica when one is configured and no booking has been added here too recently.
+ * Available room-nights use the current room count for every day, since rooms carry no history.
+ */
+public class RevenueTimeSeries implements ChangeListener {
+    private static final int FETCH_SIZE = 1000;
+    private static final int INITIAL_DAYS = 512;
+    /** Stays longer than this are treated as bad data rather than expanded night by night. */
+    private static final int MAX_STAY_NIGHTS = 3660;
+    /** Stays starting further than this from today are ignored rather than grow the arrays. */
+    private static final int MAX_DAYS_FROM_TODAY = 36_600;
+    private static final String LOAD_SQL =
+        "SELECT id, check_in, check_out, status, total_price, " +
+        "created_at >= CURRENT_TIMESTAMP - INTERVAL '5 minutes' AS recent " +
+        "FROM bookings WHERE status <> 'cancelled'";
+    
+    public enum Granularity { DAY, WEEK, MONTH }
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock reloading = new ReentrantLock();
+    private Days days = new Days(LocalDate.now().toEpochDay() - INITIAL_DAYS / 2, INITIAL_DAYS);
+    private long rooms;
+    private List<Booking> changesDuringReload;
+    private volatile long changedAtMillis;
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * Rebuilds the series from the database and swaps it in. Bookings that commit while the load
+     * runs are buffered and replayed unless the load already saw them; recently created rows are
+     * the only ones that can be in both, so only their ids are remembered.
+     */
+    public void reload() throws SQLException {
+        // One reload at a time; changesDuringReload belongs to the one running
+        reloading.lock();
+        try {
+            reloadNow();
+        } finally {
+            reloading.unlock();
+        }
+    }
+    
+    private void reloadNow() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            changesDuringReload = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        
+        Days loaded = new Days(LocalDate.now().toEpochDay() - INITIAL_DAYS / 2, INITIAL_DAYS);
+        Set<Integer> recentIds = new HashSet<>();
+        long roomCount;
+        try (Connection conn = DatabaseConnection.getReadConnection(changedAtMillis)) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM rooms")) {
+                rs.next();
+                roomCount = rs.getLong(1);
+            }
+            // The PostgreSQL driver only streams with a fetch size inside a transaction
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                stmt.setFetchSize(FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery(LOAD_SQL)) {
+                    while (rs.next()) {
+                        BigDecimal price = rs.getBigDecimal("total_price");
+                        loaded = loaded.add(
+                            rs.getDate("check_in").toLocalDate(),
+                            rs.getDate("check_out").toLocalDate(),
+                            "confirmed".equals(rs.getString("status")),
+                            price == null ? 0 : price.movePointRight(2).longValue());
+                        if (rs.getBoolean("recent")) {
+                            recentIds.add(rs.getInt("id"));
+                        }
+                    }
+                }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            lock.writeLock().lock();
+            try {
+                changesDuringReload = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        
+        lock.writeLock().lock();
+        try {
+            for (Booking booking : changesDuringReload) {
+                if (!recentIds.contains(booking.id())) {
+                    loaded = add(loaded, booking);
+                }
+            }
+            changesDuringReload = null;
+            days = loaded;
+            rooms = roomCount;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public synchronized void startReconciliation(long periodSeconds) {
+        if (scheduler != null || periodSeconds <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-timeseries-reload");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (Exception e) {
+                System.err.println("Time series reload failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+    
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    
+    @Override
+    public void roomSaved(Room room) {
+        changedAtMillis = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            rooms++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public void bookingCreated(Booking booking) {
+        if (booking.isCancelled()) {
+            return;
+        }
+        changedAtMillis = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            days = add(days, booking);
+            if (changesDuringReload != null) {
+                changesDuringReload.add(booking);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private static Days add(Days target, Booking booking) {
+        return target.add(booking.checkIn(), booking.checkOut(), booking.isConfirmed(),
+            Math.round(booking.totalPrice() * 100));
+    }
+    
+    /**
+     * Buckets the days {@code from} through {@code to} (inclusive). Weeks start on Monday and
+     * months on the 1st; the first and last buckets are clipped to the range.
+     */
+    public List<Bucket> query(LocalDate from, LocalDate to, Granularity granularity) {
+        List<Bucket> buckets = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            LocalDate start = from;
+            while (!start.isAfter(to)) {
+                LocalDate next = switch (granularity) {
+                    case DAY -> start.plusDays(1);
+                    case WEEK -> start.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+                    case MONTH -> start.with(TemporalAdjusters.firstDayOfNextMonth());
+                };
+                LocalDate end = next.isAfter(to) ? to.plusDays(1) : next;
+                buckets.add(days.sum(start, end, rooms));
+                start = end;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return buckets;
+    }
+    
+    /**
+     * Totals over {@code [start, end)}; revenue is in cents.
+     */
+    public record Bucket(LocalDate start, LocalDate end, long availableNights, long bookedNights,
+                         long soldNights, long revenueCents) {
+        public double revenue() {
+            return revenueCents / 100.0;
+        }
+        
+        /** Average daily rate: revenue per sold room-night. */
+        public double adr() {
+            return soldNights > 0 ? revenueCents / 100.0 / soldNights : 0;
+        }
+        
+        /** Revenue per available room-night. */
+        public double revpar() {
+            return availableNights > 0 ? revenueCents / 100.0 / availableNights : 0;
+        }
+        
+        public double occupancy() {
+            return availableNights > 0 ? (double) bookedNights / availableNights : 0;
+        }
+    }
+    
+    /**
+     * Per-day counters from {@code baseDay}. {@link #add} grows the arrays (doubling, in either
+     * direction) when a stay falls outside them and returns the instance to keep.
+     */
+    private static final class Days {
+        final long baseDay;
+        final int[] booked;
+        final int[] sold;
+        final long[] revenueCents;
+        
+        Days(long baseDay, int length) {
+            this.baseDay = baseDay;
+            this.booked = new int[length];
+            this.sold = new int[length];
+            this.revenueCents = new long[length];
+        }
+        
+        Days add(LocalDate checkIn, LocalDate checkOut, boolean confirmed, long priceCents) {
+            long first = checkIn.toEpochDay();
+            long nights = checkOut.toEpochDay() - first;
+            if (nights <= 0 || nights > MAX_STAY_NIGHTS || Math.abs(first - LocalDate.now().toEpochDay()) > MAX_DAYS_FROM_TODAY) {
+                return this;
+            }
+            Days target = covering(first, first + nights);
+            int offset = (int) (first - target.baseDay);
+            long share = priceCents / nights;
+            long remainder = priceCents % nights;
+            for (int i = 0; i < nights; i++) {
+                target.booked[offset + i]++;
+                if (confirmed) {
+                    target.sold[offset + i]++;
+                    target.revenueCents[offset + i] += share + (i < remainder ? 1 : 0);
+                }
+            }
+            return target;
+        }
+        
+        private Days covering(long fromDay, long toDay) {
+            if (fromDay >= baseDay && toDay <= baseDay + booked.length) {
+                return this;
+            }
+            long newBase = Math.min(baseDay, fromDay);
+            long newEnd = Math.max(baseDay + booked.length, toDay);
+            int length = booked.length;
+            while (length < newEnd - newBase) {
+                length *= 2;
+            }
+            // Spend the extra room on the side that needed to grow
+            if (fromDay < baseDay) {
+                newBase = newEnd - length;
+            }
+            Days grown = new Days(newBase, length);
+            int shift = (int) (baseDay - newBase);
+            System.arraycopy(booked, 0, grown.booked, shift, booked.length);
+            System.arraycopy(sold, 0, grown.sold, shift, sold.length);
+            System.arraycopy(revenueCents, 0, grown.revenueCents, shift, revenueCents.length);
+            return grown;
+        }
+        
+        Bucket sum(LocalDate start, LocalDate end, long rooms) {
+            long startDay = start.toEpochDay();
+            long endDay = end.toEpochDay();
+            long bookedNights = 0;
+            long soldNights = 0;
+            long revenue = 0;
+            long from = Math.max(startDay, baseDay);
+            long to = Math.min(endDay, baseDay + booked.length);
+            for (long day = from; day < to; day++) {
+                int i = (int) (day - baseDay);
+                bookedNights += booked[i];
+                soldNights += sold[i];
+                revenue += revenueCents[i];
+            }
+            return new Bucket(start, end, rooms * (endDay - startDay), bookedNights, soldNights, revenue);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+
+package com.bookerino.analytics;
+
+import com.bookerino.config.Env;
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.events.ChangeListener;
+import com.bookerino.model.Review;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-room rating aggregates (review count, rating sum and a 1-5 star histogram) kept in memory
+ * so a room's rating and the top-rated list never scan {@code reviews}.
+ *
+ * Aggregates are loaded with one grouped query at startup, adjusted as reviews are committed, and
+ * reconciled periodically like {@link AnalyticsSnapshot}. Rooms are ranked by a Bayesian average
+ * that pulls rooms with few reviews towards the overall mean, so one 5-star review does not top
+ * the list. The top {@code ROOM_TOP_RATED_MAX} rooms are selected with a bounded heap and cached
+ * until the next rating change.
+ */
+public class RoomRatings implements ChangeListener {
+    private static final String LOAD_SQL =
+        "SELECT room_id, rating, COUNT(*) AS reviews, " +
+        "array_agg(id) FILTER (WHERE created_at >= CURRENT_TIMESTAMP - INTERVAL '5 minutes') AS recent " +
+        "FROM reviews WHERE room_id IS NOT NULL GROUP BY room_id, rating";
+    
+    private final int maxTop;
+    private final double priorWeight;
+    private final Map<Integer, Rating> ratings = new ConcurrentHashMap<>();
+    private final Object topLock = new Object();
+    private final ReentrantLock reloading = new ReentrantLock();
+    /** Guards reviewsDuringReload and orders reviewCreated against the swap at the end of a reload. */
+    private final Object pending = new Object();
+    private List<Review> reviewsDuringReload;
+    private volatile List<Ranked> top;
+    private volatile long changedAtMillis;
+    private long changes;
+    private ScheduledExecutorService scheduler;
+    
+    public RoomRatings() {
+        this(Env.getInt("ROOM_TOP_RATED_MAX", 100), Env.getDouble("ROOM_RATING_PRIOR_WEIGHT", 5));
+    }
+    
+    /**
+     * @param maxTop      largest {@code limit} the top-rated list serves
+     * @param priorWeight number of reviews at the overall mean every room is assumed to start with
+     */
+    public RoomRatings(int maxTop, double priorWeight) {
+        this.maxTop = Math.max(1, maxTop);
+        this.priorWeight = Math.max(0, priorWeight);
+    }
+    
+    /**
+     * Reloads every room's aggregate. Reviews committed while the query runs are buffered and
+     * counted again unless the query already did; it reports the ids of reviews created in the
+     * last few minutes, the only ones that can be in both.
+     */
+    public void reload() throws SQLException {
+        reloading.lock();
+        try {
+            reloadNow();
+        } finally {
+            reloading.unlock();
+        }
+    }
+    
+    private void reloadNow() throws SQLException {
+        synchronized (pending) {
+            reviewsDuringReload = new ArrayList<>();
+        }
+        
+        Map<Integer, long[]> stars = new HashMap<>();
+        Set<Integer> recentIds = new HashSet<>();
+        try (Connection conn = DatabaseConnection.getReadConnection(changedAtMillis);
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(LOAD_SQL)) {
+            while (rs.next()) {
+                int rating = rs.getInt("rating");
+                if (rating >= 1 && rating <= 5) {
+                    stars.computeIfAbsent(rs.getInt("room_id"), id -> new long[5])[rating - 1] = rs.getLong("reviews");
+                }
+                Array recent = rs.getArray("recent");
+                if (recent != null) {
+                    for (Object id : (Object[]) recent.getArray()) {
+                        recentIds.add(((Number) id).intValue());
+                    }
+                    recent.free();
+                }
+            }
+        } catch (SQLException e) {
+            synchronized (pending) {
+                reviewsDuringReload = null;
+            }
+            throw e;
+        }
+        
+        synchronized (pending) {
+            for (Review review : reviewsDuringReload) {
+                if (!recentIds.contains(review.id())) {
+                    stars.computeIfAbsent(review.roomId(), id -> new long[5])[review.rating() - 1]++;
+                }
+            }
+            reviewsDuringReload = null;
+            synchronized (topLock) {
+                ratings.keySet().retainAll(stars.keySet());
+                for (Map.Entry<Integer, long[]> entry : stars.entrySet()) {
+                    ratings.put(entry.getKey(), new Rating(entry.getKey(), entry.getValue()));
+                }
+                invalidate();
+            }
+        }
+    }
+    
+    public synchronized void startReconciliation(long periodSeconds) {
+        if (scheduler != null || periodSeconds <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-ratings-reconcile");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                reload();
+            } catch (Exception e) {
+                System.err.println("Room rating reconciliation failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+    
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    
+    @Override
+    public void reviewCreated(Review review) {
+        if (review.rating() < 1 || review.rating() > 5) {
+            return;
+        }
+        changedAtMillis = System.currentTimeMillis();
+        synchronized (pending) {
+            ratings.compute(review.roomId(), (id, rating) ->
+                (rating != null ? rating : new Rating(id, new long[5])).plus(review.rating()));
+            if (reviewsDuringReload != null) {
+                reviewsDuringReload.add(review);
+            }
+        }
+        synchronized (topLock) {
+            invalidate();
+        }
+    }
+    
+    private void invalidate() {
+        changes++;
+        top = null;
+    }
+    
+    /**
+     * The room's aggregate; all zero when it has no reviews.
+     */
+    public Rating get(int roomId) {
+        Rating rating = ratings.get(roomId);
+        return rating != null ? rating : new Rating(roomId, new long[5]);
+    }
+    
+    public int getMaxTop() {
+        return maxTop;
+    }
+    
+    /**
+     * The {@code limit} best rooms by Bayesian average, best first; rooms without reviews are
+     * never listed.
+     */
+    public List<Ranked> topRated(int limit) {
+        List<Ranked> ranked = top;
+        if (ranked == null) {
+            ranked = computeTop();
+        }
+        return ranked.subList(0, Math.min(Math.max(limit, 0), ranked.size()));
+    }
+    
+    private List<Ranked> computeTop() {
+        long seenChanges;
+        synchronized (topLock) {
+            if (top != null) {
+                return top;
+            }
+            seenChanges = changes;
+        }
+        
+        long count = 0;
+        long sum = 0;
+        for (Rating rating : ratings.values()) {
+            count += rating.count();
+            sum += rating.sum();
+        }
+        double mean = count > 0 ? (double) sum / count : 0;
+        
+        // Min-heap of the best maxTop so far: O(rooms * log maxTop), never sorting every room
+        Comparator<Ranked> order = Comparator.comparingDouble(Ranked::score)
+            .thenComparingLong(r -> r.rating().count())
+            .thenComparingInt(r -> -r.rating().roomId());
+        PriorityQueue<Ranked> heap = new PriorityQueue<>(maxTop + 1, order);
+        for (Rating rating : ratings.values()) {
+            if (rating.count() == 0) {
+                continue;
+            }
+            double score = (priorWeight * mean + rating.sum()) / (priorWeight + rating.count());
+            Ranked candidate = new Ranked(rating, score);
+            if (heap.size() < maxTop) {
+                heap.add(candidate);
+            } else if (order.compare(candidate, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+        
+        List<Ranked> result = new ArrayList<>(heap);
+        result.sort(order.reversed());
+        result = Collections.unmodifiableList(result);
+        synchronized (topLock) {
+            // A rating that changed while ranking leaves the result stale; serve it, but don't keep it
+            if (changes == seenChanges) {
+                top = result;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Immutable aggregate for one room; {@code stars[i]} counts the reviews rated {@code i + 1}.
+     */
+    public record Rating(int roomId, long[] stars) {
+        Rating plus(int rating) {
+            long[] next = stars.clone();
+            next[rating - 1]++;
+            return new Rating(roomId, next);
+        }
+        
+        public long count() {
+            long count = 0;
+            for (long n : stars) {
+                count += n;
+            }
+            return count;
+        }
+        
+        public long sum() {
+            long sum = 0;
+            for (int i = 0; i < stars.length; i++) {
+                sum += (i + 1) * stars[i];
+            }
+            return sum;
+        }
+        
+        public double average() {
+            long count = count();
+            return count > 0 ? (double) sum() / count : 0;
+        }
+    }
+    
+    public record Ranked(Rating rating, double score) {
+    }
+}
@@ -0,0 +1,366 @@
+
+package com.bookerino.availability;
+
+import com.bookerino.config.Env;
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.events.ChangeListener;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Room;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory occupancy of every room over a rolling window of days.
+ *
+ * Each room owns a bitset with one bit per night from {@code baseDay}; a set bit means a
+ * non-cancelled booking covers that night. Checking a stay is a handful of word operations per
+ * room, so a search over hundreds of rooms and a year-long window stays in the microsecond range.
+ * Stays outside the window are answered from the database instead.
+ *
+ * Marking nights is idempotent, which lets {@link #rebuild()} replay bookings that committed
+ * while it was loading without double counting anything.
+ */
+public class AvailabilityIndex implements ChangeListener {
+    private static final int FETCH_SIZE = 1000;
+    
+    private final int horizonDays;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock rebuilding = new ReentrantLock();
+    private State state;
+    private List<Object> changesDuringRebuild;
+    private ScheduledExecutorService scheduler;
+    
+    public AvailabilityIndex() {
+        this(Env.getInt("AVAILABILITY_HORIZON_DAYS", 400));
+    }
+    
+    public AvailabilityIndex(int horizonDays) {
+        this.horizonDays = horizonDays;
+        this.state = new State(LocalDate.now().toEpochDay(), horizonDays);
+    }
+    
+    /**
+     * Loads rooms and the bookings that overlap the window starting today, then swaps the result
+     * in. Queries keep using the previous state until the swap. The daily rebuild and change-feed
+     * resyncs can ask at the same time; they take turns, as each buffers the changes committed
+     * during its own load.
+     */
+    public void rebuild() throws SQLException {
+        rebuilding.lock();
+        try {
+            rebuildNow();
+        } finally {
+            rebuilding.unlock();
+        }
+    }
+    
+    private void rebuildNow() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            changesDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        
+        State fresh = new State(LocalDate.now().toEpochDay(), horizonDays);
+        try {
+            load(fresh);
+        } catch (SQLException | RuntimeException e) {
+            lock.writeLock().lock();
+            try {
+                changesDuringRebuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        
+        lock.writeLock().lock();
+        try {
+            for (Object change : changesDuringRebuild) {
+                if (change instanceof Room) {
+                    fresh.addRoom(((Room) change).id(), ((Room) change).capacity());
+                } else {
+                    fresh.markBooking((Booking) change);
+                }
+            }
+            changesDuringRebuild = null;
+            state = fresh;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    private void load(State target) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT id, capacity FROM rooms")) {
+                while (rs.next()) {
+                    target.addRoom(rs.getInt("id"), rs.getInt("capacity"));
+                }
+            }
+            
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT room_id, check_in, check_out FROM bookings " +
+                "WHERE status <> 'cancelled' AND check_out > ? AND check_in < ?")) {
+                pstmt.setFetchSize(FETCH_SIZE);
+                pstmt.setDate(1, Date.valueOf(LocalDate.ofEpochDay(target.baseDay)));
+                pstmt.setDate(2, Date.valueOf(LocalDate.ofEpochDay(target.baseDay + target.days)));
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        target.mark(rs.getInt("room_id"),
+                            rs.getDate("check_in").toLocalDate().toEpochDay(),
+                            rs.getDate("check_out").toLocalDate().toEpochDay());
+                    }
+                }
+            }
+            conn.commit();
+        }
+    }
+    
+    /**
+     * Rebuilds once a day so the window keeps starting at today.
+     */
+    public synchronized void startDailyRebuild() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-availability-rebuild");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebuild();
+            } catch (Exception e) {
+                System.err.println("Availability index rebuild failed: " + e.getMessage());
+            }
+        }, 24, 24, TimeUnit.HOURS);
+    }
+    
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    
+    @Override
+    public void roomSaved(Room room) {
+        lock.writeLock().lock();
+        try {
+            state.addRoom(room.id(), room.capacity());
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(room);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    @Override
+    public void bookingCreated(Booking booking) {
+        if (booking.isCancelled()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            state.markBooking(booking);
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(booking);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Whether the index can answer for this stay; callers fall back to {@link #findAvailableInDatabase}
+     * otherwise.
+     */
+    public boolean covers(LocalDate checkIn, LocalDate checkOut) {
+        lock.readLock().lock();
+        try {
+            return state.covers(checkIn.toEpochDay(), checkOut.toEpochDay());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Ids of rooms with at least {@code guests} capacity and no booking overlapping
+     * {@code [checkIn, checkOut)}, in ascending order, or {@code null} if the stay lies outside
+     * the window.
+     */
+    public int[] findAvailable(LocalDate checkIn, LocalDate checkOut, int guests) {
+        lock.readLock().lock();
+        try {
+            return state.findAvailable(checkIn.toEpochDay(), checkOut.toEpochDay(), guests);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Whether the room is free for the whole stay, or {@code null} if the index cannot tell
+     * (unknown room or stay outside the window).
+     */
+    public Boolean isAvailable(int roomId, LocalDate checkIn, LocalDate checkOut) {
+        lock.readLock().lock();
+        try {
+            return state.isAvailable(roomId, checkIn.toEpochDay(), checkOut.toEpochDay());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public static int[] findAvailableInDatabase(LocalDate checkIn, LocalDate checkOut, int guests) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(
+                 "SELECT r.id FROM rooms r WHERE r.capacity >= ? AND NOT EXISTS (" +
+                 "SELECT 1 FROM bookings b WHERE b.room_id = r.id AND b.status <> 'cancelled' " +
+                 "AND b.check_in < ? AND b.check_out > ?) ORDER BY r.id")) {
+            pstmt.setInt(1, guests);
+            pstmt.setDate(2, Date.valueOf(checkOut));
+            pstmt.setDate(3, Date.valueOf(checkIn));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                int[] ids = new int[16];
+                int count = 0;
+                while (rs.next()) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = rs.getInt(1);
+                }
+                return Arrays.copyOf(ids, count);
+            }
+        }
+    }
+    
+    private static final class State {
+        final long baseDay;
+        final int days;
+        final int words;
+        int roomCount;
+        int[] roomIds = new int[64];
+        int[] capacities = new int[64];
+        long[][] nights = new long[64][];
+        final Map<Integer, Integer> slots = new HashMap<>();
+        
+        State(long baseDay, int days) {
+            this.baseDay = baseDay;
+            this.days = days;
+            this.words = (days + 63) >>> 6;
+        }
+        
+        void addRoom(int roomId, int capacity) {
+            Integer slot = slots.get(roomId);
+            if (slot != null) {
+                capacities[slot] = capacity;
+                return;
+            }
+            if (roomCount == roomIds.length) {
+                roomIds = Arrays.copyOf(roomIds, roomCount * 2);
+                capacities = Arrays.copyOf(capacities, roomCount * 2);
+                nights = Arrays.copyOf(nights, roomCount * 2);
+            }
+            // Keep slots sorted by room id so results come out in id order without sorting
+            int at = roomCount;
+            while (at > 0 && roomIds[at - 1] > roomId) {
+                roomIds[at] = roomIds[at - 1];
+                capacities[at] = capacities[at - 1];
+                nights[at] = nights[at - 1];
+                slots.put(roomIds[at], at);
+                at--;
+            }
+            roomIds[at] = roomId;
+            capacities[at] = capacity;
+            nights[at] = new long[words];
+            slots.put(roomId, at);
+            roomCount++;
+        }
+        
+        void markBooking(Booking booking) {
+            mark(booking.roomId(), booking.checkIn().toEpochDay(), booking.checkOut().toEpochDay());
+        }
+        
+        void mark(int roomId, long checkInDay, long checkOutDay) {
+            Integer slot = slots.get(roomId);
+            if (slot == null) {
+                return;
+            }
+            int from = (int) Math.max(0, checkInDay - baseDay);
+            int to = (int) Math.min(days, checkOutDay - baseDay);
+            if (from >= to) {
+                return;
+            }
+            long[] bits = nights[slot];
+            int firstWord = from >>> 6;
+            int lastWord = (to - 1) >>> 6;
+            for (int w = firstWord; w <= lastWord; w++) {
+                bits[w] |= rangeMask(w, from, to);
+            }
+        }
+        
+        boolean covers(long checkInDay, long checkOutDay) {
+            return checkInDay >= baseDay && checkOutDay <= baseDay + days && checkInDay < checkOutDay;
+        }
+        
+        int[] findAvailable(long checkInDay, long checkOutDay, int guests) {
+            if (!covers(checkInDay, checkOutDay)) {
+                return null;
+            }
+            int from = (int) (checkInDay - baseDay);
+            int to = (int) (checkOutDay - baseDay);
+            int[] result = new int[roomCount];
+            int count = 0;
+            for (int slot = 0; slot < roomCount; slot++) {
+                if (capacities[slot] >= guests && isFree(nights[slot], from, to)) {
+                    result[count++] = roomIds[slot];
+                }
+            }
+            return Arrays.copyOf(result, count);
+        }
+        
+        Boolean isAvailable(int roomId, long checkInDay, long checkOutDay) {
+            Integer slot = slots.get(roomId);
+            if (slot == null || !covers(checkInDay, checkOutDay)) {
+                return null;
+            }
+            return isFree(nights[slot], (int) (checkInDay - baseDay), (int) (checkOutDay - baseDay));
+        }
+        
+        private static boolean isFree(long[] bits, int from, int to) {
+            int firstWord = from >>> 6;
+            int lastWord = (to - 1) >>> 6;
+            for (int w = firstWord; w <= lastWord; w++) {
+                if ((bits[w] & rangeMask(w, from, to)) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        /**
+         * Bits of word {@code w} that fall inside nights {@code [from, to)}.
+         */
+        private static long rangeMask(int w, int from, int to) {
+            int lo = Math.max(from - (w << 6), 0);
+            int hi = Math.min(to - (w << 6), 64);
+            long upper = hi == 64 ? -1L : (1L << hi) - 1;
+            return upper & (-1L << lo);
+        }
+    }
+}
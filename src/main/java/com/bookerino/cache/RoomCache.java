@@ -0,0 +1,181 @@
+
+package com.bookerino.cache;
+
+import com.bookerino.config.Env;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.database.RowMappers;
+import com.bookerino.events.ChangeListener;
+import com.bookerino.model.Room;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read-through cache of the room catalog: single rooms by id, and serialized list pages keyed by
+ * the query that produced them.
+ *
+ * Both maps are LRU-bounded and entries expire after a TTL. A committed room change drops every
+ * list page and refreshes the room's own entry; a generation counter stops a load that raced
+ * with such a change from storing what it read before the change.
+ */
+public class RoomCache implements ChangeListener {
+    private final int maxRooms;
+    private final int maxViews;
+    private final long ttlNanos;
+    
+    private final Map<Integer, Timed<Room>> rooms;
+    private final Map<String, Timed<ListView>> views;
+    private long generation;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    
+    public RoomCache() {
+        this(Env.getInt("ROOM_CACHE_MAX_ROOMS", 5000),
+             Env.getInt("ROOM_CACHE_MAX_VIEWS", 256),
+             Env.getLong("ROOM_CACHE_TTL_SECONDS", 300));
+    }
+    
+    public RoomCache(int maxRooms, int maxViews, long ttlSeconds) {
+        this.maxRooms = maxRooms;
+        this.maxViews = maxViews;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.rooms = boundedMap(maxRooms);
+        this.views = boundedMap(maxViews);
+    }
+    
+    @FunctionalInterface
+    public interface ViewLoader {
+        ListView load() throws SQLException, IOException;
+    }
+    
+    /**
+     * Returns the room with the given id, or {@code null} when there is none.
+     */
+    public Room getRoom(int id) throws SQLException {
+        long loadGeneration;
+        synchronized (this) {
+            Room cached = fresh(rooms, id);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            loadGeneration = generation;
+        }
+        misses.increment();
+        
+        Room room = loadRoom(id);
+        if (room != null) {
+            synchronized (this) {
+                if (loadGeneration == generation) {
+                    rooms.put(id, new Timed<>(room));
+                }
+            }
+        }
+        return room;
+    }
+    
+    public ListView getListView(String key, ViewLoader loader) throws SQLException, IOException {
+        long loadGeneration;
+        synchronized (this) {
+            ListView cached = fresh(views, key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            loadGeneration = generation;
+        }
+        misses.increment();
+        
+        ListView view = loader.load();
+        synchronized (this) {
+            if (loadGeneration == generation) {
+                views.put(key, new Timed<>(view));
+            }
+        }
+        return view;
+    }
+    
+    @Override
+    public synchronized void roomSaved(Room room) {
+        generation++;
+        invalidations.increment();
+        views.clear();
+        rooms.put(room.id(), new Timed<>(room));
+    }
+    
+    public synchronized void invalidateAll() {
+        generation++;
+        invalidations.increment();
+        views.clear();
+        rooms.clear();
+    }
+    
+    public Stats getStats() {
+        int roomCount;
+        int viewCount;
+        synchronized (this) {
+            roomCount = rooms.size();
+            viewCount = views.size();
+        }
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), invalidations.sum(),
+            roomCount, maxRooms, viewCount, maxViews);
+    }
+    
+    private <K, V> V fresh(Map<K, Timed<V>> map, K key) {
+        Timed<V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.loadedAt > ttlNanos) {
+            map.remove(key);
+            expirations.increment();
+            return null;
+        }
+        return entry.value;
+    }
+    
+    private <K, V> Map<K, V> boundedMap(int maxEntries) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    private static Room loadRoom(int id) throws SQLException {
+        return Jdbc.queryOne(Queries.ROOM_BY_ID, RowMappers.ROOM, id);
+    }
+    
+    private static final class Timed<V> {
+        final V value;
+        final long loadedAt = System.nanoTime();
+        
+        Timed(V value) {
+            this.value = value;
+        }
+    }
+    
+    /**
+     * A serialized list page and the cursor of the page after it, {@code null} on the last one.
+     * Clients revalidate against the rooms table's version, not the page's bytes.
+     */
+    public record ListView(byte[] body, String nextCursor) {
+    }
+    
+    public record Stats(long hits, long misses, long evictions, long expirations, long invalidations,
+                        int rooms, int maxRooms, int views, int maxViews) {
+    }
+}
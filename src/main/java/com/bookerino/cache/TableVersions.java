@@ -0,0 +1,78 @@
+
+package com.bookerino.cache;
+
+import com.bookerino.events.ChangeListener;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Review;
+import com.bookerino.model.Room;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Change counters for the tables behind the GET endpoints, used as HTTP validators.
+ *
+ * Every committed write announced through {@code ChangeEvents} bumps its table's version and
+ * modification time, so a handler can compare a client's {@code If-None-Match} or
+ * {@code If-Modified-Since} with the current version and answer 304 without running its query.
+ * ETags include the process start time, so they never match across restarts. Writes made by
+ * other processes arrive through the change feed, once it has replayed or resynced them.
+ */
+public class TableVersions implements ChangeListener {
+    public enum Table { ROOMS, BOOKINGS, REVIEWS }
+    
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLongArray versions = new AtomicLongArray(Table.values().length);
+    private final AtomicLongArray modifiedAt = new AtomicLongArray(Table.values().length);
+    
+    public TableVersions() {
+        long now = System.currentTimeMillis();
+        for (Table table : Table.values()) {
+            modifiedAt.set(table.ordinal(), now);
+        }
+    }
+    
+    public void bump(Table table) {
+        modifiedAt.set(table.ordinal(), System.currentTimeMillis());
+        versions.incrementAndGet(table.ordinal());
+    }
+    
+    public long version(Table table) {
+        return versions.get(table.ordinal());
+    }
+    
+    /**
+     * Weak ETag covering the given tables; it changes whenever any of them is written.
+     */
+    public String etag(Table... tables) {
+        StringBuilder tag = new StringBuilder(32).append("W/\"").append(epoch);
+        for (Table table : tables) {
+            tag.append('-').append(Long.toString(version(table), 36));
+        }
+        return tag.append('"').toString();
+    }
+    
+    /**
+     * Latest modification time, in epoch milliseconds, across the given tables.
+     */
+    public long lastModified(Table... tables) {
+        long latest = 0;
+        for (Table table : tables) {
+            latest = Math.max(latest, modifiedAt.get(table.ordinal()));
+        }
+        return latest;
+    }
+    
+    @Override
+    public void roomSaved(Room room) {
+        bump(Table.ROOMS);
+    }
+    
+    @Override
+    public void bookingCreated(Booking booking) {
+        bump(Table.BOOKINGS);
+    }
+    
+    @Override
+    public void reviewCreated(Review review) {
+        bump(Table.REVIEWS);
+    }
+}
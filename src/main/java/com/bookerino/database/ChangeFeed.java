@@ -0,0 +1,208 @@
+
+package com.bookerino.database;
+
+import com.bookerino.config.Env;
+import org.json.*;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import java.sql.*;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Committed changes to rooms, bookings and reviews made by any process sharing the database, as
+ * announced by the triggers of migration 4, received on a single {@code LISTEN} connection.
+ *
+ * Each notification covers one statement: the table, the operation, how many rows it touched and
+ * their ids (left out past 500 rows), and the {@code application_name} of the session that wrote
+ * them, which tells this process's own writes from those of other instances and the CLI. Delivery
+ * follows commit order. Notifications sent while the connection is down are lost, so listeners
+ * are told when it comes back and can resync from the tables.
+ */
+public class ChangeFeed {
+    public static final String CHANNEL = "bookerino_changes";
+    
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final int pollMillis;
+    private final long validateNanos;
+    private final long maxBackoffMillis;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile boolean connected;
+    
+    private final LongAdder local = new LongAdder();
+    private final LongAdder remote = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    
+    public ChangeFeed() {
+        this(Env.getInt("CHANGE_FEED_POLL_MS", 1000),
+             Env.getLong("CHANGE_FEED_VALIDATE_SECONDS", 30),
+             Env.getLong("CHANGE_FEED_MAX_BACKOFF_MS", 30000));
+    }
+    
+    public ChangeFeed(int pollMillis, long validateSeconds, long maxBackoffMillis) {
+        this.pollMillis = Math.max(10, pollMillis);
+        this.validateNanos = TimeUnit.SECONDS.toNanos(Math.max(1, validateSeconds));
+        this.maxBackoffMillis = Math.max(100, maxBackoffMillis);
+    }
+    
+    public interface Listener {
+        /**
+         * Called on the feed's thread, one change at a time, in commit order.
+         */
+        void changed(Change change);
+        
+        /**
+         * The feed is listening again after losing its connection; changes committed meanwhile
+         * were not delivered.
+         */
+        default void reconnected() {
+        }
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "bookerino-change-feed");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(pollMillis * 2L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+    
+    private void run() {
+        long backoff = 0;
+        boolean missedChanges = false;
+        while (running) {
+            if (backoff > 0) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            try (Connection conn = DatabaseConnection.openDedicated()) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("LISTEN " + CHANNEL);
+                }
+                connected = true;
+                backoff = 0;
+                if (missedChanges) {
+                    reconnects.increment();
+                    System.out.println("Change feed reconnected");
+                    for (Listener listener : listeners) {
+                        try {
+                            listener.reconnected();
+                        } catch (RuntimeException e) {
+                            System.err.println("Change feed listener " + listener.getClass().getSimpleName() + " failed: " + e.getMessage());
+                        }
+                    }
+                }
+                listen(conn);
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                backoff = backoff == 0 ? 500 : Math.min(backoff * 2, maxBackoffMillis);
+                System.err.println("Change feed connection failed: " + e.getMessage() + "; retrying in " + backoff + " ms");
+            } finally {
+                connected = false;
+            }
+            missedChanges = true;
+        }
+    }
+    
+    private void listen(Connection conn) throws SQLException {
+        PGConnection pg = conn.unwrap(PGConnection.class);
+        long lastHeard = System.nanoTime();
+        while (running) {
+            PGNotification[] notifications = pg.getNotifications(pollMillis);
+            if (notifications != null && notifications.length > 0) {
+                for (PGNotification notification : notifications) {
+                    dispatch(notification.getParameter());
+                }
+                lastHeard = System.nanoTime();
+            } else if (System.nanoTime() - lastHeard > validateNanos) {
+                // A connection whose peer vanished can wait for notifications forever without an error
+                if (!conn.isValid(5)) {
+                    throw new SQLException("Change feed connection is no longer valid", "08006");
+                }
+                lastHeard = System.nanoTime();
+            }
+        }
+    }
+    
+    private void dispatch(String payload) {
+        Change change;
+        try {
+            change = Change.parse(payload);
+        } catch (JSONException e) {
+            malformed.increment();
+            System.err.println("Ignoring malformed change notification: " + e.getMessage());
+            return;
+        }
+        (change.isLocal() ? local : remote).increment();
+        for (Listener listener : listeners) {
+            try {
+                listener.changed(change);
+            } catch (RuntimeException e) {
+                System.err.println("Change feed listener " + listener.getClass().getSimpleName() + " failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    public Stats getStats() {
+        return new Stats(connected, local.sum(), remote.sum(), malformed.sum(), reconnects.sum());
+    }
+    
+    /**
+     * One statement's changes; {@code ids} is {@code null} when it touched more rows than a
+     * notification lists.
+     */
+    public record Change(String table, String operation, int count, int[] ids, String origin) {
+        static Change parse(String payload) {
+            JSONObject json = new JSONObject(payload);
+            JSONArray array = json.optJSONArray("ids");
+            int[] ids = null;
+            if (array != null) {
+                ids = new int[array.length()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = array.getInt(i);
+                }
+            }
+            return new Change(json.getString("table"), json.getString("op"), json.getInt("count"), ids,
+                json.optString("origin", ""));
+        }
+        
+        /**
+         * Whether this process made the change.
+         */
+        public boolean isLocal() {
+            return DatabaseConnection.getApplicationName().equals(origin);
+        }
+    }
+    
+    public record Stats(boolean connected, long local, long remote, long malformed, long reconnects) {
+    }
+}
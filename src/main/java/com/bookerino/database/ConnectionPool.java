@@ -0,0 +1,405 @@
+
+package com.bookerino.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded pool of physical PostgreSQL connections.
+ *
+ * Callers borrow with {@link #borrow()} and give the connection back by closing it, so the usual
+ * try-with-resources block is all a handler needs. Idle connections are validated before they are
+ * handed out again, trimmed back to {@code minIdle} once they sit unused for {@code idleTimeoutMs},
+ * and connections held longer than {@code leakThresholdMs} are reported with the stack of the
+ * code that borrowed them. That is a diagnostic to switch on while hunting a leak, off (zero) by
+ * default: capturing the stack costs every borrow, and bulk imports, report cursors and index
+ * rebuilds hold connections for longer than any useful threshold.
+ *
+ * Each physical connection keeps up to {@code statementCacheSize} idle prepared statements, so a
+ * handler that prepares the same SQL on every request reuses the JDBC statement (and with it the
+ * driver's server-side prepared statement) of whichever connection it borrows.
+ */
+public class ConnectionPool {
+    private final String url;
+    private final Properties properties;
+    private final Config config;
+    
+    private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<>();
+    private final Set<Entry> borrowed = ConcurrentHashMap.newKeySet();
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+    
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    
+    public ConnectionPool(String url, Properties properties, Config config) {
+        this.url = url;
+        this.properties = properties;
+        this.config = config;
+        this.permits = new Semaphore(config.maxSize, true);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-pool-housekeeper");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, Math.min(config.idleTimeoutMs, 30000) / 2);
+        housekeeper.scheduleAtFixedRate(this::housekeep, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Opens {@code minIdle} connections up front so the first requests do not pay for the
+     * connection handshake, and fails fast when the database is unreachable. Each open holds a
+     * permit, as a borrow's does, so warming up alongside borrowers never opens more than
+     * {@code maxSize} connections; when no permit is free the pool is in use and needs no warming.
+     */
+    public void warmUp() throws SQLException {
+        while (idle.size() < config.minIdle && idle.size() + borrowed.size() < config.maxSize) {
+            try {
+                // The timed form waits its turn behind queued borrowers instead of barging
+                if (!permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                idle.offerLast(open());
+            } finally {
+                permits.release();
+            }
+        }
+    }
+    
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(config.borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLTransientConnectionException(
+                    "Timed out after " + config.borrowTimeoutMs + "ms waiting for a database connection (" +
+                    borrowed.size() + " active, max " + config.maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        
+        Entry entry;
+        try {
+            entry = takeIdleOrOpen();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        
+        long waited = System.nanoTime() - start;
+        borrows.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        
+        entry.borrowedAt = System.nanoTime();
+        entry.borrowSite = config.leakThresholdMs > 0 ? new Throwable("Connection borrowed here") : null;
+        entry.leakReported = false;
+        borrowed.add(entry);
+        return entry.newHandle();
+    }
+    
+    private Entry takeIdleOrOpen() throws SQLException {
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (isUsable(entry)) {
+                return entry;
+            }
+            destroy(entry);
+        }
+        return open();
+    }
+    
+    private boolean isUsable(Entry entry) {
+        long idleMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - entry.returnedAt);
+        if (idleMs < config.validationIntervalMs) {
+            return true;
+        }
+        try {
+            return entry.physical.isValid(config.validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    private Entry open() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, properties);
+        created.increment();
+        Entry entry = new Entry(physical);
+        entry.returnedAt = System.nanoTime();
+        return entry;
+    }
+    
+    private void release(Entry entry) {
+        if (!borrowed.remove(entry)) {
+            return;
+        }
+        try {
+            boolean reusable = !closed && reset(entry.physical);
+            if (reusable) {
+                entry.returnedAt = System.nanoTime();
+                idle.offerFirst(entry);
+            } else {
+                destroy(entry);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+    
+    private boolean reset(Connection physical) {
+        try {
+            if (physical.isClosed()) {
+                return false;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly()) {
+                physical.setReadOnly(false);
+            }
+            physical.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    private void destroy(Entry entry) {
+        destroyed.increment();
+        try {
+            entry.physical.close();
+        } catch (SQLException ignored) {
+            // The connection is being discarded anyway
+        }
+    }
+    
+    private void housekeep() {
+        try {
+            evictIdle();
+            detectLeaks();
+            if (!closed) {
+                warmUp();
+            }
+        } catch (Exception e) {
+            System.err.println("Connection pool housekeeping failed: " + e.getMessage());
+        }
+    }
+    
+    private void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<Entry> it = idle.descendingIterator();
+        while (it.hasNext() && idle.size() > config.minIdle) {
+            Entry entry = it.next();
+            if (TimeUnit.NANOSECONDS.toMillis(now - entry.returnedAt) >= config.idleTimeoutMs && idle.remove(entry)) {
+                destroy(entry);
+            }
+        }
+    }
+    
+    private void detectLeaks() {
+        if (config.leakThresholdMs <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        for (Entry entry : borrowed) {
+            long heldMs = TimeUnit.NANOSECONDS.toMillis(now - entry.borrowedAt);
+            if (!entry.leakReported && heldMs >= config.leakThresholdMs) {
+                entry.leakReported = true;
+                leaks.increment();
+                System.err.println("Possible connection leak: connection held for " + heldMs + "ms");
+                if (entry.borrowSite != null) {
+                    entry.borrowSite.printStackTrace();
+                }
+            }
+        }
+    }
+    
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        Entry entry;
+        while ((entry = idle.pollFirst()) != null) {
+            destroy(entry);
+        }
+    }
+    
+    public Stats getStats() {
+        long count = borrows.sum();
+        return new Stats(
+            borrowed.size(),
+            idle.size(),
+            config.maxSize,
+            permits.getQueueLength(),
+            count,
+            timeouts.sum(),
+            created.sum(),
+            destroyed.sum(),
+            leaks.sum(),
+            statementHits.sum(),
+            statementMisses.sum(),
+            count == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / count,
+            maxWaitNanos.get() / 1_000_000.0
+        );
+    }
+    
+    public static class Config {
+        final int maxSize;
+        final int minIdle;
+        final long borrowTimeoutMs;
+        final long idleTimeoutMs;
+        final long validationIntervalMs;
+        final int validationTimeoutSeconds;
+        final long leakThresholdMs;
+        final int statementCacheSize;
+        
+        public Config(int maxSize, int minIdle, long borrowTimeoutMs, long idleTimeoutMs,
+                      long validationIntervalMs, long leakThresholdMs, int statementCacheSize) {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException("Pool size must be at least 1");
+            }
+            this.maxSize = maxSize;
+            this.minIdle = Math.max(0, Math.min(minIdle, maxSize));
+            this.borrowTimeoutMs = borrowTimeoutMs;
+            this.idleTimeoutMs = idleTimeoutMs;
+            this.validationIntervalMs = validationIntervalMs;
+            this.validationTimeoutSeconds = 2;
+            this.leakThresholdMs = leakThresholdMs;
+            this.statementCacheSize = Math.max(0, statementCacheSize);
+        }
+    }
+    
+    public record Stats(int active, int idle, int maxSize, int waiting, long borrows, long timeouts,
+                        long created, long destroyed, long leaks, long statementHits, long statementMisses,
+                        double avgWaitMillis, double maxWaitMillis) {
+        @Override
+        public String toString() {
+            return String.format(
+                "active=%d idle=%d max=%d waiting=%d borrows=%d timeouts=%d created=%d destroyed=%d leaks=%d " +
+                "statementHits=%d statementMisses=%d avgWait=%.3fms maxWait=%.3fms",
+                active, idle, maxSize, waiting, borrows, timeouts, created, destroyed, leaks,
+                statementHits, statementMisses, avgWaitMillis, maxWaitMillis);
+        }
+    }
+    
+    private class Entry {
+        final Connection physical;
+        final StatementCache statements;
+        volatile long returnedAt;
+        volatile long borrowedAt;
+        volatile Throwable borrowSite;
+        volatile boolean leakReported;
+        
+        Entry(Connection physical) {
+            this.physical = physical;
+            this.statements = config.statementCacheSize > 0 ? new StatementCache(config.statementCacheSize) : null;
+        }
+        
+        Connection newHandle() {
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new Handle(this)
+            );
+        }
+    }
+    
+    /**
+     * Caller-facing view of a pooled connection. Closing it returns the physical connection to the
+     * pool; any other call after that fails instead of touching a connection someone else now owns.
+     */
+    private class Handle implements InvocationHandler {
+        private final Entry entry;
+        private boolean released;
+        
+        Handle(Entry entry) {
+            this.entry = entry;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || entry.physical.isClosed();
+                case "unwrap":
+                case "isWrapperFor":
+                    break;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + entry.physical;
+                default:
+                    if (released) {
+                        throw new SQLException("Connection has already been returned to the pool");
+                    }
+            }
+            if (method.getName().equals("prepareStatement") && entry.statements != null) {
+                return prepareCached(method, args);
+            }
+            Object result;
+            try {
+                result = method.invoke(entry.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (result instanceof Statement) {
+                String sql = method.getName().startsWith("prepare") ? (String) args[0] : null;
+                return TimedStatements.wrap(method.getReturnType(), (Statement) result, sql);
+            }
+            return result;
+        }
+        
+        private Object prepareCached(Method method, Object[] args) throws Throwable {
+            String key = StatementCache.keyOf(args);
+            PreparedStatement statement = entry.statements.take(key);
+            if (statement != null) {
+                statementHits.increment();
+            } else {
+                statementMisses.increment();
+                try {
+                    statement = (PreparedStatement) method.invoke(entry.physical, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            return TimedStatements.wrap(method.getReturnType(), statement, (String) args[0],
+                recycled -> entry.statements.giveBack(key, (PreparedStatement) recycled));
+        }
+    }
+}
@@ -1,79 +1,197 @@
 
 package com.bookerino.database;
 
+import com.bookerino.config.Env;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
 
 public class DatabaseConnection {
-    private static Connection connection;
+    /**
+     * Names this process's sessions in {@code pg_stat_activity}, and tells its own writes apart
+     * from other processes' in the {@link ChangeFeed}; unique per process.
+     */
+    private static final String APPLICATION_NAME =
+        Env.getString("DB_APPLICATION_NAME", "bookerino") + "-" + UUID.randomUUID().toString().substring(0, 8);
     
-    public static void initialize() throws SQLException {
+    private static ConnectionPool pool;
+    private static ReplicaSet replicas;
+    private static String url;
+    private static Properties connectionProperties;
+    
+    public static synchronized void initialize() throws SQLException {
+        if (pool != null) {
+            return;
+        }
+        
         String dbUrl = System.getenv("DATABASE_URL");
         if (dbUrl == null) {
             throw new RuntimeException("DATABASE_URL environment variable not set");
         }
         
-        connection = DriverManager.getConnection(dbUrl);
-        createTables();
+        ConnectionPool.Config config = new ConnectionPool.Config(
+            Env.getInt("DB_POOL_SIZE", 10),
+            Env.getInt("DB_POOL_MIN_IDLE", 2),
+            Env.getLong("DB_POOL_TIMEOUT_MS", 5000),
+            Env.getLong("DB_POOL_IDLE_TIMEOUT_MS", 600000),
+            Env.getLong("DB_POOL_VALIDATION_INTERVAL_MS", 1000),
+            Env.getLong("DB_POOL_LEAK_THRESHOLD_MS", 0),
+            Env.getInt("DB_STATEMENT_CACHE_SIZE", 64)
+        );
+        Properties properties = new Properties();
+        // Lets the driver collapse JDBC insert batches (bulk imports) into multi-row INSERTs
+        properties.setProperty("reWriteBatchedInserts", "true");
+        // Switch a statement to a named server-side prepared statement from its first reuse (the
+        // driver's default waits for the fifth), so hot queries skip parse and plan; the driver
+        // keeps those per connection, keyed by SQL text, up to the cache limits below
+        properties.setProperty("prepareThreshold", Env.getString("DB_PREPARE_THRESHOLD", "1"));
+        properties.setProperty("preparedStatementCacheQueries", Env.getString("DB_PREPARED_CACHE_QUERIES", "256"));
+        properties.setProperty("preparedStatementCacheSizeMiB", Env.getString("DB_PREPARED_CACHE_MIB", "5"));
+        properties.setProperty("ApplicationName", APPLICATION_NAME);
+        ConnectionPool created = new ConnectionPool(dbUrl, properties, config);
+        try {
+            created.warmUp();
+        } catch (SQLException e) {
+            created.close();
+            throw e;
+        }
+        pool = created;
+        url = dbUrl;
+        connectionProperties = properties;
+        migrate();
+        
+        List<String> replicaUrls = replicaUrls();
+        if (!replicaUrls.isEmpty()) {
+            ConnectionPool.Config replicaConfig = new ConnectionPool.Config(
+                Env.getInt("DB_REPLICA_POOL_SIZE", Env.getInt("DB_POOL_SIZE", 10)),
+                Env.getInt("DB_POOL_MIN_IDLE", 2),
+                Env.getLong("DB_POOL_TIMEOUT_MS", 5000),
+                Env.getLong("DB_POOL_IDLE_TIMEOUT_MS", 600000),
+                Env.getLong("DB_POOL_VALIDATION_INTERVAL_MS", 1000),
+                Env.getLong("DB_POOL_LEAK_THRESHOLD_MS", 0),
+                Env.getInt("DB_STATEMENT_CACHE_SIZE", 64)
+            );
+            replicas = new ReplicaSet(replicaUrls, properties, replicaConfig,
+                Env.getLong("DB_REPLICA_MAX_LAG_MS", 1000),
+                Env.getLong("DB_REPLICA_CHECK_INTERVAL_MS", 1000));
+            replicas.start();
+            System.out.println("Routing reads to " + replicaUrls.size() + " read replica(s)");
+        }
     }
     
-    public static Connection getConnection() {
-        return connection;
+    /**
+     * Comma-separated JDBC URLs in {@code DATABASE_REPLICA_URLS}; none by default.
+     */
+    private static List<String> replicaUrls() {
+        List<String> urls = new ArrayList<>();
+        for (String url : Env.getString("DATABASE_REPLICA_URLS", "").split(",")) {
+            if (!url.isBlank()) {
+                urls.add(url.trim());
+            }
+        }
+        return urls;
     }
     
-    private static void createTables() throws SQLException {
-        Statement stmt = connection.createStatement();
-        
-        // Create users table
-        stmt.execute(
-            "CREATE TABLE IF NOT EXISTS users (" +
-            "id VARCHAR(255) PRIMARY KEY, " +
-            "username VARCHAR(255) NOT NULL UNIQUE, " +
-            "email VARCHAR(255), " +
-            "profile_image_url TEXT, " +
-            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
-            "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"
-        );
-        
-        // Create rooms table
-        stmt.execute(
-            "CREATE TABLE IF NOT EXISTS rooms (" +
-            "id SERIAL PRIMARY KEY, " +
-            "name VARCHAR(255) NOT NULL, " +
-            "type VARCHAR(100) NOT NULL, " +
-            "capacity INTEGER NOT NULL, " +
-            "price DECIMAL(10,2) NOT NULL, " +
-            "status VARCHAR(50) DEFAULT 'available', " +
-            "image_url TEXT, " +
-            "description TEXT, " +
-            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"
-        );
-        
-        // Create bookings table
-        stmt.execute(
-            "CREATE TABLE IF NOT EXISTS bookings (" +
-            "id SERIAL PRIMARY KEY, " +
-            "guest_name VARCHAR(255) NOT NULL, " +
-            "guest_email VARCHAR(255) NOT NULL, " +
-            "room_id INTEGER REFERENCES rooms(id), " +
-            "check_in DATE NOT NULL, " +
-            "check_out DATE NOT NULL, " +
-            "status VARCHAR(50) DEFAULT 'pending', " +
-            "total_price DECIMAL(10,2), " +
-            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"
-        );
-        
-        // Create reviews table
-        stmt.execute(
-            "CREATE TABLE IF NOT EXISTS reviews (" +
-            "id SERIAL PRIMARY KEY, " +
-            "room_id INTEGER REFERENCES rooms(id), " +
-            "guest_name VARCHAR(255) NOT NULL, " +
-            "rating INTEGER NOT NULL CHECK (rating >= 1 AND rating <= 5), " +
-            "comment TEXT, " +
-            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"
-        );
-        
-        stmt.close();
-        System.out.println("Database tables created successfully");
+    /**
+     * Borrows a connection from the pool. Closing the returned connection hands it back, so
+     * callers should always use it in a try-with-resources block.
+     */
+    public static Connection getConnection() throws SQLException {
+        if (pool == null) {
+            throw new SQLException("Database has not been initialized");
+        }
+        return pool.borrow();
+    }
+    
+    /**
+     * Borrows a connection for a read that may be served by a read replica, given when the data it
+     * reads last changed in this process ({@code 0} when unknown to it). Falls back to the primary
+     * when no replicas are configured or healthy, or when that change may not have replicated yet.
+     * Writes, and reads that must see a write (a client's own, or a read before a write), use
+     * {@link #getConnection()}.
+     */
+    public static Connection getReadConnection(long lastChangeMillis) throws SQLException {
+        ReplicaSet set = replicas;
+        if (set != null) {
+            Connection conn = set.borrow(lastChangeMillis);
+            if (conn != null) {
+                return conn;
+            }
+        }
+        return getConnection();
+    }
+    
+    /**
+     * Whether a read that failed with {@code e} should be retried on the primary: its connection
+     * broke (SQLSTATE class 08), as happens when a replica goes away between health checks, which
+     * are then run at once.
+     */
+    public static boolean shouldRetryOnPrimary(SQLException e) {
+        ReplicaSet set = replicas;
+        if (set == null || e.getSQLState() == null || !e.getSQLState().startsWith("08")) {
+            return false;
+        }
+        set.checkSoon();
+        return true;
+    }
+    
+    /**
+     * Opens a connection outside the pool, for a session that has to outlive any borrow (the
+     * change feed's {@code LISTEN}). The caller closes it.
+     */
+    static Connection openDedicated() throws SQLException {
+        if (url == null) {
+            throw new SQLException("Database has not been initialized");
+        }
+        Properties properties = new Properties();
+        properties.putAll(connectionProperties);
+        // Lets the operating system notice a peer that vanished while the session sat idle
+        properties.setProperty("tcpKeepAlive", "true");
+        return DriverManager.getConnection(url, properties);
+    }
+    
+    public static String getApplicationName() {
+        return APPLICATION_NAME;
+    }
+    
+    public static boolean hasReplicas() {
+        return replicas != null;
+    }
+    
+    public static ReplicaSet getReplicas() {
+        return replicas;
+    }
+    
+    public static ConnectionPool.Stats getPoolStats() {
+        return pool == null ? null : pool.getStats();
+    }
+    
+    public static synchronized void shutdown() {
+        if (replicas != null) {
+            replicas.close();
+            replicas = null;
+        }
+        if (pool != null) {
+            System.out.println("Closing connection pool: " + pool.getStats());
+            pool.close();
+            pool = null;
+            url = null;
+            connectionProperties = null;
+        }
+    }
+    
+    /**
+     * Applies pending schema migrations (see {@link Migrations}).
+     */
+    private static void migrate() throws SQLException {
+        int applied;
+        try (Connection connection = getConnection()) {
+            applied = new MigrationRunner().migrate(connection);
+        }
+        System.out.println(applied == 0
+            ? "Database schema is up to date"
+            : "Database schema migrated (" + applied + " migration" + (applied == 1 ? "" : "s") + " applied)");
     }
 }
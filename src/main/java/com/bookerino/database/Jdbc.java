@@ -0,0 +1,106 @@
+
+package com.bookerino.database;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@link Query}s with positional parameters and closes everything it opens. The variants
+ * without a {@link Connection} borrow one from the pool for the single statement.
+ *
+ * Parameters are bound with {@code setObject}, except that {@link LocalDate}s are sent as SQL
+ * dates and {@code null}s as untyped nulls.
+ */
+public final class Jdbc {
+    private static final String[] ID_COLUMN = { "id" };
+    
+    private Jdbc() {
+    }
+    
+    /**
+     * The first row mapped, or {@code null} when there is none.
+     */
+    public static <T> T queryOne(Query query, RowMapper<T> mapper, Object... params) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return queryOne(conn, query, mapper, params);
+        }
+    }
+    
+    public static <T> T queryOne(Connection conn, Query query, RowMapper<T> mapper, Object... params) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(query.sql())) {
+            bind(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? mapper.map(rs) : null;
+            }
+        }
+    }
+    
+    public static <T> List<T> queryList(Query query, RowMapper<T> mapper, Object... params) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return queryList(conn, query, mapper, params);
+        }
+    }
+    
+    public static <T> List<T> queryList(Connection conn, Query query, RowMapper<T> mapper, Object... params) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(query.sql())) {
+            bind(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                List<T> rows = new ArrayList<>();
+                while (rs.next()) {
+                    rows.add(mapper.map(rs));
+                }
+                return rows;
+            }
+        }
+    }
+    
+    public static int update(Query query, Object... params) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return update(conn, query, params);
+        }
+    }
+    
+    public static int update(Connection conn, Query query, Object... params) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(query.sql())) {
+            bind(pstmt, params);
+            return pstmt.executeUpdate();
+        }
+    }
+    
+    /**
+     * Runs an INSERT and returns the generated {@code id} of the new row.
+     */
+    public static int insert(Query query, Object... params) throws SQLException {
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            return insert(conn, query, params);
+        }
+    }
+    
+    public static int insert(Connection conn, Query query, Object... params) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(query.sql(), ID_COLUMN)) {
+            bind(pstmt, params);
+            pstmt.executeUpdate();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No id generated by " + query.name());
+                }
+                return keys.getInt(1);
+            }
+        }
+    }
+    
+    public static void bind(PreparedStatement pstmt, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            Object param = params[i];
+            if (param == null) {
+                pstmt.setNull(i + 1, Types.NULL);
+            } else if (param instanceof LocalDate) {
+                pstmt.setDate(i + 1, Date.valueOf((LocalDate) param));
+            } else {
+                pstmt.setObject(i + 1, param);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+
+package com.bookerino.database;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One versioned schema change: statements applied together, in one transaction.
+ */
+public record Migration(int version, String description, List<String> statements) {
+    public static Migration of(int version, String description, String... statements) {
+        return new Migration(version, description, List.of(statements));
+    }
+    
+    /**
+     * Checksum of the statements, stored when the migration is applied so later edits to an
+     * applied migration can be detected.
+     */
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        for (String statement : statements) {
+            crc.update(statement.getBytes(StandardCharsets.UTF_8));
+            crc.update(0);
+        }
+        return crc.getValue();
+    }
+}
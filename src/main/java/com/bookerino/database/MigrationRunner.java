@@ -0,0 +1,119 @@
+
+package com.bookerino.database;
+
+import java.sql.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Brings the schema up to date at startup by applying the {@link Migration}s not yet recorded in
+ * {@code schema_migrations}, each in its own transaction together with its record.
+ *
+ * Runs under a PostgreSQL advisory lock, so several instances starting at once apply each
+ * migration exactly once. Re-running with nothing pending is a single query.
+ */
+public class MigrationRunner {
+    /** Arbitrary key for {@code pg_advisory_lock}, shared by every instance. */
+    private static final long LOCK_KEY = 0x626F6F6B6572696EL;
+    
+    private final List<Migration> migrations;
+    
+    public MigrationRunner() {
+        this(Migrations.ALL);
+    }
+    
+    public MigrationRunner(List<Migration> migrations) {
+        this.migrations = migrations;
+    }
+    
+    /**
+     * Applies pending migrations and returns how many were applied.
+     */
+    public int migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(
+                "CREATE TABLE IF NOT EXISTS schema_migrations (" +
+                "version INTEGER PRIMARY KEY, " +
+                "description VARCHAR(255) NOT NULL, " +
+                "checksum BIGINT NOT NULL, " +
+                "execution_ms BIGINT NOT NULL, " +
+                "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)"
+            );
+            stmt.execute("SELECT pg_advisory_lock(" + LOCK_KEY + ")");
+        }
+        try {
+            Map<Integer, Long> applied = loadApplied(conn);
+            int count = 0;
+            for (Migration migration : migrations) {
+                Long checksum = applied.get(migration.version());
+                if (checksum == null) {
+                    apply(conn, migration);
+                    count++;
+                } else if (checksum != migration.checksum()) {
+                    System.err.println("Migration " + migration.version() + " (" + migration.description() +
+                        ") has changed since it was applied; add a new migration instead of editing it");
+                }
+            }
+            return count;
+        } finally {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+        }
+    }
+    
+    private static Map<Integer, Long> loadApplied(Connection conn) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_migrations")) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getLong("checksum"));
+            }
+        }
+        return applied;
+    }
+    
+    /**
+     * Prints what a statement raised with {@code RAISE WARNING}, e.g. a step a migration had to
+     * skip; notices such as "already exists, skipping" are left out.
+     */
+    private static void reportWarnings(Migration migration, Statement stmt) throws SQLException {
+        for (SQLWarning warning = stmt.getWarnings(); warning != null; warning = warning.getNextWarning()) {
+            if (warning.getSQLState() != null && warning.getSQLState().startsWith("01")) {
+                System.err.println("Migration " + migration.version() + ": " + warning.getMessage());
+            }
+        }
+        stmt.clearWarnings();
+    }
+    
+    private static void apply(Connection conn, Migration migration) throws SQLException {
+        long start = System.nanoTime();
+        conn.setAutoCommit(false);
+        try {
+            try (Statement stmt = conn.createStatement()) {
+                for (String sql : migration.statements()) {
+                    stmt.execute(sql);
+                    reportWarnings(migration, stmt);
+                }
+            }
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            try (PreparedStatement pstmt = conn.prepareStatement(
+                    "INSERT INTO schema_migrations (version, description, checksum, execution_ms) VALUES (?, ?, ?, ?)")) {
+                pstmt.setInt(1, migration.version());
+                pstmt.setString(2, migration.description());
+                pstmt.setLong(3, migration.checksum());
+                pstmt.setLong(4, elapsedMs);
+                pstmt.executeUpdate();
+            }
+            conn.commit();
+            System.out.println("Applied migration " + migration.version() + ": " + migration.description() +
+                " (" + elapsedMs + "ms)");
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("Migration " + migration.version() + " failed: " + e.getMessage(), e.getSQLState(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+
+package com.bookerino.database;
+
+import java.util.List;
+
+/**
+ * The schema's history, oldest first. Applied migrations must never be edited; add a new one.
+ *
+ * Version 1 is the schema the server used to create with {@code CREATE TABLE IF NOT EXISTS}, so
+ * it applies cleanly to databases created before migrations existed.
+ */
+final class Migrations {
+    static final List<Migration> ALL = List.of(
+        Migration.of(1, "Baseline tables and keyset pagination indexes",
+            "CREATE TABLE IF NOT EXISTS users (" +
+            "id VARCHAR(255) PRIMARY KEY, " +
+            "username VARCHAR(255) NOT NULL UNIQUE, " +
+            "email VARCHAR(255), " +
+            "profile_image_url TEXT, " +
+            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+            "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)",
+            
+            "CREATE TABLE IF NOT EXISTS rooms (" +
+            "id SERIAL PRIMARY KEY, " +
+            "name VARCHAR(255) NOT NULL, " +
+            "type VARCHAR(100) NOT NULL, " +
+            "capacity INTEGER NOT NULL, " +
+            "price DECIMAL(10,2) NOT NULL, " +
+            "status VARCHAR(50) DEFAULT 'available', " +
+            "image_url TEXT, " +
+            "description TEXT, " +
+            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)",
+            
+            "CREATE TABLE IF NOT EXISTS bookings (" +
+            "id SERIAL PRIMARY KEY, " +
+            "guest_name VARCHAR(255) NOT NULL, " +
+            "guest_email VARCHAR(255) NOT NULL, " +
+            "room_id INTEGER REFERENCES rooms(id), " +
+            "check_in DATE NOT NULL, " +
+            "check_out DATE NOT NULL, " +
+            "status VARCHAR(50) DEFAULT 'pending', " +
+            "total_price DECIMAL(10,2), " +
+            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)",
+            
+            "CREATE TABLE IF NOT EXISTS reviews (" +
+            "id SERIAL PRIMARY KEY, " +
+            "room_id INTEGER REFERENCES rooms(id), " +
+            "guest_name VARCHAR(255) NOT NULL, " +
+            "rating INTEGER NOT NULL CHECK (rating >= 1 AND rating <= 5), " +
+            "comment TEXT, " +
+            "created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)",
+            
+            "CREATE TABLE IF NOT EXISTS ingest_checkpoints (" +
+            "stream VARCHAR(100) PRIMARY KEY, " +
+            "last_sequence BIGINT NOT NULL, " +
+            "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)",
+            
+            // Backing the keyset-paginated listings (ORDER BY created_at DESC, id DESC); the
+            // bookings one also serves any ORDER BY or range on bookings.created_at
+            "CREATE INDEX IF NOT EXISTS idx_rooms_created_at_id ON rooms (created_at DESC, id DESC)",
+            "CREATE INDEX IF NOT EXISTS idx_bookings_created_at_id ON bookings (created_at DESC, id DESC)",
+            "CREATE INDEX IF NOT EXISTS idx_bookings_room_created_at_id ON bookings (room_id, created_at DESC, id DESC)",
+            "CREATE INDEX IF NOT EXISTS idx_bookings_status_created_at_id ON bookings (status, created_at DESC, id DESC)",
+            "CREATE INDEX IF NOT EXISTS idx_bookings_check_in ON bookings (check_in)",
+            "CREATE INDEX IF NOT EXISTS idx_reviews_created_at_id ON reviews (created_at DESC, id DESC)",
+            // Also the reviews(room_id) index: room_id leads, so per-room lookups use it
+            "CREATE INDEX IF NOT EXISTS idx_reviews_room_created_at_id ON reviews (room_id, created_at DESC, id DESC)"
+        ),
+        
+        Migration.of(2, "Guest phone number on bookings, as the CLI records it",
+            "ALTER TABLE bookings ADD COLUMN IF NOT EXISTS guest_phone VARCHAR(50)"
+        ),
+        
+        Migration.of(3, "Indexes for per-room date lookups and confirmed-revenue queries",
+            // Overlap and availability lookups: WHERE room_id = ? AND check_in < ? AND check_out > ?
+            "CREATE INDEX IF NOT EXISTS idx_bookings_room_check_in ON bookings (room_id, check_in) INCLUDE (check_out)",
+            // Revenue by stay date only ever reads confirmed bookings; the partial index leaves
+            // pending and cancelled rows out and covers the columns those queries need
+            "CREATE INDEX IF NOT EXISTS idx_bookings_confirmed_check_in ON bookings (check_in) " +
+            "INCLUDE (check_out, total_price, room_id) WHERE status = 'confirmed'"
+        ),
+        
+        Migration.of(4, "Change notifications on rooms, bookings and reviews for the change feed",
+            // One notification per statement, naming the writer's application_name so each
+            // instance can tell its own writes apart. Payloads are capped at 8000 bytes, so a
+            // statement touching more than 500 rows is announced with its row count alone.
+            "CREATE OR REPLACE FUNCTION bookerino_notify_change() RETURNS trigger LANGUAGE plpgsql AS $$ " +
+            "DECLARE " +
+            "row_count bigint; " +
+            "row_ids integer[]; " +
+            "BEGIN " +
+            "SELECT count(*) INTO row_count FROM changed_rows; " +
+            "IF row_count = 0 THEN RETURN NULL; END IF; " +
+            "IF row_count <= 500 THEN SELECT array_agg(id ORDER BY id) INTO row_ids FROM changed_rows; END IF; " +
+            "PERFORM pg_notify('bookerino_changes', json_build_object(" +
+            "'table', TG_TABLE_NAME, 'op', TG_OP, 'count', row_count, 'ids', row_ids, " +
+            "'origin', current_setting('application_name'))::text); " +
+            "RETURN NULL; " +
+            "END $$",
+            
+            // A trigger with a transition table can only fire on one kind of event
+            "CREATE TRIGGER rooms_notify_insert AFTER INSERT ON rooms REFERENCING NEW TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()",
+            "CREATE TRIGGER rooms_notify_update AFTER UPDATE ON rooms REFERENCING NEW TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()",
+            "CREATE TRIGGER rooms_notify_delete AFTER DELETE ON rooms REFERENCING OLD TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()",
+            "CREATE TRIGGER bookings_notify_insert AFTER INSERT ON bookings REFERENCING NEW TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()",
+            "CREATE TRIGGER bookings_notify_update AFTER UPDATE ON bookings REFERENCING NEW TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()",
+            "CREATE TRIGGER bookings_notify_delete AFTER DELETE ON bookings REFERENCING OLD TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()",
+            "CREATE TRIGGER reviews_notify_insert AFTER INSERT ON reviews REFERENCING NEW TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()",
+            "CREATE TRIGGER reviews_notify_update AFTER UPDATE ON reviews REFERENCING NEW TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()",
+            "CREATE TRIGGER reviews_notify_delete AFTER DELETE ON reviews REFERENCING OLD TABLE AS changed_rows " +
+            "FOR EACH STATEMENT EXECUTE FUNCTION bookerino_notify_change()"
+        ),
+        
+        Migration.of(5, "Exclusion constraint against overlapping bookings of a room",
+            // Needs btree_gist for the equality part. Where the extension is not installed and
+            // cannot be, or stored bookings already overlap, the migration warns and applies
+            // without the constraint; the server's own overlap check still runs, and the
+            // constraint can be added by hand later. Databases that got it from the startup
+            // DDL used before this migration keep theirs.
+            "DO $$ BEGIN " +
+            "IF EXISTS (SELECT 1 FROM pg_constraint WHERE conname = 'bookings_no_overlap') THEN RETURN; END IF; " +
+            "IF NOT EXISTS (SELECT 1 FROM pg_available_extensions WHERE name = 'btree_gist') THEN " +
+            "RAISE WARNING 'btree_gist is not available; bookings_no_overlap was not created'; " +
+            "RETURN; " +
+            "END IF; " +
+            "BEGIN " +
+            "CREATE EXTENSION IF NOT EXISTS btree_gist; " +
+            "ALTER TABLE bookings ADD CONSTRAINT bookings_no_overlap " +
+            "EXCLUDE USING gist (room_id WITH =, daterange(check_in, check_out) WITH &&) " +
+            "WHERE (status <> 'cancelled'); " +
+            "EXCEPTION WHEN insufficient_privilege OR exclusion_violation THEN " +
+            "RAISE WARNING 'bookings_no_overlap was not created: %', SQLERRM; " +
+            "END; " +
+            "END $$"
+        ),
+        
+        Migration.of(6, "created_at required on the keyset-paginated tables",
+            // Page cursors are built from (created_at, id), and a NULL created_at can neither be
+            // encoded nor compared past. Rows that somehow lack it get the migration's time,
+            // which keeps them at the top of the listing where NULLs sorted before.
+            "UPDATE rooms SET created_at = CURRENT_TIMESTAMP WHERE created_at IS NULL",
+            "UPDATE bookings SET created_at = CURRENT_TIMESTAMP WHERE created_at IS NULL",
+            "UPDATE reviews SET created_at = CURRENT_TIMESTAMP WHERE created_at IS NULL",
+            "ALTER TABLE rooms ALTER COLUMN created_at SET NOT NULL",
+            "ALTER TABLE bookings ALTER COLUMN created_at SET NOT NULL",
+            "ALTER TABLE reviews ALTER COLUMN created_at SET NOT NULL"
+        )
+    );
+    
+    private Migrations() {
+    }
+}
@@ -0,0 +1,43 @@
+
+package com.bookerino.database;
+
+/**
+ * The application's named statements.
+ */
+public final class Queries {
+    public static final Query ROOM_BY_ID = Query.named("room_by_id",
+        "SELECT * FROM rooms WHERE id = ?");
+    public static final Query ROOMS_BY_IDS = Query.named("rooms_by_ids",
+        "SELECT * FROM rooms WHERE id = ANY(?) ORDER BY id");
+    public static final Query ROOM_ID_BY_NAME = Query.named("room_id_by_name",
+        "SELECT id FROM rooms WHERE name = ? ORDER BY id LIMIT 1");
+    public static final Query ROOM_INSERT = Query.named("room_insert",
+        "INSERT INTO rooms (name, type, capacity, price, status, image_url, description) VALUES (?, ?, ?, ?, ?, ?, ?)");
+    
+    public static final Query BOOKING_INSERT = Query.named("booking_insert",
+        "INSERT INTO bookings (guest_name, guest_email, room_id, check_in, check_out, status, total_price) VALUES (?, ?, ?, ?, ?, ?, ?)");
+    public static final Query BOOKINGS_BY_IDS = Query.named("bookings_by_ids",
+        "SELECT * FROM bookings WHERE id = ANY(?) ORDER BY id");
+    public static final Query BOOKING_FIRST_OVERLAP = Query.named("booking_first_overlap",
+        "SELECT * FROM bookings WHERE room_id = ? AND status <> 'cancelled' " +
+        "AND check_in < ? AND check_out > ? ORDER BY check_in LIMIT 1");
+    /** Positions of the stays (parallel arrays of positions, rooms and dates) that overlap a stored booking. */
+    public static final Query BOOKING_OVERLAPPING_STAYS = Query.named("booking_overlapping_stays",
+        "SELECT s.pos FROM unnest(?::int[], ?::int[], ?::date[], ?::date[]) AS s(pos, room_id, check_in, check_out) " +
+        "WHERE EXISTS (SELECT 1 FROM bookings b WHERE b.room_id = s.room_id AND b.status <> 'cancelled' " +
+        "AND b.check_in < s.check_out AND b.check_out > s.check_in)");
+    
+    public static final Query REVIEW_INSERT = Query.named("review_insert",
+        "INSERT INTO reviews (room_id, guest_name, rating, comment) VALUES (?, ?, ?, ?)");
+    public static final Query REVIEWS_BY_IDS = Query.named("reviews_by_ids",
+        "SELECT * FROM reviews WHERE id = ANY(?)");
+    
+    public static final Query INGEST_CHECKPOINT_LOAD = Query.named("ingest_checkpoint_load",
+        "SELECT last_sequence FROM ingest_checkpoints WHERE stream = ?");
+    public static final Query INGEST_CHECKPOINT_SAVE = Query.named("ingest_checkpoint_save",
+        "INSERT INTO ingest_checkpoints (stream, last_sequence) VALUES (?, ?) " +
+        "ON CONFLICT (stream) DO UPDATE SET last_sequence = EXCLUDED.last_sequence, updated_at = CURRENT_TIMESTAMP");
+    
+    private Queries() {
+    }
+}
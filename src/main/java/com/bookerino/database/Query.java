@@ -0,0 +1,16 @@
+
+package com.bookerino.database;
+
+import com.bookerino.metrics.Metrics;
+
+/**
+ * A statement the application runs often, with a stable name for its metrics. Its SQL text is
+ * fixed, so the pooled connections' statement caches and the driver's server-side prepared
+ * statements can reuse its parse and plan.
+ */
+public record Query(String name, String sql) {
+    public static Query named(String name, String sql) {
+        Metrics.statement(name, sql);
+        return new Query(name, sql);
+    }
+}
@@ -0,0 +1,227 @@
+
+package com.bookerino.database;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Read replicas of the primary database, each with its own {@link ConnectionPool}.
+ *
+ * A background check measures every replica's replay lag every {@code checkIntervalMs}; a replica
+ * is used only while that check succeeds, it is streaming from the primary and the lag stays
+ * within {@code maxLagMs}. Borrowing
+ * round-robins over the healthy replicas, and a replica that fails to hand out a connection is
+ * taken out of rotation at once rather than at the next check.
+ *
+ * Callers pass the time the data they read last changed in this process; reads of data changed
+ * within the staleness bound go to the primary, so a replica never serves (or lets a cache keep)
+ * a copy older than a write this process has already acknowledged. {@link #borrow(long)} returns
+ * {@code null} in that case or when no replica is usable, and the caller reads from the primary.
+ */
+public class ReplicaSet {
+    /**
+     * Whether the replica is receiving WAL from the primary, and its lag: zero when it has replayed
+     * everything it received (an idle primary produces no new transactions, so the replay
+     * timestamp alone would make a caught-up replica look ever further behind), otherwise the age
+     * of the last replayed transaction. Having replayed everything says nothing once the WAL
+     * receiver has stopped, so a replica without one is never in rotation. Roles without
+     * pg_read_all_stats see the receiver's row but not its status.
+     */
+    private static final String LAG_SQL =
+        "SELECT NOT pg_is_in_recovery() OR EXISTS (SELECT 1 FROM pg_stat_wal_receiver " +
+        "WHERE status IS NULL OR status = 'streaming'), " +
+        "CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+        "ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+    
+    private final List<Replica> replicas = new ArrayList<>();
+    private final long maxLagMs;
+    private final long checkIntervalMs;
+    private final AtomicInteger next = new AtomicInteger();
+    private final LongAdder recentlyChanged = new LongAdder();
+    private final LongAdder unavailable = new LongAdder();
+    private final ScheduledExecutorService checker;
+    
+    public ReplicaSet(List<String> urls, Properties properties, ConnectionPool.Config config,
+                      long maxLagMs, long checkIntervalMs) {
+        this.maxLagMs = maxLagMs;
+        this.checkIntervalMs = Math.max(100, checkIntervalMs);
+        for (int i = 0; i < urls.size(); i++) {
+            replicas.add(new Replica("replica-" + (i + 1), new ConnectionPool(urls.get(i), properties, config)));
+        }
+        this.checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-replica-health");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Checks every replica once, so the first reads can already use the healthy ones, then keeps
+     * checking in the background. An unreachable replica does not fail startup.
+     */
+    public void start() {
+        for (Replica replica : replicas) {
+            try {
+                replica.pool.warmUp();
+            } catch (SQLException e) {
+                System.err.println("Read replica " + replica.name + " is unreachable: " + e.getMessage());
+            }
+        }
+        checkAll();
+        checker.scheduleWithFixedDelay(this::checkAll, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * How stale a healthy replica may be: the lag bound plus the time until the next check
+     * notices it was exceeded.
+     */
+    public long getStalenessBoundMillis() {
+        return maxLagMs + checkIntervalMs;
+    }
+    
+    /**
+     * Borrows a connection from the next healthy replica for a read of data last changed at
+     * {@code lastChangeMillis}. Returns {@code null}, sending the read to the primary, when that
+     * change may not have reached the replicas yet or no replica is healthy.
+     */
+    public Connection borrow(long lastChangeMillis) {
+        if (System.currentTimeMillis() - lastChangeMillis < getStalenessBoundMillis()) {
+            recentlyChanged.increment();
+            return null;
+        }
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                Connection conn = replica.pool.borrow();
+                replica.reads.increment();
+                return conn;
+            } catch (SQLTransientConnectionException e) {
+                // Pool exhausted: the replica is busy, not broken; try the next one
+                replica.busy.increment();
+            } catch (SQLException e) {
+                markUnhealthy(replica, e);
+            }
+        }
+        unavailable.increment();
+        return null;
+    }
+    
+    /**
+     * Re-checks the replicas now instead of at the next interval, e.g. after a read on one of them
+     * lost its connection.
+     */
+    public void checkSoon() {
+        try {
+            checker.execute(this::checkAll);
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+    
+    private void checkAll() {
+        for (Replica replica : replicas) {
+            check(replica);
+        }
+    }
+    
+    private void check(Replica replica) {
+        try (Connection conn = replica.pool.borrow();
+             Statement stmt = conn.createStatement()) {
+            stmt.setQueryTimeout((int) Math.max(1, checkIntervalMs / 1000));
+            try (ResultSet rs = stmt.executeQuery(LAG_SQL)) {
+                rs.next();
+                boolean streaming = rs.getBoolean(1);
+                long lag = Math.round(rs.getDouble(2));
+                replica.lagMillis = lag;
+                boolean healthy = streaming && lag <= maxLagMs;
+                if (healthy != replica.healthy) {
+                    System.out.println("Read replica " + replica.name + (healthy
+                        ? " is in rotation (lag " + lag + "ms)"
+                        : !streaming
+                        ? " is out of rotation: it is not receiving WAL from the primary"
+                        : " is out of rotation: lag " + lag + "ms exceeds " + maxLagMs + "ms"));
+                    if (!healthy) {
+                        replica.failovers.increment();
+                    }
+                }
+                replica.healthy = healthy;
+            }
+        } catch (SQLTransientConnectionException e) {
+            // Pool exhausted, as in borrow(): busy, not broken; the next check measures it
+            replica.busy.increment();
+        } catch (SQLException e) {
+            markUnhealthy(replica, e);
+        }
+    }
+    
+    private void markUnhealthy(Replica replica, SQLException cause) {
+        if (replica.healthy) {
+            replica.healthy = false;
+            replica.failovers.increment();
+            System.err.println("Read replica " + replica.name + " is out of rotation: " + cause.getMessage());
+        }
+    }
+    
+    public void close() {
+        checker.shutdownNow();
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+    
+    /** Reads sent to the primary because the data they read changed too recently. */
+    public long getRecentlyChangedReads() {
+        return recentlyChanged.sum();
+    }
+    
+    /** Reads sent to the primary because no replica was healthy or had a free connection. */
+    public long getUnavailableReads() {
+        return unavailable.sum();
+    }
+    
+    public List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>(replicas.size());
+        for (Replica replica : replicas) {
+            stats.add(new Stats(replica.name, replica.healthy, replica.lagMillis, replica.reads.sum(),
+                replica.busy.sum(), replica.failovers.sum(), replica.pool.getStats()));
+        }
+        return stats;
+    }
+    
+    /**
+     * @param lagMillis replay lag at the last successful check, -1 before the first one
+     * @param busy      borrows and checks skipped because the replica's pool was exhausted
+     * @param failovers times the replica was taken out of rotation
+     */
+    public record Stats(String name, boolean healthy, long lagMillis, long reads, long busy, long failovers,
+                        ConnectionPool.Stats pool) {
+    }
+    
+    private static class Replica {
+        final String name;
+        final ConnectionPool pool;
+        final LongAdder reads = new LongAdder();
+        final LongAdder busy = new LongAdder();
+        final LongAdder failovers = new LongAdder();
+        volatile boolean healthy;
+        volatile long lagMillis = -1;
+        
+        Replica(String name, ConnectionPool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+
+package com.bookerino.database;
+
+import com.bookerino.model.Booking;
+import com.bookerino.model.Review;
+import com.bookerino.model.Room;
+
+/**
+ * Mappers from full {@code rooms}, {@code bookings} and {@code reviews} rows to the model records.
+ */
+public final class RowMappers {
+    public static final RowMapper<Room> ROOM = rs -> new Room(
+        rs.getInt("id"),
+        rs.getString("name"),
+        rs.getString("type"),
+        rs.getInt("capacity"),
+        rs.getDouble("price"),
+        rs.getString("status"),
+        rs.getString("image_url"),
+        rs.getString("description")
+    );
+    
+    public static final RowMapper<Booking> BOOKING = rs -> new Booking(
+        rs.getInt("id"),
+        rs.getString("guest_name"),
+        rs.getString("guest_email"),
+        rs.getInt("room_id"),
+        rs.getDate("check_in").toLocalDate(),
+        rs.getDate("check_out").toLocalDate(),
+        rs.getString("status"),
+        rs.getDouble("total_price")
+    );
+    
+    public static final RowMapper<Review> REVIEW = rs -> new Review(
+        rs.getInt("id"),
+        rs.getInt("room_id"),
+        rs.getString("guest_name"),
+        rs.getInt("rating"),
+        rs.getString("comment")
+    );
+    
+    private RowMappers() {
+    }
+}
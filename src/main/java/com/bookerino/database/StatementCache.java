@@ -0,0 +1,84 @@
+
+package com.bookerino.database;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Idle prepared statements of one physical connection, keyed by the arguments they were prepared
+ * with and evicted least recently used first.
+ *
+ * A statement is taken out while a caller uses it and put back when the caller closes it, so two
+ * open statements never share a JDBC object; a second concurrent caller simply prepares its own.
+ */
+final class StatementCache {
+    private final LinkedHashMap<String, PreparedStatement> idle;
+    
+    StatementCache(int capacity) {
+        this.idle = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                close(eldest.getValue());
+                return true;
+            }
+        };
+    }
+    
+    static String keyOf(Object[] prepareArgs) {
+        if (prepareArgs.length == 1) {
+            return (String) prepareArgs[0];
+        }
+        StringBuilder key = new StringBuilder((String) prepareArgs[0]);
+        for (int i = 1; i < prepareArgs.length; i++) {
+            Object arg = prepareArgs[i];
+            key.append('\u0000');
+            if (arg instanceof int[]) {
+                key.append(Arrays.toString((int[]) arg));
+            } else if (arg instanceof String[]) {
+                key.append(Arrays.toString((String[]) arg));
+            } else {
+                key.append(arg);
+            }
+        }
+        return key.toString();
+    }
+    
+    synchronized PreparedStatement take(String key) {
+        return idle.remove(key);
+    }
+    
+    /**
+     * Resets a statement its caller has closed and keeps it for the next caller, or closes it
+     * when an equivalent one is already waiting or it cannot be reset.
+     */
+    synchronized void giveBack(String key, PreparedStatement statement) {
+        try {
+            statement.clearParameters();
+            statement.clearBatch();
+            statement.clearWarnings();
+            statement.setMaxRows(0);
+            statement.setFetchSize(0);
+            statement.setQueryTimeout(0);
+        } catch (SQLException e) {
+            close(statement);
+            return;
+        }
+        if (idle.putIfAbsent(key, statement) != null) {
+            close(statement);
+        }
+    }
+    
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+            // Dropped from the cache either way
+        }
+    }
+}
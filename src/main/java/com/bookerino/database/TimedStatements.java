@@ -0,0 +1,144 @@
+
+package com.bookerino.database;
+
+import com.bookerino.metrics.Metrics;
+import com.bookerino.metrics.QueryMetrics;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wraps the statements handed out by pooled connections so every {@code execute*} call is timed
+ * into {@link Metrics}. Prepared statements resolve their {@link QueryMetrics} once, when they are
+ * prepared; plain statements resolve it from the SQL passed to each call.
+ *
+ * A statement that came from a {@link StatementCache} is recycled instead of closed: closing the
+ * wrapper closes the result sets it handed out and gives the statement back, and the wrapper
+ * refuses any further use.
+ */
+final class TimedStatements {
+    /**
+     * Takes back a cached statement its caller has closed.
+     */
+    @FunctionalInterface
+    interface Recycler {
+        void recycle(Statement statement);
+    }
+    
+    private TimedStatements() {
+    }
+    
+    static Object wrap(Class<?> type, Statement statement, String sql) {
+        return wrap(type, statement, sql, null);
+    }
+    
+    static Object wrap(Class<?> type, Statement statement, String sql, Recycler recycler) {
+        return Proxy.newProxyInstance(
+            Statement.class.getClassLoader(),
+            new Class<?>[] { type },
+            new Timer(statement, sql == null ? null : Metrics.query(sql), recycler)
+        );
+    }
+    
+    private static class Timer implements InvocationHandler {
+        private final Statement statement;
+        private final QueryMetrics prepared;
+        private final Recycler recycler;
+        private List<ResultSet> results;
+        private boolean recycled;
+        
+        Timer(Statement statement, QueryMetrics prepared, Recycler recycler) {
+            this.statement = statement;
+            this.prepared = prepared;
+            this.recycler = recycler;
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (recycler != null) {
+                switch (method.getName()) {
+                    case "close":
+                        recycle();
+                        return null;
+                    case "isClosed":
+                        return recycled || statement.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        if (recycled) {
+                            throw new SQLException("Statement is closed");
+                        }
+                }
+            }
+            
+            if (!method.getName().startsWith("execute")) {
+                return track(call(method, args));
+            }
+            QueryMetrics metrics = prepared;
+            if (metrics == null && args != null && args.length > 0 && args[0] instanceof String) {
+                metrics = Metrics.query((String) args[0]);
+            }
+            if (metrics == null) {
+                return track(call(method, args));
+            }
+            
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = call(method, args);
+                failed = false;
+                return track(result);
+            } finally {
+                metrics.record(System.nanoTime() - start, failed);
+            }
+        }
+        
+        /**
+         * Remembers result sets of a cached statement so recycling it can close them, as closing
+         * the statement would have.
+         */
+        private Object track(Object result) {
+            if (recycler != null && result instanceof ResultSet) {
+                if (results == null) {
+                    results = new ArrayList<>(2);
+                }
+                results.add((ResultSet) result);
+            }
+            return result;
+        }
+        
+        private void recycle() {
+            if (recycled) {
+                return;
+            }
+            recycled = true;
+            if (results != null) {
+                for (ResultSet rs : results) {
+                    try {
+                        rs.close();
+                    } catch (SQLException ignored) {
+                        // The statement is reset before reuse anyway
+                    }
+                }
+                results = null;
+            }
+            recycler.recycle(statement);
+        }
+        
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+
+package com.bookerino.events;
+
+import com.bookerino.model.Booking;
+import com.bookerino.model.Review;
+import com.bookerino.model.Room;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Process-wide fan-out of committed changes to the registered {@link ChangeListener}s.
+ *
+ * The write has already succeeded when these methods run, so a failing listener is logged and
+ * skipped rather than turned into an error for the client.
+ */
+public final class ChangeEvents {
+    private static final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+    
+    private ChangeEvents() {
+    }
+    
+    public static void register(ChangeListener listener) {
+        listeners.add(listener);
+    }
+    
+    public static void unregister(ChangeListener listener) {
+        listeners.remove(listener);
+    }
+    
+    public static void roomSaved(Room room) {
+        dispatch(listener -> listener.roomSaved(room));
+    }
+    
+    public static void bookingCreated(Booking booking) {
+        dispatch(listener -> listener.bookingCreated(booking));
+    }
+    
+    public static void reviewCreated(Review review) {
+        dispatch(listener -> listener.reviewCreated(review));
+    }
+    
+    private static void dispatch(Consumer<ChangeListener> event) {
+        for (ChangeListener listener : listeners) {
+            try {
+                event.accept(listener);
+            } catch (RuntimeException e) {
+                System.err.println("Change listener " + listener.getClass().getSimpleName() + " failed: " + e.getMessage());
+            }
+        }
+    }
+}
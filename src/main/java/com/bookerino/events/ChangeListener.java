@@ -0,0 +1,21 @@
+
+package com.bookerino.events;
+
+import com.bookerino.model.Booking;
+import com.bookerino.model.Review;
+import com.bookerino.model.Room;
+
+/**
+ * Receives rows after the transaction that wrote them has committed. Implementations keep
+ * in-process views (aggregates, indexes, caches) current without re-querying the database.
+ */
+public interface ChangeListener {
+    default void roomSaved(Room room) {
+    }
+    
+    default void bookingCreated(Booking booking) {
+    }
+    
+    default void reviewCreated(Review review) {
+    }
+}
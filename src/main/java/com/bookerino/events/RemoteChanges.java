@@ -0,0 +1,143 @@
+
+package com.bookerino.events;
+
+import com.bookerino.config.Env;
+import com.bookerino.database.ChangeFeed;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.database.RowMappers;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Review;
+import com.bookerino.model.Room;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Applies writes made by other processes (other server instances sharing the database, the CLI)
+ * to this process's {@link ChangeListener}s, as the {@link ChangeFeed} reports them.
+ *
+ * Inserted rows are loaded by id and dispatched through {@link ChangeEvents}, just like local
+ * writes. Listeners take every event as a new row (the analytics count a room per
+ * {@code roomSaved}), so whatever is not an insert (updates, deletes) and statements too large to
+ * list their ids, as well as an outage of the feed, run the resync tasks registered for the table
+ * instead, once for a whole burst of such changes.
+ */
+public class RemoteChanges implements ChangeFeed.Listener {
+    private final Map<String, List<Resync>> resyncs = new ConcurrentHashMap<>();
+    private final Map<String, AtomicBoolean> pending = new ConcurrentHashMap<>();
+    private final long resyncDelayMillis;
+    private final ScheduledExecutorService scheduler;
+    
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder resyncRuns = new LongAdder();
+    
+    public RemoteChanges() {
+        this(Env.getLong("CHANGE_FEED_RESYNC_DELAY_MS", 1000));
+    }
+    
+    public RemoteChanges(long resyncDelayMillis) {
+        this.resyncDelayMillis = Math.max(0, resyncDelayMillis);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-change-resync");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    @FunctionalInterface
+    public interface Resync {
+        void run() throws SQLException;
+    }
+    
+    /**
+     * Adds a task that brings this process's view of {@code table} back in line with the database;
+     * a table's tasks run in the order they were added.
+     */
+    public void onResync(String table, Resync task) {
+        resyncs.computeIfAbsent(table, t -> new CopyOnWriteArrayList<>()).add(task);
+    }
+    
+    @Override
+    public void changed(ChangeFeed.Change change) {
+        if (change.isLocal()) {
+            return;
+        }
+        if (change.ids() == null || !"INSERT".equals(change.operation())) {
+            scheduleResync(change.table());
+            return;
+        }
+        
+        try {
+            Object ids = change.ids();
+            switch (change.table()) {
+                case "rooms":
+                    for (Room room : Jdbc.queryList(Queries.ROOMS_BY_IDS, RowMappers.ROOM, ids)) {
+                        ChangeEvents.roomSaved(room);
+                    }
+                    break;
+                case "bookings":
+                    for (Booking booking : Jdbc.queryList(Queries.BOOKINGS_BY_IDS, RowMappers.BOOKING, ids)) {
+                        ChangeEvents.bookingCreated(booking);
+                    }
+                    break;
+                case "reviews":
+                    for (Review review : Jdbc.queryList(Queries.REVIEWS_BY_IDS, RowMappers.REVIEW, ids)) {
+                        ChangeEvents.reviewCreated(review);
+                    }
+                    break;
+                default:
+                    return;
+            }
+            applied.add(change.count());
+        } catch (SQLException e) {
+            System.err.println("Could not load " + change.table() + " changed by " + change.origin() + ": " + e.getMessage());
+            scheduleResync(change.table());
+        }
+    }
+    
+    @Override
+    public void reconnected() {
+        for (String table : resyncs.keySet()) {
+            scheduleResync(table);
+        }
+    }
+    
+    private void scheduleResync(String table) {
+        AtomicBoolean flag = pending.computeIfAbsent(table, t -> new AtomicBoolean());
+        if (flag.compareAndSet(false, true)) {
+            scheduler.schedule(() -> resync(table, flag), resyncDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void resync(String table, AtomicBoolean flag) {
+        // Cleared first, so a change arriving while the tasks run schedules another pass
+        flag.set(false);
+        resyncRuns.increment();
+        for (Resync task : resyncs.getOrDefault(table, List.of())) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("Resync of " + table + " failed: " + e.getMessage());
+            }
+        }
+    }
+    
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+    
+    public Stats getStats() {
+        return new Stats(applied.sum(), resyncRuns.sum());
+    }
+    
+    public record Stats(long applied, long resyncs) {
+    }
+}
@@ -2,64 +2,129 @@
 package com.bookerino.handlers;
 
 import com.sun.net.httpserver.*;
-import com.bookerino.database.DatabaseConnection;
+import com.bookerino.analytics.AnalyticsSnapshot;
+import com.bookerino.analytics.RevenueTimeSeries;
 import org.json.*;
 import java.io.*;
-import java.sql.*;
+import java.sql.Date;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Locale;
 
 public class AnalyticsHandler implements HttpHandler {
+    private static final int MAX_RANGE_DAYS = 3660;
+    
+    private final AnalyticsSnapshot snapshot;
+    private final RevenueTimeSeries timeSeries;
+    
+    public AnalyticsHandler(AnalyticsSnapshot snapshot, RevenueTimeSeries timeSeries) {
+        this.snapshot = snapshot;
+        this.timeSeries = timeSeries;
+    }
+    
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         try {
-            Connection conn = DatabaseConnection.getConnection();
-            JSONObject analytics = new JSONObject();
-            
-            // Total bookings
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT COUNT(*) as total FROM bookings");
-            if (rs.next()) {
-                analytics.put("totalBookings", rs.getInt("total"));
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                Responses.error(exchange, 405, "Method not allowed");
+                return;
             }
-            
-            // Total revenue
-            rs = stmt.executeQuery("SELECT SUM(total_price) as revenue FROM bookings WHERE status = 'confirmed'");
-            if (rs.next()) {
-                analytics.put("totalRevenue", rs.getDouble("revenue"));
-            }
-            
-            // Average rating
-            rs = stmt.executeQuery("SELECT AVG(rating) as avg_rating FROM reviews");
-            if (rs.next()) {
-                analytics.put("averageRating", rs.getDouble("avg_rating"));
+            if ("/api/analytics/timeseries".equals(exchange.getRequestURI().getPath())) {
+                handleTimeSeries(exchange);
+                return;
             }
+            AnalyticsSnapshot.Totals totals = snapshot.getTotals();
+            long now = System.currentTimeMillis();
             
-            // Occupancy rate
-            rs = stmt.executeQuery("SELECT COUNT(*) as occupied FROM rooms WHERE status = 'occupied'");
-            int occupied = 0;
-            if (rs.next()) {
-                occupied = rs.getInt("occupied");
-            }
-            rs = stmt.executeQuery("SELECT COUNT(*) as total FROM rooms");
-            int total = 0;
-            if (rs.next()) {
-                total = rs.getInt("total");
-            }
-            analytics.put("occupancyRate", total > 0 ? (occupied * 100.0 / total) : 0);
+            JSONObject analytics = new JSONObject();
+            analytics.put("totalBookings", totals.bookings());
+            analytics.put("totalRevenue", totals.totalRevenue());
+            analytics.put("averageRating", totals.averageRating());
+            analytics.put("occupancyRate", totals.occupancyRate());
             
-            rs.close();
-            stmt.close();
+            // How far the figures may lag behind the database
+            JSONObject freshness = new JSONObject();
+            freshness.put("reconciledAt", Instant.ofEpochMilli(snapshot.getReconciledAtMillis()).toString());
+            freshness.put("updatedAt", Instant.ofEpochMilli(snapshot.getUpdatedAtMillis()).toString());
+            freshness.put("ageMs", now - snapshot.getReconciledAtMillis());
+            freshness.put("driftCorrected", !snapshot.getLastDrift().isZero());
+            analytics.put("snapshot", freshness);
             
-            sendResponse(exchange, 200, analytics.toString());
+            Responses.json(exchange, 200, analytics.toString());
+        } catch (IllegalArgumentException e) {
+            Responses.error(exchange, 400, e.getMessage());
         } catch (Exception e) {
-            sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+            Responses.error(exchange, 500, e.getMessage());
+        }
+    }
+    
+    /**
+     * Revenue and occupancy per day, week or month between {@code from} and {@code to}
+     * (inclusive); defaults to the 30 days either side of today.
+     */
+    private void handleTimeSeries(HttpExchange exchange) throws IOException {
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        LocalDate today = LocalDate.now();
+        Date fromParam = query.getDate("from");
+        Date toParam = query.getDate("to");
+        LocalDate from = fromParam != null ? fromParam.toLocalDate() : today.minusDays(30);
+        LocalDate to = toParam != null ? toParam.toLocalDate() : today.plusDays(30);
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("'to' must not be before 'from'");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= MAX_RANGE_DAYS) {
+            throw new IllegalArgumentException("Range must be at most " + MAX_RANGE_DAYS + " days");
         }
+        String granularityParam = query.getString("granularity");
+        RevenueTimeSeries.Granularity granularity;
+        try {
+            granularity = granularityParam == null ? RevenueTimeSeries.Granularity.DAY
+                : RevenueTimeSeries.Granularity.valueOf(granularityParam.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("'granularity' must be day, week or month");
+        }
+        
+        List<RevenueTimeSeries.Bucket> buckets = timeSeries.query(from, to, granularity);
+        JSONArray series = new JSONArray();
+        long available = 0;
+        long booked = 0;
+        long sold = 0;
+        long revenueCents = 0;
+        for (RevenueTimeSeries.Bucket bucket : buckets) {
+            JSONObject point = bucketJson(bucket);
+            point.put("start", bucket.start().toString());
+            point.put("end", bucket.end().minusDays(1).toString());
+            series.put(point);
+            available += bucket.availableNights();
+            booked += bucket.bookedNights();
+            sold += bucket.soldNights();
+            revenueCents += bucket.revenueCents();
+        }
+        
+        JSONObject json = new JSONObject();
+        json.put("from", from.toString());
+        json.put("to", to.toString());
+        json.put("granularity", granularity.name().toLowerCase(Locale.ROOT));
+        json.put("series", series);
+        json.put("totals", bucketJson(new RevenueTimeSeries.Bucket(from, to.plusDays(1), available, booked, sold, revenueCents)));
+        Responses.json(exchange, 200, json.toString());
+    }
+    
+    private static JSONObject bucketJson(RevenueTimeSeries.Bucket bucket) {
+        JSONObject json = new JSONObject();
+        json.put("revenue", bucket.revenue());
+        json.put("adr", round(bucket.adr()));
+        json.put("revpar", round(bucket.revpar()));
+        json.put("occupancy", Math.round(bucket.occupancy() * 10000) / 10000.0);
+        json.put("roomNightsAvailable", bucket.availableNights());
+        json.put("roomNightsBooked", bucket.bookedNights());
+        json.put("roomNightsSold", bucket.soldNights());
+        return json;
     }
     
-    private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().add("Content-Type", "application/json");
-        exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(response.getBytes());
-        os.close();
+    private static double round(double amount) {
+        return Math.round(amount * 100) / 100.0;
     }
 }
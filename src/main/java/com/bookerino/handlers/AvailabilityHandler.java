@@ -0,0 +1,91 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.*;
+import com.bookerino.availability.AvailabilityIndex;
+import com.bookerino.cache.RoomCache;
+import com.bookerino.cache.TableVersions;
+import com.bookerino.cache.TableVersions.Table;
+import com.bookerino.model.Room;
+import org.json.*;
+import java.io.*;
+import java.sql.*;
+import java.time.LocalDate;
+
+public class AvailabilityHandler implements HttpHandler {
+    private final AvailabilityIndex index;
+    private final RoomCache rooms;
+    private final TableVersions versions;
+    
+    public AvailabilityHandler(AvailabilityIndex index, RoomCache rooms, TableVersions versions) {
+        this.index = index;
+        this.rooms = rooms;
+        this.versions = versions;
+    }
+    
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                handleGet(exchange);
+            } else {
+                Responses.error(exchange, 405, "Method not allowed");
+            }
+        } catch (IllegalArgumentException e) {
+            Responses.error(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            Responses.error(exchange, 500, e.getMessage());
+        }
+    }
+    
+    private void handleGet(HttpExchange exchange) throws SQLException, IOException {
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        Date checkIn = query.getDate("checkIn");
+        Date checkOut = query.getDate("checkOut");
+        if (checkIn == null || checkOut == null) {
+            throw new IllegalArgumentException("Parameters 'checkIn' and 'checkOut' are required");
+        }
+        LocalDate from = checkIn.toLocalDate();
+        LocalDate to = checkOut.toLocalDate();
+        if (!from.isBefore(to)) {
+            throw new IllegalArgumentException("'checkOut' must be after 'checkIn'");
+        }
+        int guests = query.getInt("guests", 1);
+        
+        if (Responses.notModified(exchange, versions.etag(Table.ROOMS, Table.BOOKINGS),
+                versions.lastModified(Table.ROOMS, Table.BOOKINGS))) {
+            return;
+        }
+        
+        String source = "index";
+        int[] roomIds = index.findAvailable(from, to, guests);
+        if (roomIds == null) {
+            source = "database";
+            roomIds = AvailabilityIndex.findAvailableInDatabase(from, to, guests);
+        }
+        
+        JSONArray available = new JSONArray();
+        for (int roomId : roomIds) {
+            Room room = rooms.getRoom(roomId);
+            if (room == null) {
+                continue;
+            }
+            JSONObject json = new JSONObject();
+            json.put("id", room.id());
+            json.put("name", room.name());
+            json.put("type", room.type());
+            json.put("capacity", room.capacity());
+            json.put("price", room.price());
+            json.put("status", room.status());
+            available.put(json);
+        }
+        
+        JSONObject result = new JSONObject();
+        result.put("checkIn", from.toString());
+        result.put("checkOut", to.toString());
+        result.put("guests", guests);
+        result.put("source", source);
+        result.put("rooms", available);
+        Responses.json(exchange, 200, result.toString());
+    }
+}
@@ -0,0 +1,59 @@
+
+package com.bookerino.handlers;
+
+import com.bookerino.availability.AvailabilityIndex;
+import com.bookerino.config.Env;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.database.RowMappers;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The in-process overlap check shared by every path that writes bookings. Writers for a room
+ * hold its lock from the check until the new booking has been announced through
+ * {@code ChangeEvents}, so the next writer's check sees it. The availability index answers for
+ * stays it covers and the database for the rest (stays outside the window, rooms the index has
+ * not loaded yet): the bookings_no_overlap constraint is best-effort, so this check may be all
+ * that keeps two stays apart.
+ */
+public class BookingGuard {
+    private final AvailabilityIndex availability;
+    private final StripedLocks roomLocks = new StripedLocks(Env.getInt("BOOKING_LOCK_STRIPES", 64));
+    
+    public BookingGuard(AvailabilityIndex availability) {
+        this.availability = availability;
+    }
+    
+    ReentrantLock lockFor(int roomId) {
+        return roomLocks.forKey(roomId);
+    }
+    
+    /**
+     * The locks of all these rooms, each once, in the order every caller takes them.
+     */
+    List<ReentrantLock> locksFor(int[] roomIds) {
+        return roomLocks.forKeys(roomIds);
+    }
+    
+    /**
+     * Whether no non-cancelled booking overlaps the stay; call with the room's lock held.
+     */
+    boolean isFree(int roomId, LocalDate checkIn, LocalDate checkOut) throws SQLException {
+        Boolean available = isFreeInIndex(roomId, checkIn, checkOut);
+        if (available != null) {
+            return available;
+        }
+        return Jdbc.queryOne(Queries.BOOKING_FIRST_OVERLAP, RowMappers.BOOKING, roomId, checkOut, checkIn) == null;
+    }
+    
+    /**
+     * The index's answer alone, {@code null} when it cannot tell; for callers that have checked
+     * the stored bookings themselves, such as bulk imports screening a whole chunk in one query.
+     */
+    Boolean isFreeInIndex(int roomId, LocalDate checkIn, LocalDate checkOut) {
+        return availability.isAvailable(roomId, checkIn, checkOut);
+    }
+}
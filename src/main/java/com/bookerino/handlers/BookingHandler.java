@@ -2,12 +2,39 @@
 package com.bookerino.handlers;
 
 import com.sun.net.httpserver.*;
-import com.bookerino.database.DatabaseConnection;
+import com.bookerino.cache.RoomCache;
+import com.bookerino.cache.TableVersions;
+import com.bookerino.cache.TableVersions.Table;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.database.RowMappers;
+import com.bookerino.events.ChangeEvents;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Room;
+import com.bookerino.pricing.Quote;
+import com.bookerino.pricing.QuoteEngine;
 import org.json.*;
 import java.io.*;
 import java.sql.*;
+import java.time.LocalDate;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class BookingHandler implements HttpHandler {
+    /** PostgreSQL SQLSTATE raised when the bookings_no_overlap constraint rejects a row. */
+    private static final String EXCLUSION_VIOLATION = "23P01";
+    
+    private final RoomCache rooms;
+    private final BookingGuard guard;
+    private final TableVersions versions;
+    private final QuoteEngine quotes;
+    
+    public BookingHandler(RoomCache rooms, BookingGuard guard, TableVersions versions, QuoteEngine quotes) {
+        this.rooms = rooms;
+        this.guard = guard;
+        this.versions = versions;
+        this.quotes = quotes;
+    }
+    
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         String method = exchange.getRequestMethod();
@@ -18,81 +45,139 @@ public class BookingHandler implements HttpHandler {
             } else if ("POST".equals(method)) {
                 handlePost(exchange);
             } else {
-                sendResponse(exchange, 405, "{\"error\": \"Method not allowed\"}");
+                Responses.error(exchange, 405, "Method not allowed");
             }
+        } catch (PayloadTooLargeException e) {
+            Responses.error(exchange, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Responses.error(exchange, 400, e.getMessage());
         } catch (Exception e) {
-            sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+            Responses.error(exchange, 500, e.getMessage());
         }
     }
     
     private void handleGet(HttpExchange exchange) throws SQLException, IOException {
-        Connection conn = DatabaseConnection.getConnection();
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT * FROM bookings ORDER BY created_at DESC");
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        KeysetQuery page = new KeysetQuery("bookings", query)
+            .and("room_id = ?", query.getInt("roomId"))
+            .and("status = ?", query.getString("status"))
+            .and("check_out > ?", query.getDate("from"))
+            .and("check_in < ?", query.getDate("to"));
         
-        JSONArray bookings = new JSONArray();
-        while (rs.next()) {
-            JSONObject booking = new JSONObject();
-            booking.put("id", rs.getInt("id"));
-            booking.put("guestName", rs.getString("guest_name"));
-            booking.put("guestEmail", rs.getString("guest_email"));
-            booking.put("roomId", rs.getInt("room_id"));
-            booking.put("checkIn", rs.getDate("check_in").toString());
-            booking.put("checkOut", rs.getDate("check_out").toString());
-            booking.put("status", rs.getString("status"));
-            booking.put("totalPrice", rs.getDouble("total_price"));
-            bookings.put(booking);
+        if (Responses.notModified(exchange, versions.etag(Table.BOOKINGS), versions.lastModified(Table.BOOKINGS))) {
+            return;
         }
-        
-        rs.close();
-        stmt.close();
-        
-        sendResponse(exchange, 200, bookings.toString());
+        ListResponse.send(exchange, page, BookingHandler::writeBooking,
+            ReadConsistency.source(exchange, versions.lastModified(Table.BOOKINGS)));
+    }
+    
+    static void writeBooking(JsonStreamWriter json, ResultSet rs) throws SQLException, IOException {
+        json.beginObject()
+            .field("id", rs.getInt("id"))
+            .field("guestName", rs.getString("guest_name"))
+            .field("guestEmail", rs.getString("guest_email"))
+            .field("roomId", rs.getInt("room_id"))
+            .field("checkIn", rs.getDate("check_in").toString())
+            .field("checkOut", rs.getDate("check_out").toString())
+            .field("status", rs.getString("status"))
+            .field("totalPrice", rs.getDouble("total_price"))
+            .endObject();
     }
     
     private void handlePost(HttpExchange exchange) throws IOException, SQLException {
-        InputStreamReader isr = new InputStreamReader(exchange.getRequestBody());
-        BufferedReader br = new BufferedReader(isr);
-        StringBuilder body = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-            body.append(line);
+        JSONObject json = RequestBodies.readJson(exchange);
+        int roomId = RequestBodies.requiredInt(json, "roomId");
+        String guestName = RequestBodies.requiredString(json, "guestName", 255);
+        String guestEmail = RequestBodies.requiredString(json, "guestEmail", 255);
+        LocalDate checkIn = RequestBodies.requiredDate(json, "checkIn");
+        LocalDate checkOut = RequestBodies.requiredDate(json, "checkOut");
+        String status = RequestBodies.optionalString(json, "status", "pending", 50);
+        if (!checkIn.isBefore(checkOut)) {
+            throw new IllegalArgumentException("'checkOut' must be after 'checkIn'");
+        }
+        Room room = rooms.getRoom(roomId);
+        if (room == null) {
+            throw new IllegalArgumentException("Room " + roomId + " does not exist");
         }
         
-        JSONObject json = new JSONObject(body.toString());
-        
-        Connection conn = DatabaseConnection.getConnection();
-        PreparedStatement pstmt = conn.prepareStatement(
-            "INSERT INTO bookings (guest_name, guest_email, room_id, check_in, check_out, status, total_price) VALUES (?, ?, ?, ?, ?, ?, ?)",
-            Statement.RETURN_GENERATED_KEYS
-        );
-        
-        pstmt.setString(1, json.getString("guestName"));
-        pstmt.setString(2, json.getString("guestEmail"));
-        pstmt.setInt(3, json.getInt("roomId"));
-        pstmt.setDate(4, Date.valueOf(json.getString("checkIn")));
-        pstmt.setDate(5, Date.valueOf(json.getString("checkOut")));
-        pstmt.setString(6, json.optString("status", "pending"));
-        pstmt.setDouble(7, json.getDouble("totalPrice"));
-        
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
-        
-        if (rs.next()) {
-            json.put("id", rs.getInt(1));
+        // The price is always the server's; a client total that disagrees was shown from a stale
+        // quote, and the guest has to see the new one before booking
+        Quote quote = quotes.quote(room, checkIn, checkOut);
+        if (json.has("totalPrice") && Math.abs(RequestBodies.requiredNumber(json, "totalPrice") - quote.total()) >= 0.005) {
+            StringWriter error = new StringWriter(512);
+            try (JsonStreamWriter out = new JsonStreamWriter(error)) {
+                out.beginObject()
+                    .field("error", "Price changed; the stay now costs " + quote.total() + " " + QuoteHandler.CURRENCY)
+                    .name("quote");
+                QuoteHandler.writeQuote(out, quote, null);
+                out.endObject();
+            }
+            Responses.json(exchange, 409, error.toString());
+            return;
         }
+        json.put("totalPrice", quote.total());
+        boolean blocksRoom = !"cancelled".equals(status);
         
-        rs.close();
-        pstmt.close();
+        // Bookings for the same room are serialized in this process so overlaps are rejected
+        // before the insert; the exclusion constraint on bookings, where it exists, also catches
+        // overlaps coming from other processes.
+        ReentrantLock lock = guard.lockFor(roomId);
+        lock.lock();
+        try {
+            if (blocksRoom && !guard.isFree(roomId, checkIn, checkOut)) {
+                sendConflict(exchange, roomId, checkIn, checkOut);
+                return;
+            }
+            
+            try {
+                json.put("id", Jdbc.insert(Queries.BOOKING_INSERT,
+                    guestName,
+                    guestEmail,
+                    roomId,
+                    checkIn,
+                    checkOut,
+                    status,
+                    quote.total()
+                ));
+            } catch (SQLException e) {
+                if (EXCLUSION_VIOLATION.equals(e.getSQLState())) {
+                    sendConflict(exchange, roomId, checkIn, checkOut);
+                    return;
+                }
+                throw e;
+            }
+            
+            ChangeEvents.bookingCreated(new Booking(
+                json.getInt("id"),
+                guestName,
+                guestEmail,
+                roomId,
+                checkIn,
+                checkOut,
+                status,
+                quote.total()
+            ));
+        } finally {
+            lock.unlock();
+        }
         
-        sendResponse(exchange, 201, json.toString());
+        ReadConsistency.pinToPrimary(exchange);
+        Responses.json(exchange, 201, json.toString());
     }
     
-    private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().add("Content-Type", "application/json");
-        exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(response.getBytes());
-        os.close();
+    private void sendConflict(HttpExchange exchange, int roomId, LocalDate checkIn, LocalDate checkOut) throws SQLException, IOException {
+        JSONObject error = new JSONObject();
+        error.put("error", "Room " + roomId + " is already booked for part of " + checkIn + " to " + checkOut);
+        
+        Booking existing = Jdbc.queryOne(Queries.BOOKING_FIRST_OVERLAP, RowMappers.BOOKING, roomId, checkOut, checkIn);
+        if (existing != null) {
+            JSONObject conflict = new JSONObject();
+            conflict.put("bookingId", existing.id());
+            conflict.put("checkIn", existing.checkIn().toString());
+            conflict.put("checkOut", existing.checkOut().toString());
+            error.put("conflict", conflict);
+        }
+        
+        Responses.json(exchange, 409, error.toString());
     }
 }
@@ -0,0 +1,618 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.*;
+import com.bookerino.config.Env;
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.events.ChangeEvents;
+import com.bookerino.model.Booking;
+import com.bookerino.model.Review;
+import com.bookerino.pricing.Quote;
+import com.bookerino.pricing.QuoteEngine;
+import org.json.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Imports bookings or reviews from an NDJSON ({@code application/x-ndjson}) or CSV
+ * ({@code text/csv}, header row required) request body.
+ *
+ * The body is parsed one record at a time and written in chunks: each chunk is one JDBC batch
+ * in one transaction. When a batch fails, the chunk is rolled back and replayed row by row behind
+ * savepoints, so the rows the database rejects are reported and the rest still commit. Rows
+ * that fail validation are reported without reaching the database.
+ *
+ * A row of bookings overlapping a stored booking or an earlier row of its chunk is reported
+ * instead of written. The stored bookings are checked for the whole chunk in one query; stays
+ * the availability index covers are then checked again against it under the {@link BookingGuard}
+ * locks of their rooms, held until the rows are announced, exactly as single bookings are. Stays
+ * outside the index (historic imports, mostly) take no locks; a booking another writer commits
+ * for them meanwhile is left to the exclusion constraint, whose violations are reported per row.
+ *
+ * Bookings are priced by the {@link QuoteEngine} like single ones, and a row whose
+ * {@code totalPrice} disagrees with its quote is reported. {@code prices=trusted} stores each
+ * row's own {@code totalPrice} unchecked instead: it is meant for migrating historic bookings
+ * agreed under earlier rates, and only for callers trusted to set prices.
+ */
+public class BulkImportHandler<T> implements HttpHandler {
+    private static final int DEFAULT_CHUNK_SIZE = Env.getInt("BULK_CHUNK_SIZE", 1000);
+    private static final int MAX_CHUNK_SIZE = 10000;
+    private static final int MAX_REPORTED_ERRORS = Env.getInt("BULK_MAX_REPORTED_ERRORS", 1000);
+    
+    private final RowSpec<T> spec;
+    
+    private BulkImportHandler(RowSpec<T> spec) {
+        this.spec = spec;
+    }
+    
+    public static BulkImportHandler<Booking> bookings(BookingGuard guard, QuoteEngine quotes) {
+        return new BulkImportHandler<>(new BookingRows(guard, quotes, false));
+    }
+    
+    public static BulkImportHandler<Review> reviews() {
+        return new BulkImportHandler<>(new ReviewRows());
+    }
+    
+    /**
+     * How one entity type is validated, inserted and announced.
+     */
+    interface RowSpec<T> {
+        String name();
+        
+        String insertSql();
+        
+        /** Validates a record; throws {@link RuntimeException} with a client-facing message. */
+        T parse(JSONObject json) throws SQLException;
+        
+        void bind(PreparedStatement pstmt, T row) throws SQLException;
+        
+        T withId(T row, int id);
+        
+        /** The spec for one request, configured by its query parameters. */
+        default RowSpec<T> forRequest(QueryParams query) {
+            return this;
+        }
+        
+        void publish(T row);
+        
+        /**
+         * Why each row cannot be written next to the stored rows, {@code null} entries where it
+         * can, or {@code null} for none; called before {@link #locks} are taken.
+         */
+        default String[] conflictsWithStored(Connection conn, List<T> rows) throws SQLException {
+            return null;
+        }
+        
+        /** Locks to hold while a chunk of these rows is checked, written and published. */
+        default List<ReentrantLock> locks(List<T> rows) {
+            return List.of();
+        }
+        
+        /**
+         * Why the row cannot be written next to the chunk's rows accepted before it and what
+         * this process has written since {@link #conflictsWithStored}, or {@code null}; called
+         * with {@link #locks} held.
+         */
+        default String conflict(T row, List<T> accepted) throws SQLException {
+            return null;
+        }
+    }
+    
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if ("POST".equals(exchange.getRequestMethod())) {
+                handlePost(exchange);
+            } else {
+                Responses.error(exchange, 405, "Method not allowed");
+            }
+        } catch (PayloadTooLargeException e) {
+            Responses.error(exchange, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Responses.error(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            Responses.error(exchange, 500, e.getMessage());
+        }
+    }
+    
+    private void handlePost(HttpExchange exchange) throws IOException, SQLException {
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        int chunkSize = Math.min(query.getInt("chunkSize", DEFAULT_CHUNK_SIZE), MAX_CHUNK_SIZE);
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Parameter 'chunkSize' must be at least 1");
+        }
+        boolean csv = isCsv(exchange, query);
+        RowSpec<T> spec = this.spec.forRequest(query);
+        
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(RequestBodies.open(exchange, RequestBodies.MAX_BULK_BYTES), StandardCharsets.UTF_8), 64 * 1024);
+        RecordSource source = csv ? new CsvSource(reader) : new NdjsonSource(reader);
+        Report report = new Report();
+        long start = System.nanoTime();
+        
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            List<Pending<T>> chunk = new ArrayList<>(chunkSize);
+            JSONObject record;
+            while ((record = nextRecord(source, report)) != null) {
+                report.rows++;
+                try {
+                    chunk.add(new Pending<>(source.lineNumber(), spec.parse(record)));
+                } catch (RuntimeException e) {
+                    report.fail(source.lineNumber(), e.getMessage());
+                }
+                if (chunk.size() == chunkSize) {
+                    writeChunk(spec, conn, chunk, report);
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty()) {
+                writeChunk(spec, conn, chunk, report);
+            }
+        }
+        
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long rowsPerSecond = seconds > 0 ? Math.round(report.imported / seconds) : report.imported;
+        System.out.printf("Bulk import of %s: %d imported, %d failed in %.2fs (%d rows/s)%n",
+            spec.name(), report.imported, report.failed, seconds, rowsPerSecond);
+        
+        JSONObject result = new JSONObject();
+        result.put("rows", report.rows);
+        result.put("imported", report.imported);
+        result.put("failed", report.failed);
+        result.put("chunkSize", chunkSize);
+        result.put("elapsedMs", Math.round(seconds * 1000));
+        result.put("rowsPerSecond", rowsPerSecond);
+        result.put("errors", report.errors);
+        result.put("errorsTruncated", report.failed > report.errors.length());
+        if (report.imported > 0) {
+            ReadConsistency.pinToPrimary(exchange);
+        }
+        Responses.json(exchange, report.imported > 0 || report.failed == 0 ? 200 : 422, result.toString());
+    }
+    
+    private JSONObject nextRecord(RecordSource source, Report report) throws IOException {
+        while (true) {
+            try {
+                return source.next();
+            } catch (JSONException | IllegalArgumentException e) {
+                // A malformed line only loses that record; keep reading
+                report.rows++;
+                report.fail(source.lineNumber(), e.getMessage());
+            }
+        }
+    }
+    
+    private void writeChunk(RowSpec<T> spec, Connection conn, List<Pending<T>> chunk, Report report) throws SQLException {
+        List<T> rows = new ArrayList<>(chunk.size());
+        for (Pending<T> pending : chunk) {
+            rows.add(pending.row);
+        }
+        String[] stored = spec.conflictsWithStored(conn, rows);
+        List<ReentrantLock> locks = spec.locks(rows);
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            List<Pending<T>> accepted = screen(spec, chunk, stored, report);
+            if (!accepted.isEmpty()) {
+                writeAccepted(spec, conn, accepted, report);
+            }
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+    
+    /**
+     * Reports the rows that conflict with stored data or earlier rows of the chunk, and returns
+     * the rest.
+     */
+    private List<Pending<T>> screen(RowSpec<T> spec, List<Pending<T>> chunk, String[] stored, Report report) throws SQLException {
+        List<Pending<T>> accepted = new ArrayList<>(chunk.size());
+        List<T> acceptedRows = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Pending<T> pending = chunk.get(i);
+            String conflict = stored != null && stored[i] != null ? stored[i] : spec.conflict(pending.row, acceptedRows);
+            if (conflict != null) {
+                report.fail(pending.line, conflict);
+                continue;
+            }
+            accepted.add(pending);
+            acceptedRows.add(pending.row);
+        }
+        return accepted;
+    }
+    
+    private void writeAccepted(RowSpec<T> spec, Connection conn, List<Pending<T>> chunk, Report report) throws SQLException {
+        List<T> written = new ArrayList<>(chunk.size());
+        try (PreparedStatement pstmt = conn.prepareStatement(spec.insertSql(), new String[] { "id" })) {
+            for (Pending<T> pending : chunk) {
+                spec.bind(pstmt, pending.row);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                for (Pending<T> pending : chunk) {
+                    if (!keys.next()) {
+                        throw new SQLException("Missing generated key for line " + pending.line);
+                    }
+                    written.add(spec.withId(pending.row, keys.getInt(1)));
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            written.clear();
+            writeRowByRow(spec, conn, chunk, report, written);
+        }
+        
+        report.imported += written.size();
+        for (T row : written) {
+            spec.publish(row);
+        }
+    }
+    
+    /**
+     * Replays a failed batch one row at a time so each database error is tied to its line.
+     */
+    private void writeRowByRow(RowSpec<T> spec, Connection conn, List<Pending<T>> chunk, Report report, List<T> written) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(spec.insertSql(), new String[] { "id" })) {
+            for (Pending<T> pending : chunk) {
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    spec.bind(pstmt, pending.row);
+                    pstmt.executeUpdate();
+                    try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                        keys.next();
+                        written.add(spec.withId(pending.row, keys.getInt(1)));
+                    }
+                    conn.releaseSavepoint(savepoint);
+                } catch (SQLException e) {
+                    conn.rollback(savepoint);
+                    report.fail(pending.line, e.getMessage());
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            written.clear();
+            throw e;
+        }
+    }
+    
+    private static boolean isCsv(HttpExchange exchange, QueryParams query) {
+        String format = query.getString("format");
+        if (format != null) {
+            if (!format.equalsIgnoreCase("csv") && !format.equalsIgnoreCase("ndjson")) {
+                throw new IllegalArgumentException("Parameter 'format' must be csv or ndjson");
+            }
+            return format.equalsIgnoreCase("csv");
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        return contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("text/csv");
+    }
+    
+    
+    private static final class Pending<T> {
+        final int line;
+        final T row;
+        
+        Pending(int line, T row) {
+            this.line = line;
+            this.row = row;
+        }
+    }
+    
+    private static final class Report {
+        long rows;
+        long imported;
+        long failed;
+        final JSONArray errors = new JSONArray();
+        
+        void fail(int line, String message) {
+            failed++;
+            if (errors.length() < MAX_REPORTED_ERRORS) {
+                JSONObject error = new JSONObject();
+                error.put("line", line);
+                error.put("error", message);
+                errors.put(error);
+            }
+        }
+    }
+    
+    private interface RecordSource {
+        JSONObject next() throws IOException;
+        
+        int lineNumber();
+    }
+    
+    private static final class NdjsonSource implements RecordSource {
+        private final BufferedReader reader;
+        private int lineNumber;
+        
+        NdjsonSource(BufferedReader reader) {
+            this.reader = reader;
+        }
+        
+        @Override
+        public JSONObject next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+                lineNumber++;
+            } while (line.isBlank());
+            return new JSONObject(line);
+        }
+        
+        @Override
+        public int lineNumber() {
+            return lineNumber;
+        }
+    }
+    
+    /**
+     * Turns CSV records into JSON objects keyed by the header row, accepting snake_case headers
+     * ({@code guest_name}) as well as the API's camelCase names.
+     */
+    private static final class CsvSource implements RecordSource {
+        private final CsvReader csv;
+        private List<String> header;
+        
+        CsvSource(BufferedReader reader) {
+            this.csv = new CsvReader(reader);
+        }
+        
+        @Override
+        public JSONObject next() throws IOException {
+            if (header == null) {
+                List<String> names = csv.next();
+                if (names == null) {
+                    return null;
+                }
+                header = new ArrayList<>(names.size());
+                for (String name : names) {
+                    header.add(toCamelCase(name.trim()));
+                }
+            }
+            List<String> fields = csv.next();
+            if (fields == null) {
+                return null;
+            }
+            if (fields.size() != header.size()) {
+                throw new IllegalArgumentException("Expected " + header.size() + " fields, found " + fields.size());
+            }
+            JSONObject json = new JSONObject();
+            for (int i = 0; i < fields.size(); i++) {
+                if (!fields.get(i).isEmpty()) {
+                    json.put(header.get(i), fields.get(i));
+                }
+            }
+            return json;
+        }
+        
+        @Override
+        public int lineNumber() {
+            return csv.getLineNumber();
+        }
+        
+        private static String toCamelCase(String name) {
+            StringBuilder result = new StringBuilder(name.length());
+            boolean upper = false;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c == '_') {
+                    upper = true;
+                } else {
+                    result.append(upper ? Character.toUpperCase(c) : c);
+                    upper = false;
+                }
+            }
+            return result.toString();
+        }
+    }
+    
+    private static final class BookingRows implements RowSpec<Booking> {
+        private final BookingGuard guard;
+        private final QuoteEngine quotes;
+        private final boolean trustedPrices;
+        
+        BookingRows(BookingGuard guard, QuoteEngine quotes, boolean trustedPrices) {
+            this.guard = guard;
+            this.quotes = quotes;
+            this.trustedPrices = trustedPrices;
+        }
+        
+        @Override
+        public RowSpec<Booking> forRequest(QueryParams query) {
+            String prices = query.getString("prices");
+            if (prices == null || "quoted".equals(prices)) {
+                return this;
+            }
+            if ("trusted".equals(prices)) {
+                return new BookingRows(guard, quotes, true);
+            }
+            throw new IllegalArgumentException("Parameter 'prices' must be quoted or trusted");
+        }
+        
+        @Override
+        public String name() {
+            return "bookings";
+        }
+        
+        @Override
+        public String insertSql() {
+            return "INSERT INTO bookings (guest_name, guest_email, room_id, check_in, check_out, status, total_price) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        }
+        
+        @Override
+        public Booking parse(JSONObject json) throws SQLException {
+            int roomId = RequestBodies.requiredInt(json, "roomId");
+            LocalDate checkIn = RequestBodies.requiredDate(json, "checkIn");
+            LocalDate checkOut = RequestBodies.requiredDate(json, "checkOut");
+            if (!checkIn.isBefore(checkOut)) {
+                throw new IllegalArgumentException("'checkOut' must be after 'checkIn'");
+            }
+            return new Booking(
+                0,
+                RequestBodies.requiredString(json, "guestName", 255),
+                RequestBodies.requiredString(json, "guestEmail", 255),
+                roomId,
+                checkIn,
+                checkOut,
+                RequestBodies.optionalString(json, "status", "pending", 50),
+                trustedPrices ? RequestBodies.requiredNumber(json, "totalPrice") : quotedPrice(json, roomId, checkIn, checkOut)
+            );
+        }
+        
+        private double quotedPrice(JSONObject json, int roomId, LocalDate checkIn, LocalDate checkOut) throws SQLException {
+            Quote quote = quotes.quote(roomId, checkIn, checkOut);
+            if (quote == null) {
+                throw new IllegalArgumentException("Room " + roomId + " does not exist");
+            }
+            if (json.has("totalPrice") && Math.abs(RequestBodies.requiredNumber(json, "totalPrice") - quote.total()) >= 0.005) {
+                throw new IllegalArgumentException("'totalPrice' does not match the quoted " + quote.total() + " " + QuoteHandler.CURRENCY);
+            }
+            return quote.total();
+        }
+        
+        @Override
+        public void bind(PreparedStatement pstmt, Booking row) throws SQLException {
+            pstmt.setString(1, row.guestName());
+            pstmt.setString(2, row.guestEmail());
+            pstmt.setInt(3, row.roomId());
+            pstmt.setDate(4, Date.valueOf(row.checkIn()));
+            pstmt.setDate(5, Date.valueOf(row.checkOut()));
+            pstmt.setString(6, row.status());
+            pstmt.setDouble(7, row.totalPrice());
+        }
+        
+        @Override
+        public Booking withId(Booking row, int id) {
+            return new Booking(id, row.guestName(), row.guestEmail(), row.roomId(), row.checkIn(),
+                row.checkOut(), row.status(), row.totalPrice());
+        }
+        
+        @Override
+        public void publish(Booking row) {
+            ChangeEvents.bookingCreated(row);
+        }
+        
+        @Override
+        public String[] conflictsWithStored(Connection conn, List<Booking> rows) throws SQLException {
+            int count = 0;
+            int[] positions = new int[rows.size()];
+            int[] roomIds = new int[rows.size()];
+            String[] checkIns = new String[rows.size()];
+            String[] checkOuts = new String[rows.size()];
+            for (int i = 0; i < rows.size(); i++) {
+                Booking row = rows.get(i);
+                if (!row.isCancelled()) {
+                    positions[count] = i;
+                    roomIds[count] = row.roomId();
+                    checkIns[count] = row.checkIn().toString();
+                    checkOuts[count] = row.checkOut().toString();
+                    count++;
+                }
+            }
+            String[] conflicts = new String[rows.size()];
+            for (int position : Jdbc.queryList(conn, Queries.BOOKING_OVERLAPPING_STAYS, rs -> rs.getInt(1),
+                    Arrays.copyOf(positions, count), Arrays.copyOf(roomIds, count),
+                    Arrays.copyOf(checkIns, count), Arrays.copyOf(checkOuts, count))) {
+                conflicts[position] = alreadyBooked(rows.get(position));
+            }
+            return conflicts;
+        }
+        
+        /**
+         * Only the rooms of stays the index covers: the rest were checked against the database
+         * and have nothing in this process to wait for.
+         */
+        @Override
+        public List<ReentrantLock> locks(List<Booking> rows) {
+            int count = 0;
+            int[] roomIds = new int[rows.size()];
+            for (Booking row : rows) {
+                if (!row.isCancelled() && guard.isFreeInIndex(row.roomId(), row.checkIn(), row.checkOut()) != null) {
+                    roomIds[count++] = row.roomId();
+                }
+            }
+            return guard.locksFor(Arrays.copyOf(roomIds, count));
+        }
+        
+        @Override
+        public String conflict(Booking row, List<Booking> accepted) throws SQLException {
+            if (row.isCancelled()) {
+                return null;
+            }
+            boolean clashes = false;
+            for (Booking other : accepted) {
+                if (!other.isCancelled() && other.roomId() == row.roomId()
+                        && other.checkIn().isBefore(row.checkOut()) && row.checkIn().isBefore(other.checkOut())) {
+                    clashes = true;
+                    break;
+                }
+            }
+            if (clashes || Boolean.FALSE.equals(guard.isFreeInIndex(row.roomId(), row.checkIn(), row.checkOut()))) {
+                return alreadyBooked(row);
+            }
+            return null;
+        }
+        
+        private static String alreadyBooked(Booking row) {
+            return "Room " + row.roomId() + " is already booked for part of " + row.checkIn() + " to " + row.checkOut();
+        }
+    }
+    
+    private static final class ReviewRows implements RowSpec<Review> {
+        @Override
+        public String name() {
+            return "reviews";
+        }
+        
+        @Override
+        public String insertSql() {
+            return "INSERT INTO reviews (room_id, guest_name, rating, comment) VALUES (?, ?, ?, ?)";
+        }
+        
+        @Override
+        public Review parse(JSONObject json) {
+            int rating = json.getInt("rating");
+            if (rating < 1 || rating > 5) {
+                throw new IllegalArgumentException("'rating' must be between 1 and 5");
+            }
+            return new Review(0, json.getInt("roomId"), json.getString("guestName"), rating, json.optString("comment", ""));
+        }
+        
+        @Override
+        public void bind(PreparedStatement pstmt, Review row) throws SQLException {
+            pstmt.setInt(1, row.roomId());
+            pstmt.setString(2, row.guestName());
+            pstmt.setInt(3, row.rating());
+            pstmt.setString(4, row.comment());
+        }
+        
+        @Override
+        public Review withId(Review row, int id) {
+            return new Review(id, row.roomId(), row.guestName(), row.rating(), row.comment());
+        }
+        
+        @Override
+        public void publish(Review row) {
+            ChangeEvents.reviewCreated(row);
+        }
+    }
+}
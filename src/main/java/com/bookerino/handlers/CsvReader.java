@@ -0,0 +1,88 @@
+
+package com.bookerino.handlers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * RFC 4180 style CSV reader: comma separated, fields optionally wrapped in double quotes, quotes
+ * inside quoted fields doubled, quoted fields may span lines.
+ */
+final class CsvReader {
+    private final BufferedReader reader;
+    private int lineNumber;
+    private int recordLine;
+    
+    CsvReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+    
+    /**
+     * Line number the last record returned by {@link #next()} started on (1-based).
+     */
+    int getLineNumber() {
+        return recordLine;
+    }
+    
+    /**
+     * Returns the next record's fields, or {@code null} at the end of the input. Blank lines are
+     * skipped.
+     */
+    List<String> next() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.isBlank());
+        recordLine = lineNumber;
+        
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // Quoted field continues on the next physical line
+                String continuation = reader.readLine();
+                if (continuation == null) {
+                    throw new IllegalArgumentException("Unterminated quoted field");
+                }
+                lineNumber++;
+                field.append('\n');
+                line = continuation;
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c == '"') {
+                    if (i < line.length() && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,434 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.*;
+import com.bookerino.config.Env;
+import com.bookerino.database.ChangeFeed;
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.database.Query;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-sent event fan-out of the {@link ChangeFeed}: every committed change to rooms, bookings
+ * and reviews, whichever instance or the CLI made it, as one event per statement carrying the
+ * changed rows.
+ *
+ * Each change is loaded and serialized once, into a ring of the most recent events. A subscriber
+ * is an open exchange and a position in that ring, so idle subscribers hold no thread: a small
+ * pool of writers sends each one whatever it has not seen yet, in one write however much piled
+ * up meanwhile. A subscriber that falls further behind than the ring reaches, or reconnects with
+ * a {@code Last-Event-ID} the ring no longer holds, gets a {@code reset} event telling it to
+ * refetch instead of the events it missed; so does everyone when the feed itself missed changes.
+ * Idle subscribers get a comment every heartbeat interval, which keeps proxies from timing the
+ * stream out and finds clients that went away. A client that stops reading without closing the
+ * connection eventually blocks a write once its socket buffers fill; a write that has not finished
+ * after EVENTS_WRITE_TIMEOUT_MS is cut off by interrupting its writer, which closes the connection,
+ * so such clients cost the other subscribers that long at most.
+ */
+public class EventStream implements ChangeFeed.Listener {
+    static final Set<String> TOPICS = Set.of("rooms", "bookings", "reviews");
+    private static final String RESET = "reset";
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.US_ASCII);
+    
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Event[] ring;
+    private long head;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final int maxSubscribers;
+    private final long heartbeatNanos;
+    private final int retryMillis;
+    private final long writeTimeoutNanos;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService heartbeats;
+    
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final LongAdder stalled = new LongAdder();
+    
+    public EventStream() {
+        this(Env.getInt("EVENTS_BUFFER_SIZE", 1024),
+             Env.getInt("EVENTS_MAX_SUBSCRIBERS", 10000),
+             Env.getInt("EVENTS_WRITER_THREADS", 2),
+             Env.getLong("EVENTS_HEARTBEAT_SECONDS", 15),
+             Env.getInt("EVENTS_RETRY_MS", 3000),
+             Env.getLong("EVENTS_WRITE_TIMEOUT_MS", 5000));
+    }
+    
+    public EventStream(int bufferSize, int maxSubscribers, int writerThreads, long heartbeatSeconds, int retryMillis,
+                       long writeTimeoutMillis) {
+        this.ring = new Event[Math.max(16, bufferSize)];
+        this.maxSubscribers = maxSubscribers;
+        this.heartbeatNanos = TimeUnit.SECONDS.toNanos(Math.max(1, heartbeatSeconds));
+        this.retryMillis = retryMillis;
+        long writeTimeout = Math.max(100, writeTimeoutMillis);
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeout);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(Math.max(1, writerThreads), r -> {
+            Thread t = new Thread(r, "bookerino-events-writer-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.heartbeats = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-events-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, heartbeatSeconds);
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, period, period, TimeUnit.SECONDS);
+        heartbeats.scheduleWithFixedDelay(this::cutOffStalled, writeTimeout / 2, writeTimeout / 2, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Starts an event stream on {@code exchange} and returns at once, leaving the exchange open.
+     * Returns {@code false}, having sent nothing, when the subscriber limit is reached.
+     *
+     * @param topics the tables to follow, or {@code null} for all of them
+     * @param lastEventId the last event the client received on a previous stream, if any
+     */
+    boolean subscribe(HttpExchange exchange, Set<String> topics, String lastEventId) throws IOException {
+        if (subscribers.size() >= maxSubscribers) {
+            return false;
+        }
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", "text/event-stream; charset=utf-8");
+        headers.set("Cache-Control", "no-cache");
+        // Stops nginx and similar proxies from buffering the stream
+        headers.set("X-Accel-Buffering", "no");
+        exchange.sendResponseHeaders(200, 0);
+        
+        Subscriber subscriber = new Subscriber(exchange, topics);
+        synchronized (ring) {
+            long resumeAt = resumePoint(lastEventId);
+            subscriber.next = resumeAt >= 0 ? resumeAt : head;
+            subscriber.resetDue = lastEventId != null && resumeAt < 0;
+        }
+        subscriber.out.write(("retry: " + retryMillis + "\n\n").getBytes(StandardCharsets.US_ASCII));
+        subscriber.out.flush();
+        subscriber.lastWrite = System.nanoTime();
+        subscribers.add(subscriber);
+        schedule(subscriber);
+        return true;
+    }
+    
+    /**
+     * Where a client that last saw {@code lastEventId} resumes, or {@code -1} when this ring
+     * cannot tell: an id from another process or restart, or one that has been overwritten.
+     */
+    private long resumePoint(String lastEventId) {
+        if (lastEventId == null) {
+            return -1;
+        }
+        int dash = lastEventId.lastIndexOf('-');
+        if (dash < 0 || !lastEventId.substring(0, dash).equals(epoch)) {
+            return -1;
+        }
+        try {
+            long next = Long.parseLong(lastEventId.substring(dash + 1)) + 1;
+            return next <= head && next >= oldest() ? next : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    private long oldest() {
+        return Math.max(0, head - ring.length);
+    }
+    
+    @Override
+    public void changed(ChangeFeed.Change change) {
+        if (!TOPICS.contains(change.table())) {
+            return;
+        }
+        String rows = null;
+        if (change.ids() != null && !"DELETE".equals(change.operation())) {
+            try {
+                rows = loadRows(change);
+            } catch (SQLException e) {
+                System.err.println("Could not load changed " + change.table() + " for the event stream: " + e.getMessage());
+            }
+        }
+        publish(change.table(), render(change, rows));
+    }
+    
+    @Override
+    public void reconnected() {
+        publish(RESET, "{\"reason\": \"Changes may have been missed\"}");
+    }
+    
+    /**
+     * The event's data: what changed and, when they could be loaded, the changed rows as the API
+     * lists them. Deletes and statements too large to list their ids carry no rows.
+     */
+    private static String render(ChangeFeed.Change change, String rows) {
+        StringWriter buffer = new StringWriter(256);
+        try (JsonStreamWriter json = new JsonStreamWriter(buffer)) {
+            json.beginObject()
+                .field("table", change.table())
+                .field("op", change.operation())
+                .field("count", change.count());
+            if (change.ids() != null) {
+                json.name("ids").beginArray();
+                for (int id : change.ids()) {
+                    json.value(id);
+                }
+                json.endArray();
+            }
+            if (rows != null) {
+                json.name("rows").rawValue(rows);
+            }
+            json.endObject();
+        } catch (IOException e) {
+            // A StringWriter does not fail
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+    
+    private static String loadRows(ChangeFeed.Change change) throws SQLException {
+        Query query;
+        ListResponse.RowWriter rowWriter;
+        switch (change.table()) {
+            case "rooms":
+                query = Queries.ROOMS_BY_IDS;
+                rowWriter = RoomHandler::writeRoom;
+                break;
+            case "bookings":
+                query = Queries.BOOKINGS_BY_IDS;
+                rowWriter = BookingHandler::writeBooking;
+                break;
+            default:
+                query = Queries.REVIEWS_BY_IDS;
+                rowWriter = ReviewHandler::writeReview;
+                break;
+        }
+        StringWriter buffer = new StringWriter(512);
+        // From the primary: the change has just committed and may not have replicated yet
+        try (Connection conn = DatabaseConnection.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(query.sql())) {
+            Jdbc.bind(pstmt, (Object) change.ids());
+            try (ResultSet rs = pstmt.executeQuery();
+                 JsonStreamWriter json = new JsonStreamWriter(buffer)) {
+                json.beginArray();
+                while (rs.next()) {
+                    rowWriter.write(json, rs);
+                }
+                json.endArray();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toString();
+    }
+    
+    private void publish(String topic, String data) {
+        synchronized (ring) {
+            long seq = head;
+            byte[] bytes = ("id: " + epoch + "-" + seq + "\nevent: " + topic + "\ndata: " + data + "\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+            ring[(int) (seq % ring.length)] = new Event(seq, topic, bytes);
+            head = seq + 1;
+        }
+        published.increment();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.follows(topic)) {
+                schedule(subscriber);
+            }
+        }
+    }
+    
+    private void heartbeat() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            if (now - subscriber.lastWrite >= heartbeatNanos) {
+                subscriber.heartbeatDue = true;
+                schedule(subscriber);
+            }
+        }
+    }
+    
+    /**
+     * Interrupts writers blocked on a subscriber for longer than the write timeout. The exchange's
+     * channel is interruptible, so the blocked write fails and the subscriber is closed.
+     */
+    private void cutOffStalled() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            synchronized (subscriber) {
+                if (subscriber.writer != null && !subscriber.interrupted
+                        && now - subscriber.writeStartedAt > writeTimeoutNanos) {
+                    subscriber.interrupted = true;
+                    stalled.increment();
+                    subscriber.writer.interrupt();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Queues the subscriber for a writer unless it is already queued or being written to; the
+     * writer then loops until it has caught up with every request made meanwhile.
+     */
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.requests.getAndIncrement() == 0) {
+            try {
+                writers.execute(() -> drain(subscriber));
+            } catch (RuntimeException e) {
+                // Rejected after stop(); the subscriber is being closed
+            }
+        }
+    }
+    
+    private void drain(Subscriber subscriber) {
+        int seen;
+        do {
+            seen = subscriber.requests.get();
+            if (!write(subscriber)) {
+                return;
+            }
+        } while (subscriber.requests.addAndGet(-seen) != 0);
+    }
+    
+    private boolean write(Subscriber subscriber) {
+        List<Event> batch = new ArrayList<>();
+        boolean reset = subscriber.resetDue;
+        subscriber.resetDue = false;
+        long resumeId;
+        synchronized (ring) {
+            if (subscriber.next < oldest()) {
+                reset = true;
+                subscriber.next = head;
+            }
+            for (long seq = subscriber.next; seq < head; seq++) {
+                Event event = ring[(int) (seq % ring.length)];
+                if (subscriber.follows(event.topic)) {
+                    batch.add(event);
+                }
+            }
+            subscriber.next = head;
+            resumeId = head - 1;
+        }
+        
+        subscriber.beginWrite();
+        try {
+            if (reset) {
+                resets.increment();
+                // Carries an id, so a client reconnecting after it resumes from here
+                subscriber.out.write(("id: " + epoch + "-" + resumeId + "\nevent: " + RESET +
+                    "\ndata: {\"reason\": \"Events were missed\"}\n\n").getBytes(StandardCharsets.UTF_8));
+            }
+            for (Event event : batch) {
+                subscriber.out.write(event.bytes);
+            }
+            delivered.add(batch.size());
+            if (batch.isEmpty() && !reset && !subscriber.heartbeatDue) {
+                return true;
+            }
+            if (batch.isEmpty() && !reset) {
+                subscriber.out.write(HEARTBEAT);
+            }
+            subscriber.heartbeatDue = false;
+            subscriber.out.flush();
+            subscriber.lastWrite = System.nanoTime();
+            return true;
+        } catch (IOException e) {
+            // The client went away, or stopped reading and was cut off
+            disconnects.increment();
+            close(subscriber);
+            return false;
+        } finally {
+            subscriber.endWrite();
+        }
+    }
+    
+    private void close(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+        try {
+            subscriber.exchange.close();
+        } catch (RuntimeException e) {
+            // Already closed by a failed write
+        }
+    }
+    
+    /**
+     * Ends every stream; clients reconnect after their retry delay, to whichever instance is up.
+     */
+    public void stop() {
+        heartbeats.shutdownNow();
+        writers.shutdown();
+        try {
+            writers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writers.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            close(subscriber);
+        }
+    }
+    
+    public Stats getStats() {
+        return new Stats(subscribers.size(), published.sum(), delivered.sum(), resets.sum(), disconnects.sum(), stalled.sum());
+    }
+    
+    private record Event(long seq, String topic, byte[] bytes) {
+    }
+    
+    private static final class Subscriber {
+        final HttpExchange exchange;
+        final OutputStream out;
+        final Set<String> topics;
+        final AtomicInteger requests = new AtomicInteger();
+        /** Sequence of the next event to send; only the writer draining the subscriber touches it. */
+        long next;
+        volatile boolean resetDue;
+        volatile boolean heartbeatDue;
+        volatile long lastWrite;
+        /** The writer sending to this subscriber and since when; guarded by the subscriber. */
+        Thread writer;
+        long writeStartedAt;
+        boolean interrupted;
+        
+        Subscriber(HttpExchange exchange, Set<String> topics) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+            this.topics = topics;
+        }
+        
+        synchronized void beginWrite() {
+            writer = Thread.currentThread();
+            writeStartedAt = System.nanoTime();
+        }
+        
+        /**
+         * Clears an interrupt that arrived after the write finished, which would otherwise close
+         * the next subscriber's channel this thread writes to.
+         */
+        synchronized void endWrite() {
+            writer = null;
+            Thread.interrupted();
+        }
+        
+        boolean follows(String topic) {
+            return topics == null || topics.contains(topic) || RESET.equals(topic);
+        }
+    }
+    
+    public record Stats(int subscribers, long published, long delivered, long resets, long disconnects, long stalled) {
+    }
+}
@@ -0,0 +1,67 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.*;
+import java.io.*;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * {@code GET /api/events}: a server-sent event stream of room, booking and review changes (see
+ * {@link EventStream}). {@code ?topics=bookings,rooms} limits it to some tables; a reconnecting
+ * client resumes after its {@code Last-Event-ID} header, or the {@code lastEventId} parameter
+ * for clients that cannot set headers.
+ */
+public class EventsHandler implements HttpHandler {
+    private final EventStream events;
+    
+    public EventsHandler(EventStream events) {
+        this.events = events;
+    }
+    
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                Responses.error(exchange, 405, "Method not allowed");
+                return;
+            }
+            QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+            Set<String> topics = topics(query.getString("topics"));
+            String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            if (lastEventId == null) {
+                lastEventId = query.getString("lastEventId");
+            }
+            if (!events.subscribe(exchange, topics, lastEventId)) {
+                Responses.error(exchange, 503, "Too many event stream subscribers");
+            }
+        } catch (IllegalArgumentException e) {
+            Responses.error(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            if (exchange.getResponseCode() != -1) {
+                // The stream had started; dropping the connection is all that is left
+                exchange.close();
+                return;
+            }
+            Responses.error(exchange, 500, e.getMessage());
+        }
+    }
+    
+    private static Set<String> topics(String param) {
+        if (param == null) {
+            return null;
+        }
+        Set<String> topics = new HashSet<>();
+        for (String topic : param.split(",")) {
+            String name = topic.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!EventStream.TOPICS.contains(name)) {
+                throw new IllegalArgumentException("Unknown topic '" + name + "'; expected rooms, bookings or reviews");
+            }
+            topics.add(name);
+        }
+        return topics.isEmpty() ? null : topics;
+    }
+}
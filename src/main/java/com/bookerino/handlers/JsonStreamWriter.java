@@ -0,0 +1,138 @@
+
+package com.bookerino.handlers;
+
+import org.json.JSONObject;
+import java.io.*;
+
+/**
+ * Minimal forward-only JSON writer for list responses. Rows go straight from the
+ * {@link java.sql.ResultSet} to the output without building {@code JSONObject}s first.
+ */
+final class JsonStreamWriter implements Closeable, Flushable {
+    private static final int MAX_DEPTH = 16;
+    
+    private final Writer out;
+    private final boolean[] hasElements = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+    
+    JsonStreamWriter(Writer out) {
+        this.out = out;
+    }
+    
+    JsonStreamWriter beginArray() throws IOException {
+        return open('[');
+    }
+    
+    JsonStreamWriter endArray() throws IOException {
+        return close(']');
+    }
+    
+    JsonStreamWriter beginObject() throws IOException {
+        return open('{');
+    }
+    
+    JsonStreamWriter endObject() throws IOException {
+        return close('}');
+    }
+    
+    JsonStreamWriter name(String name) throws IOException {
+        separate();
+        JSONObject.quote(name, out);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+    
+    JsonStreamWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else {
+            JSONObject.quote(value, out);
+        }
+        return this;
+    }
+    
+    JsonStreamWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+    
+    JsonStreamWriter value(double value) throws IOException {
+        separate();
+        out.write(JSONObject.numberToString(value));
+        return this;
+    }
+    
+    JsonStreamWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+    
+    /**
+     * Writes {@code json}, which must be a complete JSON value, as the next value.
+     */
+    JsonStreamWriter rawValue(String json) throws IOException {
+        separate();
+        out.write(json);
+        return this;
+    }
+    
+    JsonStreamWriter field(String name, String value) throws IOException {
+        return name(name).value(value);
+    }
+    
+    JsonStreamWriter field(String name, long value) throws IOException {
+        return name(name).value(value);
+    }
+    
+    JsonStreamWriter field(String name, double value) throws IOException {
+        return name(name).value(value);
+    }
+    
+    JsonStreamWriter field(String name, boolean value) throws IOException {
+        return name(name).value(value);
+    }
+    
+    private JsonStreamWriter open(char bracket) throws IOException {
+        separate();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting too deep");
+        }
+        out.write(bracket);
+        hasElements[depth++] = false;
+        return this;
+    }
+    
+    private JsonStreamWriter close(char bracket) throws IOException {
+        depth--;
+        out.write(bracket);
+        return this;
+    }
+    
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasElements[depth - 1]) {
+                out.write(',');
+            }
+            hasElements[depth - 1] = true;
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
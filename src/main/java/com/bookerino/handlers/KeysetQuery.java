@@ -0,0 +1,98 @@
+
+package com.bookerino.handlers;
+
+import com.bookerino.config.Env;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds one page of a {@code created_at DESC, id DESC} listing with optional filters.
+ *
+ * The page is located with a row comparison against the last row of the previous page instead of
+ * an OFFSET, so every page costs the same index range scan however deep the client has paged.
+ * One extra row is fetched to tell whether a next page exists.
+ */
+final class KeysetQuery {
+    static final int DEFAULT_LIMIT = Env.getInt("API_PAGE_SIZE", 100);
+    static final int MAX_LIMIT = Env.getInt("API_MAX_PAGE_SIZE", 1000);
+    private static final int UNBOUNDED = 0;
+    
+    private final String table;
+    private final StringBuilder where = new StringBuilder();
+    private final List<Object> params = new ArrayList<>();
+    private final int limit;
+    
+    KeysetQuery(String table, QueryParams query) {
+        this.table = table;
+        if ("all".equalsIgnoreCase(query.getString("limit"))) {
+            this.limit = UNBOUNDED;
+        } else {
+            int requested = query.getInt("limit", DEFAULT_LIMIT);
+            if (requested < 1) {
+                throw new IllegalArgumentException("Parameter 'limit' must be at least 1 or 'all'");
+            }
+            this.limit = Math.min(requested, MAX_LIMIT);
+        }
+        
+        String after = query.getString("after");
+        if (after != null) {
+            PageCursor cursor = PageCursor.decode(after);
+            and("(created_at, id) < (?, ?)", cursor.getCreatedAt(), cursor.getId());
+        }
+    }
+    
+    /**
+     * Adds a condition when {@code value} is present; {@code null} means the filter was not given.
+     */
+    KeysetQuery and(String condition, Object... values) {
+        for (Object value : values) {
+            if (value == null) {
+                return this;
+            }
+        }
+        where.append(where.length() == 0 ? " WHERE " : " AND ").append(condition);
+        for (Object value : values) {
+            params.add(value);
+        }
+        return this;
+    }
+    
+    int getLimit() {
+        return limit;
+    }
+    
+    /**
+     * {@code limit=all}: every matching row, in one streamed response.
+     */
+    boolean isUnbounded() {
+        return limit == UNBOUNDED;
+    }
+    
+    /**
+     * Identifies the page this query selects: equal keys always produce the same rows.
+     */
+    String cacheKey() {
+        return table + where + " " + params + " limit=" + limit;
+    }
+    
+    PreparedStatement prepare(Connection conn) throws SQLException {
+        String sql = "SELECT * FROM " + table + where + " ORDER BY created_at DESC, id DESC";
+        PreparedStatement pstmt = conn.prepareStatement(isUnbounded() ? sql : sql + " LIMIT ?");
+        int index = 1;
+        for (Object param : params) {
+            pstmt.setObject(index++, param);
+        }
+        if (!isUnbounded()) {
+            pstmt.setInt(index, limit + 1);
+        }
+        return pstmt;
+    }
+    
+    /**
+     * Cursor pointing just past the current row; the next page starts after it.
+     */
+    static PageCursor cursorOf(ResultSet rs) throws SQLException {
+        return new PageCursor(rs.getTimestamp("created_at"), rs.getInt("id"));
+    }
+}
@@ -0,0 +1,131 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.bookerino.config.Env;
+import com.bookerino.database.DatabaseConnection;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+
+/**
+ * Runs a {@link KeysetQuery} and writes the rows as a JSON array without materializing them as
+ * {@code JSONObject}s or as an intermediate {@code String}.
+ *
+ * A normal page is serialized once into a byte buffer so the {@code X-Next-Cursor} header can be
+ * set after the look-ahead row has been seen. With {@code limit=all} there is no next page, so
+ * the rows are streamed with chunked transfer encoding while the driver reads them through a
+ * server-side cursor, keeping memory flat however many rows the table holds.
+ *
+ * The query runs on the connection the caller's {@link ReadConsistency.Source} opens, a read
+ * replica when one may serve it.
+ */
+final class ListResponse {
+    static final int FETCH_SIZE = Env.getInt("API_STREAM_FETCH_SIZE", 500);
+    
+    @FunctionalInterface
+    interface RowWriter {
+        void write(JsonStreamWriter json, ResultSet rs) throws SQLException, IOException;
+    }
+    
+    private ListResponse() {
+    }
+    
+    static void send(HttpExchange exchange, KeysetQuery page, RowWriter rowWriter,
+                     ReadConsistency.Source source) throws SQLException, IOException {
+        if (page.isUnbounded()) {
+            stream(exchange, page, rowWriter, source);
+        } else {
+            sendPage(exchange, page, rowWriter, source);
+        }
+    }
+    
+    private static void sendPage(HttpExchange exchange, KeysetQuery page, RowWriter rowWriter,
+                                 ReadConsistency.Source source) throws SQLException, IOException {
+        Page rendered = render(page, rowWriter, source);
+        if (rendered.nextCursor() != null) {
+            exchange.getResponseHeaders().set("X-Next-Cursor", rendered.nextCursor());
+        }
+        Responses.send(exchange, 200, Responses.JSON, rendered.body());
+    }
+    
+    /**
+     * Runs a bounded page query and returns the serialized array together with the cursor of the
+     * following page ({@code null} on the last page).
+     */
+    static Page render(KeysetQuery page, RowWriter rowWriter, ReadConsistency.Source source) throws SQLException, IOException {
+        try {
+            return renderOnce(page, rowWriter, source);
+        } catch (SQLException e) {
+            if (!DatabaseConnection.shouldRetryOnPrimary(e)) {
+                throw e;
+            }
+            return renderOnce(page, rowWriter, DatabaseConnection::getConnection);
+        }
+    }
+    
+    private static Page renderOnce(KeysetQuery page, RowWriter rowWriter, ReadConsistency.Source source) throws SQLException, IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(8 * 1024);
+        String nextCursor = null;
+        
+        try (Connection conn = source.open();
+             PreparedStatement pstmt = page.prepare(conn);
+             ResultSet rs = pstmt.executeQuery();
+             JsonStreamWriter json = new JsonStreamWriter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8))) {
+            json.beginArray();
+            int count = 0;
+            PageCursor last = null;
+            while (rs.next()) {
+                if (count == page.getLimit()) {
+                    nextCursor = last.encode();
+                    break;
+                }
+                rowWriter.write(json, rs);
+                last = KeysetQuery.cursorOf(rs);
+                count++;
+            }
+            json.endArray();
+        }
+        return new Page(buffer.toByteArray(), nextCursor);
+    }
+    
+    private static void stream(HttpExchange exchange, KeysetQuery page, RowWriter rowWriter,
+                               ReadConsistency.Source source) throws SQLException, IOException {
+        try {
+            streamOnce(exchange, page, rowWriter, source);
+        } catch (SQLException e) {
+            // Only before the response has started; after that the truncation must show
+            if (exchange.getResponseCode() != -1 || !DatabaseConnection.shouldRetryOnPrimary(e)) {
+                throw e;
+            }
+            streamOnce(exchange, page, rowWriter, DatabaseConnection::getConnection);
+        }
+    }
+    
+    private static void streamOnce(HttpExchange exchange, KeysetQuery page, RowWriter rowWriter,
+                                   ReadConsistency.Source source) throws SQLException, IOException {
+        try (Connection conn = source.open()) {
+            // The PostgreSQL driver only honours the fetch size inside a transaction
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = page.prepare(conn)) {
+                pstmt.setFetchSize(FETCH_SIZE);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    // Not closed on failure: closing would end the chunked body cleanly and hide the
+                    // truncation, whereas propagating the error makes the server drop the connection
+                    OutputStream body = Responses.stream(exchange, Responses.JSON);
+                    JsonStreamWriter json = new JsonStreamWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+                    json.beginArray();
+                    while (rs.next()) {
+                        rowWriter.write(json, rs);
+                    }
+                    json.endArray();
+                    json.close();
+                }
+            }
+            conn.commit();
+        }
+    }
+    
+    record Page(byte[] body, String nextCursor) {
+    }
+}
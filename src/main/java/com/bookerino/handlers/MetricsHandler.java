@@ -0,0 +1,24 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.*;
+import com.bookerino.metrics.Metrics;
+import java.io.IOException;
+
+/**
+ * Serves {@link Metrics} in the Prometheus text format at {@code /metrics}.
+ */
+public class MetricsHandler implements HttpHandler {
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if ("GET".equals(exchange.getRequestMethod())) {
+                Responses.send(exchange, 200, "text/plain; version=0.0.4; charset=utf-8", Metrics.scrape());
+            } else {
+                Responses.error(exchange, 405, "Method not allowed");
+            }
+        } catch (Exception e) {
+            Responses.error(exchange, 500, e.getMessage());
+        }
+    }
+}
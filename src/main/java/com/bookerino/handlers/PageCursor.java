@@ -0,0 +1,49 @@
+
+package com.bookerino.handlers;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+/**
+ * Position in a {@code created_at DESC, id DESC} listing. Clients only ever see the encoded form
+ * and pass it back verbatim as the {@code after} parameter.
+ */
+final class PageCursor {
+    private final Timestamp createdAt;
+    private final int id;
+    
+    PageCursor(Timestamp createdAt, int id) {
+        this.createdAt = createdAt;
+        this.id = id;
+    }
+    
+    Timestamp getCreatedAt() {
+        return createdAt;
+    }
+    
+    int getId() {
+        return id;
+    }
+    
+    String encode() {
+        long micros = Math.floorDiv(createdAt.getTime(), 1000L) * 1_000_000L + createdAt.getNanos() / 1000;
+        String raw = micros + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    static PageCursor decode(String encoded) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.US_ASCII);
+            int sep = raw.indexOf(':');
+            long micros = Long.parseLong(raw.substring(0, sep));
+            int id = Integer.parseInt(raw.substring(sep + 1));
+            
+            Timestamp createdAt = new Timestamp(Math.floorDiv(micros, 1_000_000L) * 1000L);
+            createdAt.setNanos((int) Math.floorMod(micros, 1_000_000L) * 1000);
+            return new PageCursor(createdAt, id);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid page cursor");
+        }
+    }
+}
@@ -0,0 +1,15 @@
+
+package com.bookerino.handlers;
+
+import java.io.IOException;
+
+/**
+ * A request body exceeded its size limit; answered with 413.
+ */
+final class PayloadTooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+    
+    PayloadTooLargeException(long limit) {
+        super("Request body exceeds " + limit + " bytes");
+    }
+}
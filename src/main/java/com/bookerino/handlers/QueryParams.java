@@ -0,0 +1,72 @@
+
+package com.bookerino.handlers;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Query string of a request. Malformed values raise {@link IllegalArgumentException}, which the
+ * handlers turn into a 400 response.
+ */
+final class QueryParams {
+    private final Map<String, String> values = new HashMap<>();
+    
+    private QueryParams(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return;
+        }
+        for (String pair : rawQuery.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            values.putIfAbsent(
+                URLDecoder.decode(key, StandardCharsets.UTF_8),
+                URLDecoder.decode(value, StandardCharsets.UTF_8)
+            );
+        }
+    }
+    
+    static QueryParams parse(String rawQuery) {
+        return new QueryParams(rawQuery);
+    }
+    
+    String getString(String name) {
+        String value = values.get(name);
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+    
+    Integer getInt(String name) {
+        String value = getString(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter '" + name + "' must be an integer");
+        }
+    }
+    
+    int getInt(String name, int defaultValue) {
+        Integer value = getInt(name);
+        return value == null ? defaultValue : value;
+    }
+    
+    Date getDate(String name) {
+        String value = getString(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Date.valueOf(value);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Parameter '" + name + "' must be a date in YYYY-MM-DD format");
+        }
+    }
+}
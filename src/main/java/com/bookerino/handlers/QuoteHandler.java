@@ -0,0 +1,164 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.*;
+import com.bookerino.availability.AvailabilityIndex;
+import com.bookerino.cache.RoomCache;
+import com.bookerino.config.Env;
+import com.bookerino.model.Room;
+import com.bookerino.pricing.Quote;
+import com.bookerino.pricing.QuoteEngine;
+import org.json.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stay prices. {@code GET /api/quotes?roomId=&checkIn=&checkOut=} prices one stay;
+ * {@code POST /api/quotes} with {@code {"roomIds": [...], "stays": [{"checkIn", "checkOut"}, ...]}}
+ * prices every stay in every room in one call, as a search results page needs. Each quote says
+ * whether the room is free for the stay, when the availability index can tell.
+ */
+public class QuoteHandler implements HttpHandler {
+    static final String CURRENCY = Env.getString("PRICING_CURRENCY", "RON");
+    private static final int MAX_BATCH = Env.getInt("QUOTE_MAX_BATCH", 5000);
+    
+    private final QuoteEngine engine;
+    private final RoomCache rooms;
+    private final AvailabilityIndex availability;
+    
+    public QuoteHandler(QuoteEngine engine, RoomCache rooms, AvailabilityIndex availability) {
+        this.engine = engine;
+        this.rooms = rooms;
+        this.availability = availability;
+    }
+    
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        
+        try {
+            if ("GET".equals(method)) {
+                handleGet(exchange);
+            } else if ("POST".equals(method)) {
+                handlePost(exchange);
+            } else {
+                Responses.error(exchange, 405, "Method not allowed");
+            }
+        } catch (PayloadTooLargeException e) {
+            Responses.error(exchange, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Responses.error(exchange, 400, e.getMessage());
+        } catch (Exception e) {
+            Responses.error(exchange, 500, e.getMessage());
+        }
+    }
+    
+    private void handleGet(HttpExchange exchange) throws SQLException, IOException {
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        Integer roomId = query.getInt("roomId");
+        Date checkIn = query.getDate("checkIn");
+        Date checkOut = query.getDate("checkOut");
+        if (roomId == null || checkIn == null || checkOut == null) {
+            throw new IllegalArgumentException("Parameters 'roomId', 'checkIn' and 'checkOut' are required");
+        }
+        Room room = rooms.getRoom(roomId);
+        if (room == null) {
+            Responses.error(exchange, 404, "Room " + roomId + " does not exist");
+            return;
+        }
+        Quote quote = engine.quote(room, checkIn.toLocalDate(), checkOut.toLocalDate());
+        StringWriter body = new StringWriter(256);
+        try (JsonStreamWriter json = new JsonStreamWriter(body)) {
+            writeQuote(json, quote, availability.isAvailable(roomId, quote.checkIn(), quote.checkOut()));
+        }
+        Responses.json(exchange, 200, body.toString());
+    }
+    
+    private void handlePost(HttpExchange exchange) throws IOException, SQLException {
+        JSONObject body = RequestBodies.readJson(exchange);
+        JSONArray roomIdsJson = body.optJSONArray("roomIds");
+        JSONArray staysJson = body.optJSONArray("stays");
+        if (roomIdsJson == null || staysJson == null) {
+            throw new IllegalArgumentException("'roomIds' and 'stays' must be arrays");
+        }
+        Set<Integer> roomIds = new LinkedHashSet<>();
+        for (int i = 0; i < roomIdsJson.length(); i++) {
+            roomIds.add(roomIdsJson.optInt(i, -1));
+        }
+        if ((long) roomIds.size() * staysJson.length() > MAX_BATCH) {
+            throw new IllegalArgumentException("At most " + MAX_BATCH + " quotes per request");
+        }
+        List<LocalDate[]> stays = new ArrayList<>();
+        for (int i = 0; i < staysJson.length(); i++) {
+            JSONObject stay = staysJson.optJSONObject(i);
+            if (stay == null) {
+                throw new IllegalArgumentException("Each stay must be an object with 'checkIn' and 'checkOut'");
+            }
+            stays.add(new LocalDate[] { date(stay, "checkIn"), date(stay, "checkOut") });
+        }
+        
+        // Written as the quotes are computed; a full batch is thousands of objects
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+        List<Integer> unknownRooms = new ArrayList<>();
+        try (JsonStreamWriter json = new JsonStreamWriter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8))) {
+            json.beginObject().name("quotes").beginArray();
+            for (int roomId : roomIds) {
+                Room room = rooms.getRoom(roomId);
+                if (room == null) {
+                    unknownRooms.add(roomId);
+                    continue;
+                }
+                for (LocalDate[] stay : stays) {
+                    writeQuote(json, engine.quote(room, stay[0], stay[1]), availability.isAvailable(roomId, stay[0], stay[1]));
+                }
+            }
+            json.endArray().name("unknownRooms").beginArray();
+            for (int roomId : unknownRooms) {
+                json.value(roomId);
+            }
+            json.endArray().endObject();
+        }
+        Responses.send(exchange, 200, Responses.JSON, buffer.toByteArray());
+    }
+    
+    private static LocalDate date(JSONObject json, String key) {
+        String value = json.optString(key, null);
+        if (value == null) {
+            throw new IllegalArgumentException("Each stay needs '" + key + "'");
+        }
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("'" + key + "' must be a date in YYYY-MM-DD format");
+        }
+    }
+    
+    /**
+     * A quote as every endpoint that returns one writes it; {@code available} is left out when
+     * {@code null}.
+     */
+    static void writeQuote(JsonStreamWriter json, Quote quote, Boolean available) throws IOException {
+        json.beginObject()
+            .field("roomId", quote.roomId())
+            .field("checkIn", quote.checkIn().toString())
+            .field("checkOut", quote.checkOut().toString())
+            .field("nights", quote.nights())
+            .field("nightlyRate", quote.nightlyRate())
+            .field("subtotal", quote.subtotal())
+            .field("discountRate", quote.discountRate())
+            .field("discount", quote.discount())
+            .field("total", quote.total())
+            .field("currency", CURRENCY);
+        if (available != null) {
+            json.field("available", available.booleanValue());
+        }
+        json.endObject();
+    }
+}
@@ -0,0 +1,81 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.bookerino.config.Env;
+import com.bookerino.database.DatabaseConnection;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Picks the database a GET reads from when read replicas are configured.
+ *
+ * Reads go to a replica unless the data changed too recently in this process (see
+ * {@link DatabaseConnection#getReadConnection(long)}) or the client is pinned to the primary. A
+ * successful write pins its client with a short-lived cookie, so the client reads its own write
+ * even when the next request reaches another instance, which never saw the write.
+ */
+final class ReadConsistency {
+    static final String PIN_COOKIE = "bookerino_primary_until";
+    private static final long PIN_MILLIS = Env.getLong("DB_REPLICA_PIN_MS", 5000);
+    
+    /**
+     * Opens the connection a read runs on.
+     */
+    @FunctionalInterface
+    interface Source {
+        Connection open() throws SQLException;
+    }
+    
+    private ReadConsistency() {
+    }
+    
+    /**
+     * Source for a read of data last changed in this process at {@code lastChangeMillis}.
+     */
+    static Source source(HttpExchange exchange, long lastChangeMillis) {
+        if (isPinned(exchange)) {
+            return DatabaseConnection::getConnection;
+        }
+        return () -> DatabaseConnection.getReadConnection(lastChangeMillis);
+    }
+    
+    /**
+     * Pins the client's reads to the primary for long enough for its write to reach every healthy
+     * replica. Called before a write's response headers are sent; does nothing without replicas.
+     */
+    static void pinToPrimary(HttpExchange exchange) {
+        if (!DatabaseConnection.hasReplicas()) {
+            return;
+        }
+        long pinMillis = Math.max(PIN_MILLIS, DatabaseConnection.getReplicas().getStalenessBoundMillis());
+        long until = System.currentTimeMillis() + pinMillis;
+        exchange.getResponseHeaders().add("Set-Cookie", PIN_COOKIE + "=" + until +
+            "; Max-Age=" + Math.max(1, (pinMillis + 999) / 1000) + "; Path=/api; HttpOnly; SameSite=Lax");
+    }
+    
+    /**
+     * The cookie carries its expiry as well, for clients that keep cookies past their Max-Age.
+     */
+    static boolean isPinned(HttpExchange exchange) {
+        List<String> headers = exchange.getRequestHeaders().get("Cookie");
+        if (headers == null) {
+            return false;
+        }
+        for (String header : headers) {
+            for (String cookie : header.split(";")) {
+                int eq = cookie.indexOf('=');
+                if (eq < 0 || !cookie.substring(0, eq).trim().equals(PIN_COOKIE)) {
+                    continue;
+                }
+                try {
+                    return Long.parseLong(cookie.substring(eq + 1).trim()) > System.currentTimeMillis();
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,160 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.bookerino.config.Env;
+import org.json.*;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Size-limited access to request bodies, and checked access to the fields of JSON ones.
+ *
+ * A body announcing more than the limit in its Content-Length is refused before anything is read;
+ * otherwise (chunked bodies, or a client sending more than it announced) the byte count is
+ * checked as the body is read. JSON is parsed straight from the stream, so no String copy of the
+ * body is ever built.
+ */
+final class RequestBodies {
+    static final long MAX_BYTES = Env.getLong("HTTP_MAX_BODY_BYTES", 1024 * 1024);
+    static final long MAX_BULK_BYTES = Env.getLong("HTTP_MAX_BULK_BODY_BYTES", 256L * 1024 * 1024);
+    
+    private RequestBodies() {
+    }
+    
+    /**
+     * The body of {@code exchange}, failing with {@link PayloadTooLargeException} past {@code maxBytes}.
+     */
+    static InputStream open(HttpExchange exchange, long maxBytes) throws PayloadTooLargeException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (length != null) {
+            try {
+                if (Long.parseLong(length.trim()) > maxBytes) {
+                    throw new PayloadTooLargeException(maxBytes);
+                }
+            } catch (NumberFormatException e) {
+                // The server has already rejected a malformed length; the count below still applies
+            }
+        }
+        return new LimitedInputStream(exchange.getRequestBody(), maxBytes);
+    }
+    
+    /**
+     * Parses the body as a JSON object; malformed JSON is an {@link IllegalArgumentException}.
+     */
+    static JSONObject readJson(HttpExchange exchange) throws IOException {
+        Reader reader = new InputStreamReader(open(exchange, MAX_BYTES), StandardCharsets.UTF_8);
+        try {
+            return new JSONObject(new JSONTokener(reader));
+        } catch (JSONException e) {
+            // The tokener wraps read failures, including the size limit, in its own exception
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalArgumentException("Malformed JSON body: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * The field as a non-blank string of at most {@code maxLength} characters.
+     */
+    static String requiredString(JSONObject json, String key, int maxLength) {
+        Object value = json.opt(key);
+        if (value == null || value == JSONObject.NULL || value.toString().isBlank()) {
+            throw new IllegalArgumentException("'" + key + "' is required");
+        }
+        return checkLength(key, value.toString(), maxLength);
+    }
+    
+    /**
+     * The field as a string of at most {@code maxLength} characters, {@code defaultValue} when absent.
+     */
+    static String optionalString(JSONObject json, String key, String defaultValue, int maxLength) {
+        return checkLength(key, json.optString(key, defaultValue), maxLength);
+    }
+    
+    private static String checkLength(String key, String value, int maxLength) {
+        if (value != null && value.length() > maxLength) {
+            throw new IllegalArgumentException("'" + key + "' must be at most " + maxLength + " characters");
+        }
+        return value;
+    }
+    
+    static int requiredInt(JSONObject json, String key) {
+        require(json, key);
+        try {
+            return json.getInt(key);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("'" + key + "' must be an integer");
+        }
+    }
+    
+    static double requiredNumber(JSONObject json, String key) {
+        require(json, key);
+        try {
+            return json.getDouble(key);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("'" + key + "' must be a number");
+        }
+    }
+    
+    static LocalDate requiredDate(JSONObject json, String key) {
+        String value = requiredString(json, key, Integer.MAX_VALUE);
+        try {
+            return LocalDate.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("'" + key + "' must be a date in YYYY-MM-DD format");
+        }
+    }
+    
+    private static void require(JSONObject json, String key) {
+        if (json.isNull(key)) {
+            throw new IllegalArgumentException("'" + key + "' is required");
+        }
+    }
+    
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private long count;
+        
+        LimitedInputStream(InputStream in, long maxBytes) {
+            super(in);
+            this.maxBytes = maxBytes;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counted(1);
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            // Never asks for more than one byte past the limit, which is enough to tell it was crossed
+            int n = super.read(buffer, offset, (int) Math.min(length, maxBytes - count + 1));
+            if (n > 0) {
+                counted(n);
+            }
+            return n;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, maxBytes - count + 1));
+            counted(skipped);
+            return skipped;
+        }
+        
+        private void counted(long n) throws PayloadTooLargeException {
+            count += n;
+            if (count > maxBytes) {
+                throw new PayloadTooLargeException(maxBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.*;
+import com.bookerino.cache.TableVersions;
+import com.bookerino.cache.TableVersions.Table;
+import com.bookerino.config.Env;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Single-flight handling of identical GETs. While one request for a path and query string is
+ * being handled, identical requests (same auth scope and accepted encodings) wait for it and are
+ * sent a copy of its status, headers and encoded body instead of running the handler, and its
+ * query, again. With a micro-cache window set, a finished response is shared for that long too.
+ *
+ * A request never joins a response begun before the last bump of {@link TableVersions}, so once
+ * a write is acknowledged, or a resync after another process's writes has run, nobody is served
+ * a view from before it. Conditional requests
+ * (cheap 304s that depend on the client's validators) and clients pinned to the primary after a
+ * write are never coalesced. Responses over the capture limit, 5xx responses and handlers that
+ * fail are not shared; whoever waited on them runs the handler itself. Waiters are let go as
+ * soon as a response outgrows the limit, and none waits longer than COALESCE_MAX_WAIT_MS for a
+ * leader whose client reads slowly.
+ */
+public class RequestCoalescer {
+    /** Response headers that belong to one connection or response, not to the content. */
+    private static final Set<String> UNSHARED_HEADERS = Set.of("date", "content-length", "transfer-encoding", "connection", "set-cookie");
+    
+    private final TableVersions versions;
+    private final Set<String> routes = new HashSet<>();
+    private final long cacheNanos;
+    private final long maxWaitMillis;
+    private final int maxCaptureBytes;
+    private final int maxEntries;
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+    private final List<RouteFilter> filters = new CopyOnWriteArrayList<>();
+    
+    public RequestCoalescer(TableVersions versions, String routes, long cacheMillis, long maxWaitMillis,
+                            int maxCaptureBytes, int maxEntries) {
+        this.versions = versions;
+        for (String route : routes.split(",")) {
+            if (!route.isBlank()) {
+                this.routes.add(route.trim());
+            }
+        }
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cacheMillis));
+        this.maxWaitMillis = Math.max(1, maxWaitMillis);
+        this.maxCaptureBytes = maxCaptureBytes;
+        this.maxEntries = Math.max(16, maxEntries);
+    }
+    
+    public static RequestCoalescer fromEnvironment(TableVersions versions) {
+        return new RequestCoalescer(versions,
+            Env.getString("COALESCE_ROUTES", "/api/rooms,/api/bookings,/api/reviews,/api/analytics"),
+            Env.getLong("COALESCE_CACHE_MS", 0),
+            Env.getLong("COALESCE_MAX_WAIT_MS", 2000),
+            Env.getInt("COALESCE_MAX_BYTES", 4 * 1024 * 1024),
+            Env.getInt("COALESCE_MAX_ENTRIES", 1024));
+    }
+    
+    /**
+     * Whether GETs on the context registered under {@code route} are coalesced.
+     */
+    public boolean covers(String route) {
+        return routes.contains(route);
+    }
+    
+    /**
+     * The filter for one context, which keeps that route's counts.
+     */
+    public Filter filter(String route) {
+        RouteFilter filter = new RouteFilter(route);
+        filters.add(filter);
+        return filter;
+    }
+    
+    public List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>();
+        for (RouteFilter filter : filters) {
+            stats.add(filter.stats());
+        }
+        return stats;
+    }
+    
+    public int getEntries() {
+        return flights.size();
+    }
+    
+    /**
+     * Grows with every write to any table, which is simpler than tracking the tables behind each
+     * route and costs little: a write only stops new requests joining older responses.
+     */
+    private long generation() {
+        long generation = 0;
+        for (Table table : Table.values()) {
+            generation += versions.version(table);
+        }
+        return generation;
+    }
+    
+    private static boolean eligible(HttpExchange exchange) {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            return false;
+        }
+        Headers headers = exchange.getRequestHeaders();
+        return !headers.containsKey("If-None-Match") && !headers.containsKey("If-Modified-Since")
+            && !ReadConsistency.isPinned(exchange);
+    }
+    
+    /**
+     * Everything a GET's response depends on: what is asked for, whose request it is, and which
+     * encoding the body is compressed with.
+     */
+    private static String key(HttpExchange exchange) {
+        StringBuilder key = new StringBuilder(128).append(exchange.getRequestURI().getRawPath());
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            key.append('?').append(query);
+        }
+        Headers headers = exchange.getRequestHeaders();
+        for (String name : new String[] { "Accept-Encoding", "Authorization", "X-API-Key" }) {
+            String value = headers.getFirst(name);
+            key.append('\n').append(value != null ? value : "");
+        }
+        return key.toString();
+    }
+    
+    private boolean usable(Flight flight, long currentGeneration) {
+        if (flight.generation < currentGeneration) {
+            return false;
+        }
+        long completedAt = flight.completedAt;
+        return completedAt == 0 || (flight.response != null && System.nanoTime() - completedAt <= cacheNanos);
+    }
+    
+    /**
+     * Drops finished responses whose window has passed, once the map outgrows its bound.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        Iterator<Flight> it = flights.values().iterator();
+        while (it.hasNext()) {
+            Flight flight = it.next();
+            if (flight.completedAt != 0 && now - flight.completedAt > cacheNanos) {
+                it.remove();
+            }
+        }
+    }
+    
+    private static void send(HttpExchange exchange, Response response) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        for (Map.Entry<String, List<String>> header : response.headers().entrySet()) {
+            headers.put(header.getKey(), new ArrayList<>(header.getValue()));
+        }
+        int length = response.body().length;
+        exchange.sendResponseHeaders(response.status(), length == 0 ? -1 : length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response.body());
+        }
+    }
+    
+    private final class RouteFilter extends Filter {
+        private final String route;
+        private final LongAdder executed = new LongAdder();
+        private final LongAdder joined = new LongAdder();
+        private final LongAdder cached = new LongAdder();
+        private final LongAdder fallbacks = new LongAdder();
+        private final LongAdder bypassed = new LongAdder();
+        
+        RouteFilter(String route) {
+            this.route = route;
+        }
+        
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            if (!eligible(exchange)) {
+                bypassed.increment();
+                chain.doFilter(exchange);
+                return;
+            }
+            String key = key(exchange);
+            long current = generation();
+            Flight flight = new Flight(current);
+            while (true) {
+                Flight existing = flights.putIfAbsent(key, flight);
+                if (existing == null) {
+                    break;
+                }
+                if (usable(existing, current)) {
+                    if (!follow(exchange, existing)) {
+                        fallbacks.increment();
+                        chain.doFilter(exchange);
+                    }
+                    return;
+                }
+                if (flights.replace(key, existing, flight)) {
+                    break;
+                }
+            }
+            lead(exchange, chain, key, flight);
+        }
+        
+        private boolean follow(HttpExchange exchange, Flight flight) throws IOException {
+            boolean running = flight.completedAt == 0;
+            try {
+                if (!flight.done.await(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                    return false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            Response response = flight.response;
+            if (response == null) {
+                return false;
+            }
+            (running ? joined : cached).increment();
+            send(exchange, response);
+            return true;
+        }
+        
+        private void lead(HttpExchange exchange, Chain chain, String key, Flight flight) throws IOException {
+            executed.increment();
+            // Past the limit the response cannot be shared, so nobody should wait for the rest of it
+            Capture capture = new Capture(exchange.getResponseBody(), maxCaptureBytes, () -> finish(key, flight, null));
+            exchange.setStreams(null, capture);
+            Response response = null;
+            try {
+                chain.doFilter(exchange);
+                int status = exchange.getResponseCode();
+                if (!capture.overflowed && status > 0 && status < 500) {
+                    response = new Response(status, shareable(exchange.getResponseHeaders()), capture.buffer.toByteArray());
+                }
+            } finally {
+                finish(key, flight, response);
+            }
+        }
+        
+        /**
+         * Hands the leader's outcome to its waiters; only the first call for a flight counts.
+         */
+        private void finish(String key, Flight flight, Response response) {
+            if (flight.completedAt != 0) {
+                return;
+            }
+            flight.response = response;
+            flight.completedAt = System.nanoTime();
+            flight.done.countDown();
+            if (response == null || cacheNanos == 0) {
+                flights.remove(key, flight);
+            } else if (flights.size() > maxEntries) {
+                sweep();
+            }
+        }
+        
+        private Map<String, List<String>> shareable(Headers headers) {
+            Map<String, List<String>> copy = new LinkedHashMap<>();
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (!UNSHARED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+                    copy.put(header.getKey(), new ArrayList<>(header.getValue()));
+                }
+            }
+            return copy;
+        }
+        
+        Stats stats() {
+            return new Stats(route, executed.sum(), joined.sum(), cached.sum(), fallbacks.sum(), bypassed.sum());
+        }
+        
+        @Override
+        public String description() {
+            return "Request coalescing for " + route;
+        }
+    }
+    
+    private static final class Flight {
+        final long generation;
+        final CountDownLatch done = new CountDownLatch(1);
+        /** Set before {@code done} opens; {@code null} when the response cannot be shared. */
+        volatile Response response;
+        /**
+         * {@link System#nanoTime()} when the response finished or was found unshareable, {@code 0}
+         * while it runs. Only the leader's thread writes it.
+         */
+        volatile long completedAt;
+        
+        Flight(long generation) {
+            this.generation = generation;
+        }
+    }
+    
+    private record Response(int status, Map<String, List<String>> headers, byte[] body) {
+    }
+    
+    /**
+     * Passes the leader's body through to its client while keeping a copy, until the copy would
+     * exceed the limit, when it gives up the copy and says so.
+     */
+    private static final class Capture extends FilterOutputStream {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8 * 1024);
+        private final int limit;
+        private final Runnable onOverflow;
+        boolean overflowed;
+        
+        Capture(OutputStream out, int limit, Runnable onOverflow) {
+            super(out);
+            this.limit = limit;
+            this.onOverflow = onOverflow;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (room(1)) {
+                buffer.write(b);
+            }
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (room(len)) {
+                buffer.write(b, off, len);
+            }
+        }
+        
+        private boolean room(int len) {
+            if (overflowed) {
+                return false;
+            }
+            if (buffer.size() + len > limit) {
+                overflowed = true;
+                buffer.reset();
+                onOverflow.run();
+                return false;
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * One route's outcomes: responses the handler produced as leader, copies handed to requests
+     * that joined a running response or hit the micro-cache, requests that waited on a response
+     * that could not be shared, or too long, and ran the handler themselves, and requests not
+     * eligible at all.
+     */
+    public record Stats(String route, long executed, long joined, long cached, long fallbacks, long bypassed) {
+        /**
+         * Share of eligible requests answered without running the handler.
+         */
+        public double coalescedRatio() {
+            long eligible = executed + joined + cached + fallbacks;
+            return eligible == 0 ? 0 : (double) (joined + cached) / eligible;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+
+package com.bookerino.handlers;
+
+import com.bookerino.config.Env;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Reusable scratch space for one response: the encoded body, its compressed form, and the
+ * encoder and deflaters that produce them. Instances are pooled, so a steady stream of responses
+ * does not allocate body-sized arrays or native zlib state per request.
+ */
+final class ResponseBuffer {
+    private static final int POOL_SIZE = Env.getInt("RESPONSE_BUFFER_POOL_SIZE", 64);
+    /** Buffers that grew past this are shrunk before going back to the pool. */
+    private static final int MAX_RETAINED_BYTES = Env.getInt("RESPONSE_BUFFER_MAX_BYTES", 1024 * 1024);
+    private static final int INITIAL_BYTES = 8 * 1024;
+    private static final int COMPRESSION_LEVEL = Env.getInt("RESPONSE_COMPRESSION_LEVEL", 6);
+    private static final ArrayBlockingQueue<ResponseBuffer> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    
+    private char[] chars = new char[INITIAL_BYTES];
+    byte[] body = new byte[INITIAL_BYTES];
+    int bodyLength;
+    byte[] compressed = new byte[INITIAL_BYTES];
+    int compressedLength;
+    
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final CRC32 crc = new CRC32();
+    private Deflater gzip;
+    private Deflater zlib;
+    
+    private ResponseBuffer() {
+    }
+    
+    static ResponseBuffer acquire() {
+        ResponseBuffer buffer = pool.poll();
+        return buffer != null ? buffer : new ResponseBuffer();
+    }
+    
+    void release() {
+        if (body.length > MAX_RETAINED_BYTES) {
+            body = new byte[INITIAL_BYTES];
+        }
+        if (compressed.length > MAX_RETAINED_BYTES) {
+            compressed = new byte[INITIAL_BYTES];
+        }
+        if (chars.length > MAX_RETAINED_BYTES) {
+            chars = new char[INITIAL_BYTES];
+        }
+        bodyLength = 0;
+        compressedLength = 0;
+        if (!pool.offer(this)) {
+            // Pool is full; let the deflaters' native memory go now rather than at finalization
+            if (gzip != null) {
+                gzip.end();
+            }
+            if (zlib != null) {
+                zlib.end();
+            }
+        }
+    }
+    
+    /**
+     * Encodes {@code text} as UTF-8 into {@link #body}. ASCII text, which is nearly all JSON, is
+     * narrowed char by char; anything else goes through the pooled encoder.
+     */
+    void encode(String text) {
+        int length = text.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        text.getChars(0, length, chars, 0);
+        
+        boolean ascii = true;
+        for (int i = 0; i < length; i++) {
+            if (chars[i] >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            ensureBody(length);
+            for (int i = 0; i < length; i++) {
+                body[i] = (byte) chars[i];
+            }
+            bodyLength = length;
+            return;
+        }
+        
+        ensureBody(length + (length >> 2));
+        while (true) {
+            encoder.reset();
+            ByteBuffer out = ByteBuffer.wrap(body);
+            CoderResult result = encoder.encode(CharBuffer.wrap(chars, 0, length), out, true);
+            if (!result.isOverflow()) {
+                result = encoder.flush(out);
+            }
+            if (!result.isOverflow()) {
+                bodyLength = out.position();
+                return;
+            }
+            body = new byte[body.length * 2];
+        }
+    }
+    
+    /**
+     * Compresses {@code input[0, length)} into {@link #compressed} as gzip or zlib ("deflate").
+     */
+    void compress(byte[] input, int length, boolean gzipFormat) {
+        Deflater deflater;
+        int offset = 0;
+        if (gzipFormat) {
+            if (gzip == null) {
+                gzip = new Deflater(COMPRESSION_LEVEL, true);
+            }
+            deflater = gzip;
+            System.arraycopy(GZIP_HEADER, 0, compressed, 0, GZIP_HEADER.length);
+            offset = GZIP_HEADER.length;
+        } else {
+            if (zlib == null) {
+                zlib = new Deflater(COMPRESSION_LEVEL, false);
+            }
+            deflater = zlib;
+        }
+        
+        deflater.reset();
+        deflater.setInput(input, 0, length);
+        deflater.finish();
+        ensureCompressed(offset + length / 4 + 64, offset);
+        while (!deflater.finished()) {
+            if (offset == compressed.length) {
+                byte[] grown = new byte[compressed.length * 2];
+                System.arraycopy(compressed, 0, grown, 0, offset);
+                compressed = grown;
+            }
+            offset += deflater.deflate(compressed, offset, compressed.length - offset);
+        }
+        
+        if (gzipFormat) {
+            crc.reset();
+            crc.update(input, 0, length);
+            ensureCompressed(offset + 8, offset);
+            writeIntLE((int) crc.getValue(), offset);
+            writeIntLE(length, offset + 4);
+            offset += 8;
+        }
+        compressedLength = offset;
+    }
+    
+    private void writeIntLE(int value, int at) {
+        compressed[at] = (byte) value;
+        compressed[at + 1] = (byte) (value >>> 8);
+        compressed[at + 2] = (byte) (value >>> 16);
+        compressed[at + 3] = (byte) (value >>> 24);
+    }
+    
+    private void ensureBody(int capacity) {
+        if (body.length < capacity) {
+            body = new byte[Math.max(capacity, body.length * 2)];
+        }
+    }
+    
+    private void ensureCompressed(int capacity, int keep) {
+        if (compressed.length < capacity) {
+            byte[] grown = new byte[Math.max(capacity, compressed.length * 2)];
+            System.arraycopy(compressed, 0, grown, 0, keep);
+            compressed = grown;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+
+package com.bookerino.handlers;
+
+import com.sun.net.httpserver.*;
+import com.bookerino.config.Env;
+import org.json.*;
+import java.io.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Shared response pipeline for the handlers: encodes bodies into pooled buffers, compresses them
+ * with gzip or deflate when the client accepts it and the body is worth it, and handles the
+ * validators for conditional GETs.
+ */
+final class Responses {
+    static final String JSON = "application/json; charset=utf-8";
+    /** Bodies smaller than this are sent as-is; compressing them saves less than it costs. */
+    private static final int COMPRESSION_MIN_BYTES = Env.getInt("RESPONSE_COMPRESSION_MIN_BYTES", 1024);
+    private static final int STREAM_BUFFER_SIZE = 16 * 1024;
+    
+    private enum Encoding { IDENTITY, GZIP, DEFLATE }
+    
+    private Responses() {
+    }
+    
+    static void json(HttpExchange exchange, int statusCode, String body) throws IOException {
+        send(exchange, statusCode, JSON, body);
+    }
+    
+    /**
+     * Sends {@code {"error": message}}, escaping the message, which may quote client input or a
+     * parser's complaint about it.
+     */
+    static void error(HttpExchange exchange, int statusCode, String message) throws IOException {
+        json(exchange, statusCode, new JSONObject().put("error", String.valueOf(message)).toString());
+    }
+    
+    static void send(HttpExchange exchange, int statusCode, String contentType, String body) throws IOException {
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        try {
+            buffer.encode(body);
+            write(exchange, statusCode, contentType, buffer.body, buffer.bodyLength, buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+    
+    /**
+     * Sends an already encoded body, e.g. a cached page.
+     */
+    static void send(HttpExchange exchange, int statusCode, String contentType, byte[] body) throws IOException {
+        ResponseBuffer buffer = ResponseBuffer.acquire();
+        try {
+            write(exchange, statusCode, contentType, body, body.length, buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+    
+    private static void write(HttpExchange exchange, int statusCode, String contentType,
+                              byte[] body, int length, ResponseBuffer buffer) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        
+        byte[] out = body;
+        int outLength = length;
+        if (length >= COMPRESSION_MIN_BYTES) {
+            headers.set("Vary", "Accept-Encoding");
+            Encoding encoding = negotiate(exchange);
+            if (encoding != Encoding.IDENTITY) {
+                buffer.compress(body, length, encoding == Encoding.GZIP);
+                if (buffer.compressedLength < length) {
+                    headers.set("Content-Encoding", encoding == Encoding.GZIP ? "gzip" : "deflate");
+                    out = buffer.compressed;
+                    outLength = buffer.compressedLength;
+                }
+            }
+        }
+        
+        exchange.sendResponseHeaders(statusCode, outLength == 0 ? -1 : outLength);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(out, 0, outLength);
+        }
+    }
+    
+    /**
+     * Starts a chunked 200 response of unknown length, compressed if the client accepts it. The
+     * caller closes the stream to finish the body.
+     */
+    static OutputStream stream(HttpExchange exchange, String contentType) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("Content-Type", contentType);
+        headers.set("Vary", "Accept-Encoding");
+        Encoding encoding = negotiate(exchange);
+        if (encoding == Encoding.GZIP) {
+            headers.set("Content-Encoding", "gzip");
+        } else if (encoding == Encoding.DEFLATE) {
+            headers.set("Content-Encoding", "deflate");
+        }
+        exchange.sendResponseHeaders(200, 0);
+        
+        OutputStream body = exchange.getResponseBody();
+        switch (encoding) {
+            case GZIP:
+                return new GZIPOutputStream(body, STREAM_BUFFER_SIZE);
+            case DEFLATE:
+                return new DeflaterOutputStream(body, new Deflater(), STREAM_BUFFER_SIZE) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        def.end();
+                    }
+                };
+            default:
+                return new BufferedOutputStream(body, STREAM_BUFFER_SIZE);
+        }
+    }
+    
+    /**
+     * Sets the validators for a GET and, when the request's {@code If-None-Match} (or, failing
+     * that, {@code If-Modified-Since}) shows the client's copy is current, sends 304 and returns
+     * {@code true}. Callers check this before doing any work for the body.
+     */
+    static boolean notModified(HttpExchange exchange, String etag, long lastModifiedMillis) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        headers.set("ETag", etag);
+        headers.set("Cache-Control", "no-cache");
+        // HTTP dates have one-second resolution, so a change in the current second could be
+        // followed by another one that the same date would hide; only settled seconds are sent
+        boolean settled = lastModifiedMillis / 1000 < System.currentTimeMillis() / 1000;
+        if (settled) {
+            headers.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModifiedMillis), ZoneOffset.UTC)));
+        }
+        
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        boolean current = ifNoneMatch != null
+            ? matches(ifNoneMatch, etag)
+            : settled && notModifiedSince(exchange.getRequestHeaders().getFirst("If-Modified-Since"), lastModifiedMillis);
+        if (!current) {
+            return false;
+        }
+        exchange.sendResponseHeaders(304, -1);
+        exchange.close();
+        return true;
+    }
+    
+    private static boolean matches(String header, String etag) {
+        String opaque = stripWeak(etag);
+        for (String candidate : header.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || stripWeak(tag).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+    
+    private static boolean notModifiedSince(String header, long lastModifiedMillis) {
+        if (header == null) {
+            return false;
+        }
+        try {
+            long since = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return lastModifiedMillis / 1000 <= since;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Picks gzip over deflate when both are acceptable; an explicit {@code q=0} rules a coding out.
+     */
+    private static Encoding negotiate(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (header == null) {
+            return Encoding.IDENTITY;
+        }
+        boolean gzip = false;
+        boolean gzipNamed = false;
+        boolean deflate = false;
+        for (String part : header.toLowerCase(Locale.ROOT).split(",")) {
+            String[] params = part.split(";");
+            String coding = params[0].trim();
+            boolean acceptable = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        acceptable = Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        acceptable = false;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = acceptable;
+                gzipNamed = true;
+            } else if (coding.equals("*") && !gzipNamed) {
+                gzip = acceptable;
+            } else if (coding.equals("deflate")) {
+                deflate = acceptable;
+            }
+        }
+        return gzip ? Encoding.GZIP : deflate ? Encoding.DEFLATE : Encoding.IDENTITY;
+    }
+}
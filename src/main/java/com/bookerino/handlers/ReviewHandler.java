@@ -2,91 +2,250 @@
 package com.bookerino.handlers;
 
 import com.sun.net.httpserver.*;
-import com.bookerino.database.DatabaseConnection;
+import com.bookerino.cache.RoomCache;
+import com.bookerino.cache.TableVersions;
+import com.bookerino.cache.TableVersions.Table;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.database.RowMappers;
+import com.bookerino.events.ChangeEvents;
+import com.bookerino.ingest.ReviewIngestQueue;
+import com.bookerino.model.Review;
+import com.bookerino.search.ReviewSearchIndex;
 import org.json.*;
 import java.io.*;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
 
 public class ReviewHandler implements HttpHandler {
+    private static final int SEARCH_DEFAULT_LIMIT = 20;
+    private static final int SEARCH_MAX_LIMIT = 100;
+    /** Deepest hit a search pages to; ranking keeps this many hits in memory. */
+    private static final int SEARCH_MAX_WINDOW = 1000;
+    
+    private final RoomCache rooms;
+    private final TableVersions versions;
+    private final ReviewIngestQueue ingest;
+    private final ReviewSearchIndex search;
+    
+    /**
+     * @param ingest write-behind queue for new reviews, or {@code null} to insert each one
+     *               before answering
+     */
+    public ReviewHandler(RoomCache rooms, TableVersions versions, ReviewIngestQueue ingest, ReviewSearchIndex search) {
+        this.rooms = rooms;
+        this.versions = versions;
+        this.ingest = ingest;
+        this.search = search;
+    }
+    
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         String method = exchange.getRequestMethod();
         
         try {
-            if ("GET".equals(method)) {
+            if ("GET".equals(method) && "/api/reviews/ingest-stats".equals(exchange.getRequestURI().getPath())) {
+                handleIngestStats(exchange);
+            } else if ("GET".equals(method) && "/api/reviews/search".equals(exchange.getRequestURI().getPath())) {
+                handleSearch(exchange);
+            } else if ("GET".equals(method)) {
                 handleGet(exchange);
             } else if ("POST".equals(method)) {
                 handlePost(exchange);
             } else {
-                sendResponse(exchange, 405, "{\"error\": \"Method not allowed\"}");
+                Responses.error(exchange, 405, "Method not allowed");
             }
+        } catch (PayloadTooLargeException e) {
+            Responses.error(exchange, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Responses.error(exchange, 400, e.getMessage());
         } catch (Exception e) {
-            sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+            Responses.error(exchange, 500, e.getMessage());
         }
     }
     
     private void handleGet(HttpExchange exchange) throws SQLException, IOException {
-        Connection conn = DatabaseConnection.getConnection();
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT * FROM reviews ORDER BY created_at DESC");
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        KeysetQuery page = new KeysetQuery("reviews", query)
+            .and("room_id = ?", query.getInt("roomId"))
+            .and("rating >= ?", query.getInt("minRating"))
+            .and("rating <= ?", query.getInt("maxRating"));
         
-        JSONArray reviews = new JSONArray();
-        while (rs.next()) {
-            JSONObject review = new JSONObject();
-            review.put("id", rs.getInt("id"));
-            review.put("roomId", rs.getInt("room_id"));
-            review.put("guestName", rs.getString("guest_name"));
-            review.put("rating", rs.getInt("rating"));
-            review.put("comment", rs.getString("comment"));
-            reviews.put(review);
+        if (Responses.notModified(exchange, versions.etag(Table.REVIEWS), versions.lastModified(Table.REVIEWS))) {
+            return;
         }
-        
-        rs.close();
-        stmt.close();
-        
-        sendResponse(exchange, 200, reviews.toString());
+        ListResponse.send(exchange, page, ReviewHandler::writeReview,
+            ReadConsistency.source(exchange, versions.lastModified(Table.REVIEWS)));
     }
     
-    private void handlePost(HttpExchange exchange) throws IOException, SQLException {
-        InputStreamReader isr = new InputStreamReader(exchange.getRequestBody());
-        BufferedReader br = new BufferedReader(isr);
-        StringBuilder body = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-            body.append(line);
+    static void writeReview(JsonStreamWriter json, ResultSet rs) throws SQLException, IOException {
+        json.beginObject()
+            .field("id", rs.getInt("id"))
+            .field("roomId", rs.getInt("room_id"))
+            .field("guestName", rs.getString("guest_name"))
+            .field("rating", rs.getInt("rating"))
+            .field("comment", rs.getString("comment"))
+            .endObject();
+    }
+    
+    /**
+     * Reviews whose comment matches {@code q}, best match first. Every word must match unless
+     * {@code match=any}; case and diacritics are ignored.
+     */
+    private void handleSearch(HttpExchange exchange) throws SQLException, IOException {
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        String q = query.getString("q");
+        if (q == null) {
+            throw new IllegalArgumentException("Parameter 'q' is required");
+        }
+        String match = query.getString("match");
+        if (match != null && !match.equals("all") && !match.equals("any")) {
+            throw new IllegalArgumentException("Parameter 'match' must be all or any");
+        }
+        int offset = query.getInt("offset", 0);
+        int limit = query.getInt("limit", SEARCH_DEFAULT_LIMIT);
+        if (offset < 0 || limit < 1 || limit > SEARCH_MAX_LIMIT) {
+            throw new IllegalArgumentException("'offset' must not be negative and 'limit' must be between 1 and " + SEARCH_MAX_LIMIT);
+        }
+        if (offset + limit > SEARCH_MAX_WINDOW) {
+            throw new IllegalArgumentException("Search results are available up to the first " + SEARCH_MAX_WINDOW);
         }
         
-        JSONObject json = new JSONObject(body.toString());
-        
-        Connection conn = DatabaseConnection.getConnection();
-        PreparedStatement pstmt = conn.prepareStatement(
-            "INSERT INTO reviews (room_id, guest_name, rating, comment) VALUES (?, ?, ?, ?)",
-            Statement.RETURN_GENERATED_KEYS
-        );
+        if (Responses.notModified(exchange, versions.etag(Table.REVIEWS), versions.lastModified(Table.REVIEWS))) {
+            return;
+        }
+        ReviewSearchIndex.Page page = search.search(q, !"any".equals(match),
+            query.getInt("roomId"), query.getInt("minRating"), offset, limit);
         
-        pstmt.setInt(1, json.getInt("roomId"));
-        pstmt.setString(2, json.getString("guestName"));
-        pstmt.setInt(3, json.getInt("rating"));
-        pstmt.setString(4, json.optString("comment", ""));
+        JSONArray results = new JSONArray();
+        if (!page.hits().isEmpty()) {
+            int[] ids = new int[page.hits().size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = page.hits().get(i).reviewId();
+            }
+            Map<Integer, Review> reviews = new HashMap<>();
+            try (Connection conn = ReadConsistency.source(exchange, versions.lastModified(Table.REVIEWS)).open()) {
+                for (Review review : Jdbc.queryList(conn, Queries.REVIEWS_BY_IDS, RowMappers.REVIEW, (Object) ids)) {
+                    reviews.put(review.id(), review);
+                }
+            }
+            for (ReviewSearchIndex.Hit hit : page.hits()) {
+                // A review the replica has not received yet is left out of this page
+                Review review = reviews.get(hit.reviewId());
+                if (review != null) {
+                    JSONObject json = new JSONObject();
+                    json.put("id", review.id());
+                    json.put("roomId", review.roomId());
+                    json.put("guestName", review.guestName());
+                    json.put("rating", review.rating());
+                    json.put("comment", review.comment());
+                    json.put("score", Math.round(hit.score() * 1000) / 1000.0);
+                    results.put(json);
+                }
+            }
+        }
         
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
+        JSONObject json = new JSONObject();
+        json.put("query", q);
+        json.put("total", page.total());
+        json.put("offset", offset);
+        json.put("limit", limit);
+        json.put("results", results);
+        Responses.json(exchange, 200, json.toString());
+    }
+    
+    private void handleIngestStats(HttpExchange exchange) throws IOException {
+        if (ingest == null) {
+            Responses.error(exchange, 404, "Review ingestion is synchronous");
+            return;
+        }
+        ReviewIngestQueue.Stats stats = ingest.getStats();
+        JSONObject json = new JSONObject();
+        json.put("queued", stats.queued());
+        json.put("capacity", stats.capacity());
+        json.put("batchSize", stats.batchSize());
+        json.put("flushIntervalMs", stats.flushIntervalMillis());
+        json.put("accepted", stats.accepted());
+        json.put("rejected", stats.rejected());
+        json.put("written", stats.written());
+        json.put("dropped", stats.dropped());
+        json.put("batches", stats.batches());
+        json.put("retries", stats.retries());
+        json.put("replayed", stats.replayed());
+        json.put("lastBatchSize", stats.lastBatchSize());
+        json.put("lastSequence", stats.lastSequence());
+        json.put("committedSequence", stats.committedSequence());
+        json.put("journalBytes", stats.journalBytes());
+        Responses.json(exchange, 200, json.toString());
+    }
+    
+    private void handlePost(HttpExchange exchange) throws IOException, SQLException {
+        JSONObject json = RequestBodies.readJson(exchange);
+        Review review = parseReview(json);
         
-        if (rs.next()) {
-            json.put("id", rs.getInt(1));
+        if (ingest != null) {
+            long sequence = ingest.submit(review);
+            if (sequence < 0) {
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                Responses.error(exchange, 503, "Review queue is full");
+                return;
+            }
+            json.put("status", "accepted");
+            json.put("sequence", sequence);
+            ReadConsistency.pinToPrimary(exchange);
+            Responses.json(exchange, 202, json.toString());
+            return;
         }
         
-        rs.close();
-        pstmt.close();
+        json.put("id", Jdbc.insert(Queries.REVIEW_INSERT,
+            review.roomId(),
+            review.guestName(),
+            review.rating(),
+            review.comment()
+        ));
         
-        sendResponse(exchange, 201, json.toString());
+        ChangeEvents.reviewCreated(new Review(
+            json.getInt("id"),
+            review.roomId(),
+            review.guestName(),
+            review.rating(),
+            review.comment()
+        ));
+        
+        ReadConsistency.pinToPrimary(exchange);
+        Responses.json(exchange, 201, json.toString());
     }
     
-    private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().add("Content-Type", "application/json");
-        exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(response.getBytes());
-        os.close();
+    /**
+     * Checks everything the insert would, so a review acknowledged before it is written does not
+     * fail later.
+     */
+    private Review parseReview(JSONObject json) throws SQLException {
+        if (!json.has("roomId") || !json.has("guestName") || !json.has("rating")) {
+            throw new IllegalArgumentException("'roomId', 'guestName' and 'rating' are required");
+        }
+        int roomId;
+        int rating;
+        try {
+            roomId = json.getInt("roomId");
+            rating = json.getInt("rating");
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("'roomId' and 'rating' must be integers");
+        }
+        String guestName = json.optString("guestName", "").trim();
+        if (guestName.isEmpty()) {
+            throw new IllegalArgumentException("'guestName' must not be blank");
+        }
+        if (guestName.length() > 255) {
+            throw new IllegalArgumentException("'guestName' must be at most 255 characters");
+        }
+        if (rating < 1 || rating > 5) {
+            throw new IllegalArgumentException("'rating' must be between 1 and 5");
+        }
+        if (rooms.getRoom(roomId) == null) {
+            throw new IllegalArgumentException("Room " + roomId + " does not exist");
+        }
+        return new Review(0, roomId, guestName, rating, json.optString("comment", ""));
     }
 }
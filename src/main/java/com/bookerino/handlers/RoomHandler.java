@@ -2,98 +2,208 @@
 package com.bookerino.handlers;
 
 import com.sun.net.httpserver.*;
-import com.bookerino.database.DatabaseConnection;
+import com.bookerino.analytics.RoomRatings;
+import com.bookerino.cache.RoomCache;
+import com.bookerino.cache.TableVersions;
+import com.bookerino.cache.TableVersions.Table;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.events.ChangeEvents;
+import com.bookerino.model.Room;
 import org.json.*;
 import java.io.*;
 import java.sql.*;
 import java.util.*;
 
 public class RoomHandler implements HttpHandler {
+    private final RoomCache cache;
+    private final TableVersions versions;
+    private final RoomRatings ratings;
+    
+    public RoomHandler(RoomCache cache, TableVersions versions, RoomRatings ratings) {
+        this.cache = cache;
+        this.versions = versions;
+        this.ratings = ratings;
+    }
+    
     @Override
     public void handle(HttpExchange exchange) throws IOException {
         String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
         
         try {
-            if ("GET".equals(method)) {
+            if ("GET".equals(method) && "/api/rooms/cache-stats".equals(path)) {
+                handleCacheStats(exchange);
+            } else if ("GET".equals(method) && "/api/rooms/top-rated".equals(path)) {
+                handleTopRated(exchange);
+            } else if ("GET".equals(method) && path.startsWith("/api/rooms/") && path.endsWith("/rating")) {
+                handleRating(exchange, path.substring("/api/rooms/".length(), path.length() - "/rating".length()));
+            } else if ("GET".equals(method)) {
                 handleGet(exchange);
             } else if ("POST".equals(method)) {
                 handlePost(exchange);
             } else {
-                sendResponse(exchange, 405, "{\"error\": \"Method not allowed\"}");
+                Responses.error(exchange, 405, "Method not allowed");
             }
+        } catch (PayloadTooLargeException e) {
+            Responses.error(exchange, 413, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            Responses.error(exchange, 400, e.getMessage());
         } catch (Exception e) {
-            sendResponse(exchange, 500, "{\"error\": \"" + e.getMessage() + "\"}");
+            Responses.error(exchange, 500, e.getMessage());
         }
     }
     
     private void handleGet(HttpExchange exchange) throws SQLException, IOException {
-        Connection conn = DatabaseConnection.getConnection();
-        Statement stmt = conn.createStatement();
-        ResultSet rs = stmt.executeQuery("SELECT * FROM rooms ORDER BY created_at DESC");
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        KeysetQuery page = new KeysetQuery("rooms", query)
+            .and("status = ?", query.getString("status"))
+            .and("type = ?", query.getString("type"))
+            .and("capacity >= ?", query.getInt("minCapacity"));
         
-        JSONArray rooms = new JSONArray();
-        while (rs.next()) {
-            JSONObject room = new JSONObject();
-            room.put("id", rs.getInt("id"));
-            room.put("name", rs.getString("name"));
-            room.put("type", rs.getString("type"));
-            room.put("capacity", rs.getInt("capacity"));
-            room.put("price", rs.getDouble("price"));
-            room.put("status", rs.getString("status"));
-            room.put("imageUrl", rs.getString("image_url"));
-            room.put("description", rs.getString("description"));
-            rooms.put(room);
+        if (Responses.notModified(exchange, versions.etag(Table.ROOMS), versions.lastModified(Table.ROOMS))) {
+            return;
+        }
+        ReadConsistency.Source source = ReadConsistency.source(exchange, versions.lastModified(Table.ROOMS));
+        if (page.isUnbounded()) {
+            ListResponse.send(exchange, page, RoomHandler::writeRoom, source);
+            return;
         }
         
-        rs.close();
-        stmt.close();
+        RoomCache.ListView view = cache.getListView(page.cacheKey(), () -> {
+            ListResponse.Page rendered = ListResponse.render(page, RoomHandler::writeRoom, source);
+            return new RoomCache.ListView(rendered.body(), rendered.nextCursor());
+        });
         
-        sendResponse(exchange, 200, rooms.toString());
+        if (view.nextCursor() != null) {
+            exchange.getResponseHeaders().set("X-Next-Cursor", view.nextCursor());
+        }
+        Responses.send(exchange, 200, Responses.JSON, view.body());
     }
     
-    private void handlePost(HttpExchange exchange) throws IOException, SQLException {
-        InputStreamReader isr = new InputStreamReader(exchange.getRequestBody());
-        BufferedReader br = new BufferedReader(isr);
-        StringBuilder body = new StringBuilder();
-        String line;
-        while ((line = br.readLine()) != null) {
-            body.append(line);
+    private void handleCacheStats(HttpExchange exchange) throws IOException {
+        RoomCache.Stats stats = cache.getStats();
+        JSONObject json = new JSONObject();
+        json.put("hits", stats.hits());
+        json.put("misses", stats.misses());
+        json.put("evictions", stats.evictions());
+        json.put("expirations", stats.expirations());
+        json.put("invalidations", stats.invalidations());
+        json.put("rooms", stats.rooms());
+        json.put("maxRooms", stats.maxRooms());
+        json.put("views", stats.views());
+        json.put("maxViews", stats.maxViews());
+        Responses.json(exchange, 200, json.toString());
+    }
+    
+    private void handleRating(HttpExchange exchange, String id) throws SQLException, IOException {
+        int roomId;
+        try {
+            roomId = Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Room id must be an integer");
+        }
+        if (cache.getRoom(roomId) == null) {
+            Responses.error(exchange, 404, "Room " + roomId + " does not exist");
+            return;
+        }
+        if (Responses.notModified(exchange, versions.etag(Table.REVIEWS), versions.lastModified(Table.REVIEWS))) {
+            return;
+        }
+        Responses.json(exchange, 200, ratingJson(ratings.get(roomId)).toString());
+    }
+    
+    private void handleTopRated(HttpExchange exchange) throws SQLException, IOException {
+        QueryParams query = QueryParams.parse(exchange.getRequestURI().getRawQuery());
+        int limit = query.getInt("limit", 10);
+        if (limit < 1 || limit > ratings.getMaxTop()) {
+            throw new IllegalArgumentException("'limit' must be between 1 and " + ratings.getMaxTop());
+        }
+        if (Responses.notModified(exchange, versions.etag(Table.ROOMS, Table.REVIEWS),
+                versions.lastModified(Table.ROOMS, Table.REVIEWS))) {
+            return;
         }
         
-        JSONObject json = new JSONObject(body.toString());
-        
-        Connection conn = DatabaseConnection.getConnection();
-        PreparedStatement pstmt = conn.prepareStatement(
-            "INSERT INTO rooms (name, type, capacity, price, status, image_url, description) VALUES (?, ?, ?, ?, ?, ?, ?)",
-            Statement.RETURN_GENERATED_KEYS
+        JSONArray rooms = new JSONArray();
+        for (RoomRatings.Ranked ranked : ratings.topRated(limit)) {
+            Room room = cache.getRoom(ranked.rating().roomId());
+            if (room == null) {
+                continue;
+            }
+            JSONObject json = ratingJson(ranked.rating());
+            json.put("name", room.name());
+            json.put("type", room.type());
+            json.put("score", Math.round(ranked.score() * 1000) / 1000.0);
+            rooms.put(json);
+        }
+        JSONObject json = new JSONObject();
+        json.put("rooms", rooms);
+        json.put("limit", limit);
+        Responses.json(exchange, 200, json.toString());
+    }
+    
+    private static JSONObject ratingJson(RoomRatings.Rating rating) {
+        JSONObject stars = new JSONObject();
+        for (int i = 0; i < rating.stars().length; i++) {
+            stars.put(Integer.toString(i + 1), rating.stars()[i]);
+        }
+        JSONObject json = new JSONObject();
+        json.put("roomId", rating.roomId());
+        json.put("reviewCount", rating.count());
+        json.put("ratingSum", rating.sum());
+        json.put("averageRating", rating.count() > 0 ? Math.round(rating.average() * 100) / 100.0 : JSONObject.NULL);
+        json.put("stars", stars);
+        return json;
+    }
+    
+    static void writeRoom(JsonStreamWriter json, ResultSet rs) throws SQLException, IOException {
+        json.beginObject()
+            .field("id", rs.getInt("id"))
+            .field("name", rs.getString("name"))
+            .field("type", rs.getString("type"))
+            .field("capacity", rs.getInt("capacity"))
+            .field("price", rs.getDouble("price"))
+            .field("status", rs.getString("status"))
+            .field("imageUrl", rs.getString("image_url"))
+            .field("description", rs.getString("description"))
+            .endObject();
+    }
+    
+    private void handlePost(HttpExchange exchange) throws IOException, SQLException {
+        JSONObject json = RequestBodies.readJson(exchange);
+        Room room = new Room(
+            0,
+            RequestBodies.requiredString(json, "name", 255),
+            RequestBodies.requiredString(json, "type", 100),
+            RequestBodies.requiredInt(json, "capacity"),
+            RequestBodies.requiredNumber(json, "price"),
+            RequestBodies.optionalString(json, "status", "available", 50),
+            json.optString("imageUrl", ""),
+            json.optString("description", "")
         );
         
-        pstmt.setString(1, json.getString("name"));
-        pstmt.setString(2, json.getString("type"));
-        pstmt.setInt(3, json.getInt("capacity"));
-        pstmt.setDouble(4, json.getDouble("price"));
-        pstmt.setString(5, json.optString("status", "available"));
-        pstmt.setString(6, json.optString("imageUrl", ""));
-        pstmt.setString(7, json.optString("description", ""));
-        
-        pstmt.executeUpdate();
-        ResultSet rs = pstmt.getGeneratedKeys();
+        json.put("id", Jdbc.insert(Queries.ROOM_INSERT,
+            room.name(),
+            room.type(),
+            room.capacity(),
+            room.price(),
+            room.status(),
+            room.imageUrl(),
+            room.description()
+        ));
         
-        if (rs.next()) {
-            json.put("id", rs.getInt(1));
-        }
-        
-        rs.close();
-        pstmt.close();
+        ChangeEvents.roomSaved(new Room(
+            json.getInt("id"),
+            room.name(),
+            room.type(),
+            room.capacity(),
+            room.price(),
+            room.status(),
+            room.imageUrl(),
+            room.description()
+        ));
         
-        sendResponse(exchange, 201, json.toString());
-    }
-    
-    private void sendResponse(HttpExchange exchange, int statusCode, String response) throws IOException {
-        exchange.getResponseHeaders().add("Content-Type", "application/json");
-        exchange.sendResponseHeaders(statusCode, response.getBytes().length);
-        OutputStream os = exchange.getResponseBody();
-        os.write(response.getBytes());
-        os.close();
+        ReadConsistency.pinToPrimary(exchange);
+        Responses.json(exchange, 201, json.toString());
     }
 }
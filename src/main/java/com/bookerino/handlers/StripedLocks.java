@@ -0,0 +1,48 @@
+
+package com.bookerino.handlers;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks shared out by key. Writers for the same key always serialize, writers for
+ * different keys only contend when their keys hash to the same stripe.
+ */
+final class StripedLocks {
+    private final ReentrantLock[] stripes;
+    
+    StripedLocks(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count - 1)) << 1;
+        stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+    
+    ReentrantLock forKey(int key) {
+        return stripes[stripe(key)];
+    }
+    
+    /**
+     * The stripes covering several keys, each once and in stripe order, so two writers taking
+     * overlapping sets cannot deadlock.
+     */
+    List<ReentrantLock> forKeys(int[] keys) {
+        BitSet used = new BitSet(stripes.length);
+        for (int key : keys) {
+            used.set(stripe(key));
+        }
+        List<ReentrantLock> locks = new ArrayList<>(used.cardinality());
+        for (int i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i + 1)) {
+            locks.add(stripes[i]);
+        }
+        return locks;
+    }
+    
+    private int stripe(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+}
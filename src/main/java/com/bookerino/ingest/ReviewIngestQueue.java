@@ -0,0 +1,517 @@
+
+package com.bookerino.ingest;
+
+import com.bookerino.config.Env;
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.database.Jdbc;
+import com.bookerino.database.Queries;
+import com.bookerino.events.ChangeEvents;
+import com.bookerino.metrics.LatencyHistogram;
+import com.bookerino.model.Review;
+import org.json.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind ingestion for reviews.
+ *
+ * Accepted reviews are appended to a local journal (one JSON line each, fsynced before the client
+ * is answered) and queued in memory; a single writer thread drains the queue in batched inserts
+ * and records the highest journal sequence it committed in {@code ingest_checkpoints}, in the
+ * same transaction. On startup, journal entries past the checkpoint are written before the server
+ * accepts requests, so an accepted review survives a crash. {@code reviewCreated} events fire
+ * after each batch commits, so the in-memory aggregates follow the database.
+ *
+ * Each server instance needs its own journal and stream name.
+ */
+public class ReviewIngestQueue {
+    private static final long RETRY_BACKOFF_MAX_MILLIS = 30_000;
+    
+    private final String stream;
+    private final Path journalPath;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final boolean fsync;
+    private final long compactBytes;
+    private final ArrayBlockingQueue<Pending> queue;
+    
+    private final Object journalLock = new Object();
+    private final Object syncLock = new Object();
+    private FileChannel journal;
+    private long lastSequence;
+    private long syncedTo;
+    private volatile long committedSequence;
+    private volatile boolean running;
+    private Thread writer;
+    
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong replayed = new AtomicLong();
+    private volatile int lastBatchSize;
+    private final LatencyHistogram flushLatency = new LatencyHistogram();
+    private final LatencyHistogram commitLag = new LatencyHistogram();
+    
+    public ReviewIngestQueue() {
+        this(Env.getString("REVIEW_INGEST_STREAM", "reviews"),
+             Paths.get(Env.getString("REVIEW_JOURNAL_PATH", "data/review-journal.ndjson")),
+             Env.getInt("REVIEW_QUEUE_CAPACITY", 10_000),
+             Env.getInt("REVIEW_BATCH_SIZE", 500),
+             Env.getLong("REVIEW_FLUSH_INTERVAL_MS", 200),
+             Env.getBoolean("REVIEW_JOURNAL_FSYNC", true),
+             Env.getLong("REVIEW_JOURNAL_COMPACT_BYTES", 8L * 1024 * 1024));
+    }
+    
+    public ReviewIngestQueue(String stream, Path journalPath, int capacity, int batchSize,
+                             long flushIntervalMillis, boolean fsync, long compactBytes) {
+        this.stream = stream;
+        this.journalPath = journalPath;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMillis));
+        this.fsync = fsync;
+        this.compactBytes = compactBytes;
+        this.queue = new ArrayBlockingQueue<>(this.capacity);
+    }
+    
+    /**
+     * Whether {@code REVIEW_INGEST_MODE} asks for write-behind ingestion (the default is
+     * {@code sync}, one insert per request).
+     */
+    public static boolean enabled() {
+        String mode = Env.getString("REVIEW_INGEST_MODE", "sync");
+        if (!mode.equalsIgnoreCase("sync") && !mode.equalsIgnoreCase("async")) {
+            throw new IllegalArgumentException("REVIEW_INGEST_MODE must be 'sync' or 'async', got '" + mode + "'");
+        }
+        return mode.equalsIgnoreCase("async");
+    }
+    
+    /**
+     * Replays the journal past the stored checkpoint and starts the writer thread.
+     */
+    public synchronized void start() throws IOException, SQLException {
+        if (running) {
+            return;
+        }
+        Path parent = journalPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        committedSequence = loadCheckpoint();
+        lastSequence = committedSequence;
+        
+        List<Pending> recovered = readJournal();
+        for (int from = 0; from < recovered.size(); from += batchSize) {
+            write(recovered.subList(from, Math.min(from + batchSize, recovered.size())));
+        }
+        replayed.set(recovered.size());
+        if (!recovered.isEmpty()) {
+            System.out.println("Replayed " + recovered.size() + " journaled reviews up to sequence " + lastSequence);
+        }
+        
+        journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        journal.position(journal.size());
+        compact();
+        
+        running = true;
+        writer = new Thread(this::drain, "bookerino-review-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    /**
+     * Journals and queues a validated review, returning its journal sequence, or -1 when the
+     * queue is full and the caller should shed the request.
+     */
+    public long submit(Review review) throws IOException {
+        long sequence;
+        long end;
+        synchronized (journalLock) {
+            if (!running) {
+                throw new IllegalStateException("Review ingestion is not running");
+            }
+            // Adds happen only under this lock, so a free slot now is still free below
+            if (queue.remainingCapacity() == 0) {
+                rejected.incrementAndGet();
+                return -1;
+            }
+            sequence = lastSequence + 1;
+            String line = toJson(sequence, review).toString() + "\n";
+            ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                journal.write(bytes);
+            }
+            end = journal.position();
+            lastSequence = sequence;
+            queue.add(new Pending(sequence, review, line, System.nanoTime()));
+        }
+        if (fsync) {
+            sync(end);
+        }
+        accepted.incrementAndGet();
+        return sequence;
+    }
+    
+    /**
+     * Forces the journal up to {@code end}. Concurrent submitters share one force: whoever gets
+     * the lock first syncs everything appended so far, and the rest find their bytes covered.
+     */
+    private void sync(long end) throws IOException {
+        synchronized (syncLock) {
+            if (syncedTo >= end) {
+                return;
+            }
+            long target = journal.size();
+            journal.force(false);
+            syncedTo = target;
+        }
+    }
+    
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.acceptedNanos + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                if (!writeWithRetry(batch)) {
+                    // Stopped while the database was unreachable; the journal still has the rest
+                    return;
+                }
+                compactIfLarge();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("Review writer failed: " + e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    /**
+     * Writes one batch, backing off while the database is unavailable. Returns {@code false} if
+     * the queue was stopped before the batch could be written.
+     */
+    private boolean writeWithRetry(List<Pending> batch) throws InterruptedException {
+        long backoff = 100;
+        while (true) {
+            try {
+                write(batch);
+                return true;
+            } catch (SQLException e) {
+                retries.incrementAndGet();
+                System.err.println("Review batch of " + batch.size() + " failed, retrying in " + backoff + "ms: " + e.getMessage());
+                if (!running) {
+                    return false;
+                }
+                Thread.sleep(backoff);
+                backoff = Math.min(backoff * 2, RETRY_BACKOFF_MAX_MILLIS);
+            }
+        }
+    }
+    
+    private void write(List<Pending> batch) throws SQLException {
+        long start = System.nanoTime();
+        long sequence = batch.get(batch.size() - 1).sequence;
+        List<Review> created = new ArrayList<>(batch.size());
+        
+        try (Connection conn = DatabaseConnection.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try {
+                    insertBatch(conn, batch, created);
+                } catch (SQLException e) {
+                    if (!isDataError(e)) {
+                        throw e;
+                    }
+                    conn.rollback();
+                    created.clear();
+                    insertRowByRow(conn, batch, created);
+                }
+                saveCheckpoint(conn, sequence);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        
+        committedSequence = sequence;
+        long now = System.nanoTime();
+        flushLatency.recordNanos(now - start);
+        for (Pending pending : batch) {
+            commitLag.recordNanos(now - pending.acceptedNanos);
+        }
+        lastBatchSize = batch.size();
+        batches.incrementAndGet();
+        written.addAndGet(created.size());
+        dropped.addAndGet(batch.size() - created.size());
+        for (Review review : created) {
+            ChangeEvents.reviewCreated(review);
+        }
+    }
+    
+    private void insertBatch(Connection conn, List<Pending> batch, List<Review> created) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(Queries.REVIEW_INSERT.sql(), Statement.RETURN_GENERATED_KEYS)) {
+            for (Pending pending : batch) {
+                bind(pstmt, pending.review);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                for (Pending pending : batch) {
+                    if (!keys.next()) {
+                        throw new SQLException("Missing generated key for journal sequence " + pending.sequence);
+                    }
+                    created.add(withId(pending.review, keys.getInt(1)));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Replays a batch that hit a constraint one row at a time behind savepoints, so one bad row
+     * (e.g. a room deleted after the review was accepted) is dropped instead of blocking the queue.
+     */
+    private void insertRowByRow(Connection conn, List<Pending> batch, List<Review> created) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement(Queries.REVIEW_INSERT.sql(), Statement.RETURN_GENERATED_KEYS)) {
+            for (Pending pending : batch) {
+                Savepoint savepoint = conn.setSavepoint();
+                try {
+                    bind(pstmt, pending.review);
+                    pstmt.executeUpdate();
+                    try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                        keys.next();
+                        created.add(withId(pending.review, keys.getInt(1)));
+                    }
+                    conn.releaseSavepoint(savepoint);
+                } catch (SQLException e) {
+                    if (!isDataError(e)) {
+                        throw e;
+                    }
+                    conn.rollback(savepoint);
+                    System.err.println("Dropping journaled review " + pending.sequence + ": " + e.getMessage() +
+                        " " + pending.line.trim());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Data exceptions (class 22) and integrity violations (class 23) will fail again on retry;
+     * anything else is treated as the database being unavailable.
+     */
+    private static boolean isDataError(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+    
+    private static void bind(PreparedStatement pstmt, Review review) throws SQLException {
+        pstmt.setInt(1, review.roomId());
+        pstmt.setString(2, review.guestName());
+        pstmt.setInt(3, review.rating());
+        pstmt.setString(4, review.comment());
+    }
+    
+    private static Review withId(Review review, int id) {
+        return new Review(id, review.roomId(), review.guestName(), review.rating(), review.comment());
+    }
+    
+    private long loadCheckpoint() throws SQLException {
+        Long sequence = Jdbc.queryOne(Queries.INGEST_CHECKPOINT_LOAD, rs -> rs.getLong(1), stream);
+        return sequence != null ? sequence : 0;
+    }
+    
+    private void saveCheckpoint(Connection conn, long sequence) throws SQLException {
+        Jdbc.update(conn, Queries.INGEST_CHECKPOINT_SAVE, stream, sequence);
+    }
+    
+    /**
+     * Reads the journal, returning the entries past the checkpoint and advancing
+     * {@link #lastSequence} past every entry seen. A torn final line from a crash mid-append
+     * is skipped.
+     */
+    private List<Pending> readJournal() throws IOException {
+        List<Pending> pending = new ArrayList<>();
+        if (!Files.exists(journalPath)) {
+            return pending;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                JSONObject entry;
+                try {
+                    entry = new JSONObject(line);
+                } catch (JSONException e) {
+                    System.err.println("Skipping unreadable review journal line " + lineNumber + ": " + e.getMessage());
+                    continue;
+                }
+                long sequence = entry.getLong("seq");
+                lastSequence = Math.max(lastSequence, sequence);
+                if (sequence > committedSequence) {
+                    Review review = new Review(0, entry.getInt("roomId"), entry.getString("guestName"),
+                        entry.getInt("rating"), entry.optString("comment", ""));
+                    pending.add(new Pending(sequence, review, line + "\n", System.nanoTime()));
+                }
+            }
+        }
+        return pending;
+    }
+    
+    private void compactIfLarge() throws IOException {
+        if (compactBytes > 0 && journal.size() > compactBytes) {
+            compact();
+        }
+    }
+    
+    /**
+     * Rewrites the journal with only the entries still queued. Runs on the writer thread (or
+     * before it starts), so nothing is taken off the queue meanwhile, and under the journal lock,
+     * so nothing is added.
+     */
+    private void compact() throws IOException {
+        synchronized (journalLock) {
+            Path temp = journalPath.resolveSibling(journalPath.getFileName() + ".compact");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Pending pending : queue) {
+                    ByteBuffer bytes = ByteBuffer.wrap(pending.line.getBytes(StandardCharsets.UTF_8));
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                }
+                out.force(true);
+            }
+            // Submitters may be forcing the old file outside the journal lock
+            synchronized (syncLock) {
+                journal.close();
+                Files.move(temp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                journal = FileChannel.open(journalPath, StandardOpenOption.WRITE);
+                journal.position(journal.size());
+                syncedTo = journal.size();
+            }
+        }
+    }
+    
+    /**
+     * Stops accepting reviews and lets the writer drain the queue for up to {@code timeoutSeconds}.
+     * Anything left over stays in the journal and is written on the next start.
+     */
+    public void stop(long timeoutSeconds) {
+        Thread thread;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            synchronized (journalLock) {
+                running = false;
+            }
+            thread = writer;
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(Math.max(1, timeoutSeconds)));
+            if (thread.isAlive()) {
+                thread.interrupt();
+                thread.join(1000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (journalLock) {
+            try {
+                // A batch interrupted mid-write has left the queue but is not committed
+                if (queue.isEmpty() && committedSequence == lastSequence) {
+                    compact();
+                }
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Could not close the review journal: " + e.getMessage());
+            }
+        }
+        System.out.println("Review ingestion stopped: " + getStats());
+    }
+    
+    private static JSONObject toJson(long sequence, Review review) {
+        JSONObject json = new JSONObject();
+        json.put("seq", sequence);
+        json.put("roomId", review.roomId());
+        json.put("guestName", review.guestName());
+        json.put("rating", review.rating());
+        json.put("comment", review.comment());
+        return json;
+    }
+    
+    public LatencyHistogram getFlushLatency() {
+        return flushLatency;
+    }
+    
+    public LatencyHistogram getCommitLag() {
+        return commitLag;
+    }
+    
+    public Stats getStats() {
+        long journalBytes;
+        long last;
+        synchronized (journalLock) {
+            last = lastSequence;
+            try {
+                journalBytes = journal != null && journal.isOpen() ? journal.size() : 0;
+            } catch (IOException e) {
+                journalBytes = -1;
+            }
+        }
+        return new Stats(queue.size(), capacity, batchSize, TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos),
+            accepted.get(), rejected.get(), written.get(), dropped.get(), batches.get(), retries.get(),
+            replayed.get(), lastBatchSize, last, committedSequence, journalBytes);
+    }
+    
+    public record Stats(int queued, int capacity, int batchSize, long flushIntervalMillis,
+                        long accepted, long rejected, long written, long dropped, long batches,
+                        long retries, long replayed, int lastBatchSize, long lastSequence,
+                        long committedSequence, long journalBytes) {
+    }
+    
+    private record Pending(long sequence, Review review, String line, long acceptedNanos) {
+    }
+}
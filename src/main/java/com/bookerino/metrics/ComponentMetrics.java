@@ -0,0 +1,230 @@
+
+package com.bookerino.metrics;
+
+import com.bookerino.admission.AdmissionFilter;
+import com.bookerino.cache.RoomCache;
+import com.bookerino.database.ChangeFeed;
+import com.bookerino.database.ConnectionPool;
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.database.ReplicaSet;
+import com.bookerino.events.RemoteChanges;
+import com.bookerino.handlers.EventStream;
+import com.bookerino.handlers.RequestCoalescer;
+import com.bookerino.ingest.ReviewIngestQueue;
+import com.bookerino.pricing.QuoteEngine;
+import com.bookerino.server.ConnectionFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * {@link Metrics.Collector}s for the server's shared components.
+ */
+public final class ComponentMetrics {
+    private ComponentMetrics() {
+    }
+    
+    public static Metrics.Collector connectionPool() {
+        return out -> {
+            ConnectionPool.Stats stats = DatabaseConnection.getPoolStats();
+            if (stats == null) {
+                return;
+            }
+            gauge(out, "bookerino_db_pool_active_connections", "Connections currently borrowed.", stats.active());
+            gauge(out, "bookerino_db_pool_idle_connections", "Connections idle in the pool.", stats.idle());
+            gauge(out, "bookerino_db_pool_max_connections", "Configured pool size.", stats.maxSize());
+            gauge(out, "bookerino_db_pool_waiting_threads", "Threads waiting to borrow a connection.", stats.waiting());
+            counter(out, "bookerino_db_pool_borrows_total", "Connections borrowed.", stats.borrows());
+            counter(out, "bookerino_db_pool_timeouts_total", "Borrows that timed out.", stats.timeouts());
+            counter(out, "bookerino_db_pool_created_total", "Physical connections opened.", stats.created());
+            counter(out, "bookerino_db_pool_destroyed_total", "Physical connections closed.", stats.destroyed());
+            counter(out, "bookerino_db_pool_leaks_total", "Connections held past the leak threshold.", stats.leaks());
+            counter(out, "bookerino_db_statement_cache_hits_total", "Prepared statements reused from a connection's cache.", stats.statementHits());
+            counter(out, "bookerino_db_statement_cache_misses_total", "Prepared statements created by the driver.", stats.statementMisses());
+            gauge(out, "bookerino_db_pool_wait_avg_seconds", "Average time spent waiting to borrow.", stats.avgWaitMillis() / 1000);
+            gauge(out, "bookerino_db_pool_wait_max_seconds", "Longest time spent waiting to borrow.", stats.maxWaitMillis() / 1000);
+        };
+    }
+    
+    public static Metrics.Collector replicas(ReplicaSet replicas) {
+        return out -> {
+            List<ReplicaSet.Stats> stats = replicas.getStats();
+            out.family("bookerino_db_replica_healthy", "gauge", "Whether the read replica is in rotation (1) or not (0).");
+            for (ReplicaSet.Stats replica : stats) {
+                out.sample("bookerino_db_replica_healthy", replica.healthy() ? 1 : 0, "replica", replica.name());
+            }
+            out.family("bookerino_db_replica_lag_seconds", "gauge", "Replay lag at the last health check.");
+            for (ReplicaSet.Stats replica : stats) {
+                out.sample("bookerino_db_replica_lag_seconds", replica.lagMillis() / 1000.0, "replica", replica.name());
+            }
+            out.family("bookerino_db_replica_reads_total", "counter", "Connections borrowed from the read replica.");
+            for (ReplicaSet.Stats replica : stats) {
+                out.sample("bookerino_db_replica_reads_total", replica.reads(), "replica", replica.name());
+            }
+            out.family("bookerino_db_replica_busy_total", "counter", "Reads that skipped the replica because its pool was exhausted.");
+            for (ReplicaSet.Stats replica : stats) {
+                out.sample("bookerino_db_replica_busy_total", replica.busy(), "replica", replica.name());
+            }
+            out.family("bookerino_db_replica_failovers_total", "counter", "Times the replica was taken out of rotation.");
+            for (ReplicaSet.Stats replica : stats) {
+                out.sample("bookerino_db_replica_failovers_total", replica.failovers(), "replica", replica.name());
+            }
+            out.family("bookerino_db_replica_active_connections", "gauge", "Replica connections currently borrowed.");
+            for (ReplicaSet.Stats replica : stats) {
+                out.sample("bookerino_db_replica_active_connections", replica.pool().active(), "replica", replica.name());
+            }
+            out.family("bookerino_db_primary_reads_total", "counter", "Replica-eligible reads sent to the primary, by reason.");
+            out.sample("bookerino_db_primary_reads_total", replicas.getRecentlyChangedReads(), "reason", "recently_changed");
+            out.sample("bookerino_db_primary_reads_total", replicas.getUnavailableReads(), "reason", "no_replica");
+        };
+    }
+    
+    public static Metrics.Collector executor(ThreadPoolExecutor executor) {
+        return out -> {
+            gauge(out, "bookerino_http_executor_active_threads", "Threads running an exchange.", executor.getActiveCount());
+            gauge(out, "bookerino_http_executor_pool_threads", "Threads in the request pool.", executor.getPoolSize());
+            gauge(out, "bookerino_http_executor_max_threads", "Maximum threads in the request pool.", executor.getMaximumPoolSize());
+            gauge(out, "bookerino_http_executor_queued_tasks", "Exchanges waiting for a thread.", executor.getQueue().size());
+            gauge(out, "bookerino_http_executor_queue_remaining", "Free slots in the request queue.", executor.getQueue().remainingCapacity());
+            counter(out, "bookerino_http_executor_completed_total", "Exchanges the pool has finished.", executor.getCompletedTaskCount());
+        };
+    }
+    
+    public static Metrics.Collector connections(ConnectionFilter connections) {
+        return out -> {
+            ConnectionFilter.Stats stats = connections.getStats();
+            counter(out, "bookerino_http_exchanges_total", "Exchanges served across all routes.", stats.exchanges());
+            counter(out, "bookerino_http_connections_opened_total", "Client connections opened (estimated from client address).", stats.opened());
+            counter(out, "bookerino_http_connections_closed_on_drain_total", "Connections closed because the server was stopping.", stats.closedOnDrain());
+            gauge(out, "bookerino_http_connections_open", "Client connections used within the idle timeout (estimated).", stats.open());
+            gauge(out, "bookerino_http_connection_reuse_ratio", "Share of exchanges served on a kept-alive connection.", stats.reuseRatio());
+            gauge(out, "bookerino_http_exchanges_in_flight", "Exchanges currently being handled.", stats.inFlight());
+        };
+    }
+    
+    public static Metrics.Collector admission(List<AdmissionFilter> filters) {
+        return out -> {
+            List<AdmissionFilter.Stats> stats = new ArrayList<>();
+            for (AdmissionFilter filter : filters) {
+                stats.add(filter.getStats());
+            }
+            out.family("bookerino_admission_admitted_total", "counter", "Requests passed on to the handler.");
+            for (AdmissionFilter.Stats route : stats) {
+                out.sample("bookerino_admission_admitted_total", route.admitted(), "route", route.route());
+            }
+            out.family("bookerino_admission_rejected_total", "counter", "Requests answered with 429.");
+            for (AdmissionFilter.Stats route : stats) {
+                out.sample("bookerino_admission_rejected_total", route.rateLimited(), "route", route.route(), "reason", "rate");
+                out.sample("bookerino_admission_rejected_total", route.concurrencyLimited(), "route", route.route(), "reason", "concurrency");
+            }
+            out.family("bookerino_admission_clients", "gauge", "Clients tracked by the route's rate limiter.");
+            for (AdmissionFilter.Stats route : stats) {
+                out.sample("bookerino_admission_clients", route.clients(), "route", route.route());
+            }
+            out.family("bookerino_admission_running", "gauge", "Admitted requests still running.");
+            for (AdmissionFilter.Stats route : stats) {
+                out.sample("bookerino_admission_running", route.running(), "route", route.route());
+            }
+        };
+    }
+    
+    public static Metrics.Collector coalescing(RequestCoalescer coalescer) {
+        return out -> {
+            List<RequestCoalescer.Stats> stats = coalescer.getStats();
+            out.family("bookerino_coalescing_requests_total", "counter", "Coalescing-eligible GETs and bypassed ones, by outcome.");
+            for (RequestCoalescer.Stats route : stats) {
+                out.sample("bookerino_coalescing_requests_total", route.executed(), "route", route.route(), "outcome", "executed");
+                out.sample("bookerino_coalescing_requests_total", route.joined(), "route", route.route(), "outcome", "joined");
+                out.sample("bookerino_coalescing_requests_total", route.cached(), "route", route.route(), "outcome", "cached");
+                out.sample("bookerino_coalescing_requests_total", route.fallbacks(), "route", route.route(), "outcome", "fallback");
+                out.sample("bookerino_coalescing_requests_total", route.bypassed(), "route", route.route(), "outcome", "bypassed");
+            }
+            out.family("bookerino_coalescing_ratio", "gauge", "Share of eligible GETs answered without running the handler.");
+            for (RequestCoalescer.Stats route : stats) {
+                out.sample("bookerino_coalescing_ratio", route.coalescedRatio(), "route", route.route());
+            }
+            gauge(out, "bookerino_coalescing_entries", "Responses running or held in the micro-cache.", coalescer.getEntries());
+        };
+    }
+    
+    public static Metrics.Collector roomCache(RoomCache cache) {
+        return out -> {
+            RoomCache.Stats stats = cache.getStats();
+            counter(out, "bookerino_room_cache_hits_total", "Room cache hits.", stats.hits());
+            counter(out, "bookerino_room_cache_misses_total", "Room cache misses.", stats.misses());
+            counter(out, "bookerino_room_cache_evictions_total", "Entries evicted to stay within size.", stats.evictions());
+            counter(out, "bookerino_room_cache_expirations_total", "Entries dropped after their TTL.", stats.expirations());
+            counter(out, "bookerino_room_cache_invalidations_total", "List views invalidated by writes.", stats.invalidations());
+            gauge(out, "bookerino_room_cache_rooms", "Rooms held in the cache.", stats.rooms());
+            gauge(out, "bookerino_room_cache_views", "List views held in the cache.", stats.views());
+        };
+    }
+    
+    public static Metrics.Collector quotes(QuoteEngine engine) {
+        return out -> {
+            QuoteEngine.Stats stats = engine.getStats();
+            counter(out, "bookerino_quotes_total", "Stays priced.", stats.quotes());
+            counter(out, "bookerino_quote_rate_table_compilations_total", "Room rate tables compiled.", stats.compilations());
+            gauge(out, "bookerino_quote_rate_tables", "Compiled room rate tables held.", stats.tables());
+        };
+    }
+    
+    public static Metrics.Collector changeFeed(ChangeFeed feed, RemoteChanges remote) {
+        return out -> {
+            ChangeFeed.Stats stats = feed.getStats();
+            gauge(out, "bookerino_change_feed_connected", "Whether the change feed is listening (1) or reconnecting (0).", stats.connected() ? 1 : 0);
+            out.family("bookerino_change_feed_notifications_total", "counter", "Change notifications received, by writer.");
+            out.sample("bookerino_change_feed_notifications_total", stats.local(), "origin", "local");
+            out.sample("bookerino_change_feed_notifications_total", stats.remote(), "origin", "remote");
+            counter(out, "bookerino_change_feed_malformed_total", "Notifications that could not be parsed.", stats.malformed());
+            counter(out, "bookerino_change_feed_reconnects_total", "Times the feed reconnected after losing its connection.", stats.reconnects());
+            RemoteChanges.Stats applied = remote.getStats();
+            counter(out, "bookerino_remote_changes_applied_total", "Rows written by other processes applied to local state.", applied.applied());
+            counter(out, "bookerino_remote_changes_resyncs_total", "Table resyncs run for changes that could not be applied row by row.", applied.resyncs());
+        };
+    }
+    
+    public static Metrics.Collector events(EventStream events) {
+        return out -> {
+            EventStream.Stats stats = events.getStats();
+            gauge(out, "bookerino_event_subscribers", "Open /api/events streams.", stats.subscribers());
+            counter(out, "bookerino_events_published_total", "Change events published to the stream.", stats.published());
+            counter(out, "bookerino_events_delivered_total", "Events written to subscribers.", stats.delivered());
+            counter(out, "bookerino_event_resets_total", "Reset events sent to subscribers that missed events.", stats.resets());
+            counter(out, "bookerino_event_disconnects_total", "Streams closed because the client went away.", stats.disconnects());
+            counter(out, "bookerino_event_stalled_total", "Streams cut off because a write to them did not finish in time.", stats.stalled());
+        };
+    }
+    
+    public static Metrics.Collector reviewIngest(ReviewIngestQueue ingest) {
+        return out -> {
+            ReviewIngestQueue.Stats stats = ingest.getStats();
+            gauge(out, "bookerino_review_ingest_queued", "Accepted reviews waiting to be written.", stats.queued());
+            gauge(out, "bookerino_review_ingest_capacity", "Reviews the queue holds before shedding.", stats.capacity());
+            gauge(out, "bookerino_review_ingest_batch_size", "Configured maximum rows per insert batch.", stats.batchSize());
+            gauge(out, "bookerino_review_ingest_flush_interval_seconds", "Longest a review waits for its batch to fill.", stats.flushIntervalMillis() / 1000.0);
+            gauge(out, "bookerino_review_ingest_last_batch_rows", "Rows in the most recent batch.", stats.lastBatchSize());
+            gauge(out, "bookerino_review_ingest_journal_bytes", "Size of the local review journal.", stats.journalBytes());
+            gauge(out, "bookerino_review_ingest_uncommitted", "Journaled reviews not yet committed.", stats.lastSequence() - stats.committedSequence());
+            counter(out, "bookerino_review_ingest_accepted_total", "Reviews journaled and acknowledged with 202.", stats.accepted());
+            counter(out, "bookerino_review_ingest_rejected_total", "Reviews shed because the queue was full.", stats.rejected());
+            counter(out, "bookerino_review_ingest_written_total", "Reviews inserted by the writer.", stats.written());
+            counter(out, "bookerino_review_ingest_dropped_total", "Journaled reviews the database refused.", stats.dropped());
+            counter(out, "bookerino_review_ingest_batches_total", "Insert batches committed.", stats.batches());
+            counter(out, "bookerino_review_ingest_retries_total", "Batches retried after a database error.", stats.retries());
+            
+            out.family("bookerino_review_ingest_flush_duration_seconds", "histogram", "Time to insert and commit one batch.");
+            Metrics.writeHistogram(out, "bookerino_review_ingest_flush_duration_seconds", ingest.getFlushLatency());
+            out.family("bookerino_review_ingest_commit_lag_seconds", "histogram", "Time from acknowledging a review to committing it.");
+            Metrics.writeHistogram(out, "bookerino_review_ingest_commit_lag_seconds", ingest.getCommitLag());
+        };
+    }
+    
+    private static void gauge(PrometheusWriter out, String name, String help, double value) {
+        out.family(name, "gauge", help).sample(name, value);
+    }
+    
+    private static void counter(PrometheusWriter out, String name, String help, double value) {
+        out.family(name, "counter", help).sample(name, value);
+    }
+}
@@ -0,0 +1,95 @@
+
+package com.bookerino.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram: every power of two of microseconds
+ * is split into eight equal sub-buckets, so any recorded value is known to within 12.5% from
+ * 1µs up to about 19 hours. Recording is a couple of shifts and two atomic adds, with no
+ * allocation and no locking.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(indexOf(micros));
+        count.increment();
+        sumMicros.add(micros);
+    }
+    
+    static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        int sub = (int) (Math.min(micros >>> (exponent - SUB_BITS), 2 * SUB_BUCKETS - 1) & (SUB_BUCKETS - 1));
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+    
+    /**
+     * Exclusive upper bound, in microseconds, of the values that land in bucket {@code index}.
+     */
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS);
+    }
+    
+    public long getCount() {
+        return count.sum();
+    }
+    
+    public double getSumSeconds() {
+        return sumMicros.sum() / 1e6;
+    }
+    
+    /**
+     * Number of recorded values below {@code 2^exponent} microseconds.
+     */
+    public long countBelowPowerOfTwo(int exponent) {
+        int end = exponent <= SUB_BITS ? 1 << exponent : (exponent - SUB_BITS + 1) * SUB_BUCKETS;
+        long total = 0;
+        for (int i = 0; i < Math.min(end, BUCKETS); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+    
+    /**
+     * Upper bound of the bucket holding the value at {@code quantile} (0..1), in seconds, or 0
+     * when nothing has been recorded.
+     */
+    public double quantileSeconds(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return upperBoundOf(i) / 1e6;
+            }
+        }
+        return upperBoundOf(BUCKETS - 1) / 1e6;
+    }
+}
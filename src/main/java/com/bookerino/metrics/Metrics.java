@@ -0,0 +1,210 @@
+
+package com.bookerino.metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Process-wide metrics registry behind {@code /metrics}.
+ *
+ * Request and query metrics are looked up once (per context, per SQL string) and then recorded
+ * into directly. Gauges that belong to other components (pool, executor, caches) are supplied
+ * by {@link Collector}s that run only when the endpoint is scraped.
+ */
+public final class Metrics {
+    /** Histogram buckets exported from 64µs (2^6) to about 67s (2^26). */
+    private static final int FIRST_BUCKET_EXPONENT = 6;
+    private static final int LAST_BUCKET_EXPONENT = 26;
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final int MAX_CACHED_STATEMENTS = 2000;
+    
+    private static final Map<String, RequestMetrics> routes = new ConcurrentSkipListMap<>();
+    private static final Map<String, QueryMetrics> queries = new ConcurrentSkipListMap<>();
+    private static final Map<String, QueryMetrics> queriesBySql = new ConcurrentHashMap<>();
+    private static final Map<String, QueryMetrics> statements = new ConcurrentSkipListMap<>();
+    private static final CopyOnWriteArrayList<Collector> collectors = new CopyOnWriteArrayList<>();
+    
+    private Metrics() {
+    }
+    
+    /**
+     * Writes gauges for one component at scrape time.
+     */
+    @FunctionalInterface
+    public interface Collector {
+        void collect(PrometheusWriter out);
+    }
+    
+    public static RequestMetrics route(String route) {
+        return routes.computeIfAbsent(route, RequestMetrics::new);
+    }
+    
+    /**
+     * Metrics for the statement with this SQL text. Distinct SQL strings are remembered up to a
+     * limit, after which the label is derived again on every call.
+     */
+    public static QueryMetrics query(String sql) {
+        QueryMetrics metrics = queriesBySql.get(sql);
+        if (metrics != null) {
+            return metrics;
+        }
+        String label = QueryMetrics.labelOf(sql);
+        metrics = queries.computeIfAbsent(label, l -> {
+            int space = l.indexOf(' ');
+            return new QueryMetrics(l.substring(0, space), l.substring(space + 1));
+        });
+        if (queriesBySql.size() < MAX_CACHED_STATEMENTS) {
+            queriesBySql.putIfAbsent(sql, metrics);
+        }
+        return metrics;
+    }
+    
+    /**
+     * Gives the statement with this SQL text its own timings under {@code name}, in addition to
+     * its operation-and-table metrics. Must be called before the statement first runs.
+     */
+    public static QueryMetrics statement(String name, String sql) {
+        QueryMetrics named = statements.computeIfAbsent(name, n -> {
+            String label = QueryMetrics.labelOf(sql);
+            int space = label.indexOf(' ');
+            QueryMetrics parent = queries.computeIfAbsent(label,
+                l -> new QueryMetrics(l.substring(0, space), l.substring(space + 1)));
+            return new QueryMetrics(n, parent);
+        });
+        queriesBySql.put(sql, named);
+        return named;
+    }
+    
+    public static void register(Collector collector) {
+        collectors.add(collector);
+    }
+    
+    public static void unregister(Collector collector) {
+        collectors.remove(collector);
+    }
+    
+    public static String scrape() {
+        PrometheusWriter out = new PrometheusWriter();
+        writeRequests(out);
+        writeQueries(out);
+        for (Collector collector : collectors) {
+            try {
+                collector.collect(out);
+            } catch (RuntimeException e) {
+                System.err.println("Metrics collector failed: " + e.getMessage());
+            }
+        }
+        return out.toString();
+    }
+    
+    private static void writeRequests(PrometheusWriter out) {
+        out.family("bookerino_http_requests_total", "counter", "HTTP requests by route, method and status class.");
+        for (RequestMetrics route : routes.values()) {
+            for (int m = 0; m < RequestMetrics.METHODS.length; m++) {
+                for (int s = 0; s < RequestMetrics.STATUS_CLASSES.length; s++) {
+                    long count = route.statusCount(m, s);
+                    if (count > 0) {
+                        out.sample("bookerino_http_requests_total", count, "route", route.getRoute(),
+                            "method", RequestMetrics.METHODS[m], "status", RequestMetrics.STATUS_CLASSES[s]);
+                    }
+                }
+            }
+        }
+        
+        out.family("bookerino_http_request_duration_seconds", "histogram", "HTTP request latency by route and method.");
+        for (RequestMetrics route : routes.values()) {
+            for (int m = 0; m < RequestMetrics.METHODS.length; m++) {
+                writeHistogram(out, "bookerino_http_request_duration_seconds", route.latency(m),
+                    "route", route.getRoute(), "method", RequestMetrics.METHODS[m]);
+            }
+        }
+        
+        out.family("bookerino_http_request_duration_quantile_seconds", "gauge", "HTTP request latency quantiles since startup.");
+        for (RequestMetrics route : routes.values()) {
+            for (int m = 0; m < RequestMetrics.METHODS.length; m++) {
+                writeQuantiles(out, "bookerino_http_request_duration_quantile_seconds", route.latency(m),
+                    "route", route.getRoute(), "method", RequestMetrics.METHODS[m]);
+            }
+        }
+        
+        out.family("bookerino_http_requests_in_flight", "gauge", "HTTP requests currently being handled.");
+        for (RequestMetrics route : routes.values()) {
+            out.sample("bookerino_http_requests_in_flight", route.getInFlight(), "route", route.getRoute());
+        }
+        
+        out.family("bookerino_http_handler_exceptions_total", "counter", "Exceptions that escaped a handler.");
+        for (RequestMetrics route : routes.values()) {
+            out.sample("bookerino_http_handler_exceptions_total", route.getExceptions(), "route", route.getRoute());
+        }
+    }
+    
+    private static void writeQueries(PrometheusWriter out) {
+        out.family("bookerino_db_query_duration_seconds", "histogram", "JDBC statement execution time by operation and table.");
+        for (QueryMetrics query : queries.values()) {
+            writeHistogram(out, "bookerino_db_query_duration_seconds", query.getLatency(),
+                "operation", query.getOperation(), "table", query.getTable());
+        }
+        
+        out.family("bookerino_db_query_duration_quantile_seconds", "gauge", "JDBC statement execution time quantiles since startup.");
+        for (QueryMetrics query : queries.values()) {
+            writeQuantiles(out, "bookerino_db_query_duration_quantile_seconds", query.getLatency(),
+                "operation", query.getOperation(), "table", query.getTable());
+        }
+        
+        out.family("bookerino_db_query_errors_total", "counter", "JDBC statements that threw.");
+        for (QueryMetrics query : queries.values()) {
+            out.sample("bookerino_db_query_errors_total", query.getErrors(),
+                "operation", query.getOperation(), "table", query.getTable());
+        }
+        
+        out.family("bookerino_db_statement_duration_seconds", "histogram", "Execution time of each named statement.");
+        for (QueryMetrics statement : statements.values()) {
+            writeHistogram(out, "bookerino_db_statement_duration_seconds", statement.getLatency(),
+                "statement", statement.getName());
+        }
+        
+        out.family("bookerino_db_statement_duration_quantile_seconds", "gauge", "Named statement execution time quantiles since startup.");
+        for (QueryMetrics statement : statements.values()) {
+            writeQuantiles(out, "bookerino_db_statement_duration_quantile_seconds", statement.getLatency(),
+                "statement", statement.getName());
+        }
+        
+        out.family("bookerino_db_statement_errors_total", "counter", "Named statements that threw.");
+        for (QueryMetrics statement : statements.values()) {
+            out.sample("bookerino_db_statement_errors_total", statement.getErrors(), "statement", statement.getName());
+        }
+    }
+    
+    static void writeHistogram(PrometheusWriter out, String name, LatencyHistogram histogram, String... labels) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        String[] bucketLabels = Arrays.copyOf(labels, labels.length + 2);
+        bucketLabels[labels.length] = "le";
+        for (int e = FIRST_BUCKET_EXPONENT; e <= LAST_BUCKET_EXPONENT; e++) {
+            bucketLabels[labels.length + 1] = Double.toString((1L << e) / 1e6);
+            out.sample(name + "_bucket", histogram.countBelowPowerOfTwo(e), bucketLabels);
+        }
+        // Counted from the buckets rather than the counter so the series stays cumulative
+        long count = histogram.countBelowPowerOfTwo(63);
+        bucketLabels[labels.length + 1] = "+Inf";
+        out.sample(name + "_bucket", count, bucketLabels);
+        out.sample(name + "_sum", histogram.getSumSeconds(), labels);
+        out.sample(name + "_count", count, labels);
+    }
+    
+    static void writeQuantiles(PrometheusWriter out, String name, LatencyHistogram histogram, String... labels) {
+        if (histogram.getCount() == 0) {
+            return;
+        }
+        String[] quantileLabels = Arrays.copyOf(labels, labels.length + 2);
+        quantileLabels[labels.length] = "quantile";
+        for (double q : QUANTILES) {
+            quantileLabels[labels.length + 1] = Double.toString(q);
+            out.sample(name, histogram.quantileSeconds(q), quantileLabels);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+
+package com.bookerino.metrics;
+
+import com.sun.net.httpserver.*;
+import java.io.IOException;
+
+/**
+ * Times every exchange on one context and counts it by method and response status. The route's
+ * {@link RequestMetrics} is resolved when the filter is created, so nothing is looked up or
+ * allocated per request.
+ */
+public class MetricsFilter extends Filter {
+    private final RequestMetrics metrics;
+    
+    public MetricsFilter(String route) {
+        this.metrics = Metrics.route(route);
+    }
+    
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long start = System.nanoTime();
+        metrics.started();
+        try {
+            chain.doFilter(exchange);
+            metrics.record(exchange.getRequestMethod(), exchange.getResponseCode(), System.nanoTime() - start);
+        } catch (IOException | RuntimeException e) {
+            metrics.exceptionThrown();
+            int status = exchange.getResponseCode();
+            metrics.record(exchange.getRequestMethod(), status > 0 ? status : 500, System.nanoTime() - start);
+            throw e;
+        }
+    }
+    
+    @Override
+    public String description() {
+        return "Request metrics for " + metrics.getRoute();
+    }
+}
@@ -0,0 +1,83 @@
+
+package com.bookerino.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution timings for one kind of SQL statement, labelled by operation and main table
+ * ({@code select rooms}, {@code insert bookings}). A named statement has its own timings and
+ * also records into the operation-and-table metrics it belongs to.
+ */
+public class QueryMetrics {
+    private final String operation;
+    private final String table;
+    private final String name;
+    private final QueryMetrics parent;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    
+    QueryMetrics(String operation, String table) {
+        this.operation = operation;
+        this.table = table;
+        this.name = null;
+        this.parent = null;
+    }
+    
+    QueryMetrics(String name, QueryMetrics parent) {
+        this.operation = parent.operation;
+        this.table = parent.table;
+        this.name = name;
+        this.parent = parent;
+    }
+    
+    public void record(long elapsedNanos, boolean failed) {
+        latency.recordNanos(elapsedNanos);
+        if (failed) {
+            errors.increment();
+        }
+        if (parent != null) {
+            parent.record(elapsedNanos, failed);
+        }
+    }
+    
+    String getName() {
+        return name;
+    }
+    
+    String getOperation() {
+        return operation;
+    }
+    
+    String getTable() {
+        return table;
+    }
+    
+    LatencyHistogram getLatency() {
+        return latency;
+    }
+    
+    long getErrors() {
+        return errors.sum();
+    }
+    
+    /**
+     * Derives {@code operation table} from SQL text: the first keyword, and the identifier after
+     * the first FROM, INTO or UPDATE.
+     */
+    static String labelOf(String sql) {
+        String[] words = sql.trim().toLowerCase(Locale.ROOT).split("[\\s(),;]+");
+        String operation = words.length > 0 && !words[0].isEmpty() ? words[0] : "other";
+        String table = "none";
+        for (int i = 0; i < words.length - 1; i++) {
+            if (words[i].equals("from") || words[i].equals("into") || words[i].equals("update")) {
+                String candidate = words[i + 1];
+                if (!candidate.isEmpty() && !candidate.equals("select")) {
+                    table = candidate;
+                    break;
+                }
+            }
+        }
+        return operation + " " + table;
+    }
+}
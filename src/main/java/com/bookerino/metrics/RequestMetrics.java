@@ -0,0 +1,87 @@
+
+package com.bookerino.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for one route, split by HTTP method. Methods and status
+ * classes map to fixed array slots so {@link #record} never allocates.
+ */
+public class RequestMetrics {
+    static final String[] METHODS = { "GET", "POST", "PUT", "PATCH", "DELETE", "HEAD", "OPTIONS", "OTHER" };
+    static final String[] STATUS_CLASSES = { "1xx", "2xx", "3xx", "4xx", "5xx", "none" };
+    
+    private final String route;
+    private final LatencyHistogram[] latencies = new LatencyHistogram[METHODS.length];
+    private final AtomicLongArray statuses = new AtomicLongArray(METHODS.length * STATUS_CLASSES.length);
+    private final LongAdder inFlight = new LongAdder();
+    private final LongAdder exceptions = new LongAdder();
+    
+    RequestMetrics(String route) {
+        this.route = route;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+    
+    public String getRoute() {
+        return route;
+    }
+    
+    public void started() {
+        inFlight.increment();
+    }
+    
+    /**
+     * @param statusCode the response code sent, or -1 if the handler never sent one
+     */
+    public void record(String method, int statusCode, long elapsedNanos) {
+        inFlight.decrement();
+        int m = methodIndex(method);
+        latencies[m].recordNanos(elapsedNanos);
+        int statusClass = statusCode >= 100 && statusCode < 600 ? statusCode / 100 - 1 : STATUS_CLASSES.length - 1;
+        statuses.incrementAndGet(m * STATUS_CLASSES.length + statusClass);
+    }
+    
+    public void exceptionThrown() {
+        exceptions.increment();
+    }
+    
+    static int methodIndex(String method) {
+        switch (method) {
+            case "GET":
+                return 0;
+            case "POST":
+                return 1;
+            case "PUT":
+                return 2;
+            case "PATCH":
+                return 3;
+            case "DELETE":
+                return 4;
+            case "HEAD":
+                return 5;
+            case "OPTIONS":
+                return 6;
+            default:
+                return 7;
+        }
+    }
+    
+    LatencyHistogram latency(int methodIndex) {
+        return latencies[methodIndex];
+    }
+    
+    long statusCount(int methodIndex, int statusClass) {
+        return statuses.get(methodIndex * STATUS_CLASSES.length + statusClass);
+    }
+    
+    long getInFlight() {
+        return inFlight.sum();
+    }
+    
+    long getExceptions() {
+        return exceptions.sum();
+    }
+}
@@ -0,0 +1,15 @@
+
+package com.bookerino.model;
+
+import java.time.LocalDate;
+
+public record Booking(int id, String guestName, String guestEmail, int roomId, LocalDate checkIn,
+                      LocalDate checkOut, String status, double totalPrice) {
+    public boolean isConfirmed() {
+        return "confirmed".equals(status);
+    }
+    
+    public boolean isCancelled() {
+        return "cancelled".equals(status);
+    }
+}
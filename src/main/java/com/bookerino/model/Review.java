@@ -0,0 +1,5 @@
+
+package com.bookerino.model;
+
+public record Review(int id, int roomId, String guestName, int rating, String comment) {
+}
@@ -0,0 +1,9 @@
+
+package com.bookerino.model;
+
+public record Room(int id, String name, String type, int capacity, double price, String status,
+                   String imageUrl, String description) {
+    public boolean isOccupied() {
+        return "occupied".equals(status);
+    }
+}
@@ -0,0 +1,153 @@
+
+package com.bookerino.pricing;
+
+import com.bookerino.config.Env;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.MonthDay;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Date-based adjustments to a room's nightly rate. A night's multiplier is the weekend multiplier
+ * (on weekend nights) times the multiplier of the first season containing it; the stay's subtotal
+ * is then reduced by the largest length-of-stay discount it qualifies for.
+ *
+ * Read from the environment:
+ * <ul>
+ *   <li>PRICING_WEEKEND_MULTIPLIER, e.g. {@code 1.2}, applied to PRICING_WEEKEND_NIGHTS
+ *       (default {@code FRIDAY,SATURDAY}: the nights before Saturday and Sunday)</li>
+ *   <li>PRICING_SEASONS, e.g. {@code 06-15..09-15:1.3,12-20..01-05:1.25}; both days are nights
+ *       of the season, and a season may wrap around the new year</li>
+ *   <li>PRICING_STAY_DISCOUNTS, e.g. {@code 7:0.10,28:0.20} for 10% off stays of 7 nights or more
+ *       and 20% off from 28</li>
+ * </ul>
+ * With none of them set every night costs the room's rate.
+ */
+public class PricingRules {
+    private final double weekendMultiplier;
+    private final Set<DayOfWeek> weekendNights;
+    private final List<Season> seasons;
+    private final List<StayDiscount> discounts;
+    
+    public PricingRules(double weekendMultiplier, Set<DayOfWeek> weekendNights, List<Season> seasons, List<StayDiscount> discounts) {
+        this.weekendMultiplier = weekendMultiplier;
+        this.weekendNights = weekendNights.isEmpty() ? EnumSet.noneOf(DayOfWeek.class) : EnumSet.copyOf(weekendNights);
+        this.seasons = List.copyOf(seasons);
+        List<StayDiscount> sorted = new ArrayList<>(discounts);
+        sorted.sort((a, b) -> Integer.compare(b.minNights(), a.minNights()));
+        this.discounts = List.copyOf(sorted);
+    }
+    
+    public static PricingRules fromEnvironment() {
+        return new PricingRules(
+            positive("PRICING_WEEKEND_MULTIPLIER", Env.getDouble("PRICING_WEEKEND_MULTIPLIER", 1.0)),
+            parseDays(Env.getString("PRICING_WEEKEND_NIGHTS", "FRIDAY,SATURDAY")),
+            parseSeasons(Env.getString("PRICING_SEASONS", "")),
+            parseDiscounts(Env.getString("PRICING_STAY_DISCOUNTS", "")));
+    }
+    
+    /**
+     * Multiplier for the night starting on {@code night}.
+     */
+    public double multiplier(LocalDate night) {
+        double multiplier = weekendNights.contains(night.getDayOfWeek()) ? weekendMultiplier : 1.0;
+        MonthDay day = MonthDay.from(night);
+        for (Season season : seasons) {
+            if (season.contains(day)) {
+                return multiplier * season.multiplier();
+            }
+        }
+        return multiplier;
+    }
+    
+    /**
+     * Fraction taken off the subtotal of a stay of {@code nights}, 0 when none applies.
+     */
+    public double discount(int nights) {
+        for (StayDiscount discount : discounts) {
+            if (nights >= discount.minNights()) {
+                return discount.rate();
+            }
+        }
+        return 0;
+    }
+    
+    public record Season(MonthDay first, MonthDay last, double multiplier) {
+        boolean contains(MonthDay day) {
+            if (!first.isAfter(last)) {
+                return !day.isBefore(first) && !day.isAfter(last);
+            }
+            return !day.isBefore(first) || !day.isAfter(last);
+        }
+    }
+    
+    public record StayDiscount(int minNights, double rate) {
+    }
+    
+    private static Set<DayOfWeek> parseDays(String value) {
+        Set<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String day : value.split(",")) {
+            if (day.isBlank()) {
+                continue;
+            }
+            try {
+                days.add(DayOfWeek.valueOf(day.trim().toUpperCase(Locale.ROOT)));
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("PRICING_WEEKEND_NIGHTS must list days of the week, got '" + day.trim() + "'");
+            }
+        }
+        return days;
+    }
+    
+    private static List<Season> parseSeasons(String value) {
+        List<Season> seasons = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            try {
+                String[] rangeAndMultiplier = entry.trim().split(":");
+                String[] range = rangeAndMultiplier[0].split("\\.\\.");
+                seasons.add(new Season(
+                    MonthDay.parse("--" + range[0].trim()),
+                    MonthDay.parse("--" + range[1].trim()),
+                    positive("PRICING_SEASONS", Double.parseDouble(rangeAndMultiplier[1].trim()))));
+            } catch (DateTimeParseException | ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new RuntimeException("PRICING_SEASONS entries must look like MM-DD..MM-DD:multiplier, got '" + entry.trim() + "'");
+            }
+        }
+        return seasons;
+    }
+    
+    private static List<StayDiscount> parseDiscounts(String value) {
+        List<StayDiscount> discounts = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            try {
+                String[] parts = entry.trim().split(":");
+                double rate = Double.parseDouble(parts[1].trim());
+                if (rate < 0 || rate >= 1) {
+                    throw new NumberFormatException();
+                }
+                discounts.add(new StayDiscount(Integer.parseInt(parts[0].trim()), rate));
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                throw new RuntimeException("PRICING_STAY_DISCOUNTS entries must look like nights:fraction (0 to 1), got '" + entry.trim() + "'");
+            }
+        }
+        return discounts;
+    }
+    
+    private static double positive(String name, double value) {
+        if (!(value > 0)) {
+            throw new RuntimeException(name + " multipliers must be positive, got " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,12 @@
+
+package com.bookerino.pricing;
+
+import java.time.LocalDate;
+
+/**
+ * The price of one stay. {@code subtotal} is the sum of the nightly prices, {@code total} what the
+ * guest pays after the length-of-stay discount.
+ */
+public record Quote(int roomId, LocalDate checkIn, LocalDate checkOut, int nights, double nightlyRate,
+                    double subtotal, double discountRate, double discount, double total) {
+}
@@ -0,0 +1,175 @@
+
+package com.bookerino.pricing;
+
+import com.bookerino.config.Env;
+import com.bookerino.events.ChangeListener;
+import com.bookerino.model.Room;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Prices stays from each room's nightly rate and the {@link PricingRules}.
+ *
+ * The rules' multiplier for every night of a calendar window ({@code PRICING_HORIZON_DAYS} from
+ * yesterday) is computed once. Each room then gets a compiled rate table: the prefix sums of its
+ * rounded nightly prices over the window, so any stay inside it costs two array reads however
+ * long it is. Tables are compiled on first use and dropped when the room's rate changes, whether
+ * that arrives as a {@code roomSaved} event or as a different rate in the room it is asked to
+ * price. Stays outside the window are summed night by night, with identical results.
+ */
+public class QuoteEngine implements ChangeListener {
+    /** The window moves forward this often; until then it only loses days at the front. */
+    private static final int REANCHOR_DAYS = 7;
+    
+    /**
+     * Looks up the room to price, {@code null} if there is none.
+     */
+    @FunctionalInterface
+    public interface RoomSource {
+        Room getRoom(int id) throws SQLException;
+    }
+    
+    private final RoomSource rooms;
+    private final PricingRules rules;
+    private final int horizonDays;
+    private final int maxNights = Env.getInt("PRICING_MAX_NIGHTS", 365);
+    private final Map<Integer, RateTable> tables = new ConcurrentHashMap<>();
+    private volatile Calendar calendar;
+    private final LongAdder quotes = new LongAdder();
+    private final LongAdder compilations = new LongAdder();
+    
+    public QuoteEngine(RoomSource rooms) {
+        this(rooms, PricingRules.fromEnvironment(), Env.getInt("PRICING_HORIZON_DAYS", 730));
+    }
+    
+    public QuoteEngine(RoomSource rooms, PricingRules rules, int horizonDays) {
+        this.rooms = rooms;
+        this.rules = rules;
+        this.horizonDays = Math.max(1, horizonDays);
+    }
+    
+    /**
+     * Prices a stay in room {@code roomId}; {@code null} when the room does not exist.
+     */
+    public Quote quote(int roomId, LocalDate checkIn, LocalDate checkOut) throws SQLException {
+        Room room = rooms.getRoom(roomId);
+        return room != null ? quote(room, checkIn, checkOut) : null;
+    }
+    
+    public Quote quote(Room room, LocalDate checkIn, LocalDate checkOut) {
+        if (!checkIn.isBefore(checkOut)) {
+            throw new IllegalArgumentException("'checkOut' must be after 'checkIn'");
+        }
+        long nights = checkOut.toEpochDay() - checkIn.toEpochDay();
+        if (nights > maxNights) {
+            throw new IllegalArgumentException("Stays are limited to " + maxNights + " nights");
+        }
+        quotes.increment();
+        RateTable table = table(room);
+        long subtotal = table.totalCents(checkIn, checkOut);
+        double discountRate = rules.discount((int) nights);
+        long discount = Math.round(subtotal * discountRate);
+        return new Quote(room.id(), checkIn, checkOut, (int) nights, room.price(),
+            subtotal / 100.0, discountRate, discount / 100.0, (subtotal - discount) / 100.0);
+    }
+    
+    private RateTable table(Room room) {
+        Calendar current = currentCalendar();
+        RateTable table = tables.get(room.id());
+        if (table == null || table.baseRate != room.price() || table.calendar != current) {
+            table = new RateTable(room.price(), current);
+            tables.put(room.id(), table);
+            compilations.increment();
+        }
+        return table;
+    }
+    
+    private Calendar currentCalendar() {
+        Calendar current = calendar;
+        LocalDate today = LocalDate.now();
+        if (current == null || today.isAfter(current.start.plusDays(REANCHOR_DAYS))) {
+            synchronized (this) {
+                current = calendar;
+                if (current == null || today.isAfter(current.start.plusDays(REANCHOR_DAYS))) {
+                    current = new Calendar(today.minusDays(1), horizonDays, rules);
+                    calendar = current;
+                    tables.clear();
+                }
+            }
+        }
+        return current;
+    }
+    
+    @Override
+    public void roomSaved(Room room) {
+        RateTable table = tables.get(room.id());
+        if (table != null && table.baseRate != room.price()) {
+            tables.remove(room.id(), table);
+        }
+    }
+    
+    public Stats getStats() {
+        return new Stats(quotes.sum(), compilations.sum(), tables.size());
+    }
+    
+    public record Stats(long quotes, long compilations, int tables) {
+    }
+    
+    /**
+     * The rules' multiplier for each night of the window.
+     */
+    private static final class Calendar {
+        private final LocalDate start;
+        private final long startDay;
+        private final double[] multipliers;
+        private final PricingRules rules;
+        
+        Calendar(LocalDate start, int days, PricingRules rules) {
+            this.start = start;
+            this.startDay = start.toEpochDay();
+            this.multipliers = new double[days];
+            this.rules = rules;
+            for (int i = 0; i < days; i++) {
+                multipliers[i] = rules.multiplier(start.plusDays(i));
+            }
+        }
+    }
+    
+    /**
+     * One room's nightly prices over the calendar window, as prefix sums in cents.
+     */
+    private static final class RateTable {
+        private final double baseRate;
+        private final Calendar calendar;
+        private final long[] prefix;
+        
+        RateTable(double baseRate, Calendar calendar) {
+            this.baseRate = baseRate;
+            this.calendar = calendar;
+            this.prefix = new long[calendar.multipliers.length + 1];
+            for (int i = 0; i < calendar.multipliers.length; i++) {
+                prefix[i + 1] = prefix[i] + nightCents(calendar.multipliers[i]);
+            }
+        }
+        
+        long totalCents(LocalDate checkIn, LocalDate checkOut) {
+            long from = checkIn.toEpochDay() - calendar.startDay;
+            long to = checkOut.toEpochDay() - calendar.startDay;
+            if (from >= 0 && to < prefix.length) {
+                return prefix[(int) to] - prefix[(int) from];
+            }
+            long total = 0;
+            for (LocalDate night = checkIn; night.isBefore(checkOut); night = night.plusDays(1)) {
+                total += nightCents(calendar.rules.multiplier(night));
+            }
+            return total;
+        }
+        
+        private long nightCents(double multiplier) {
+            return Math.round(baseRate * 100 * multiplier);
+        }
+    }
+}
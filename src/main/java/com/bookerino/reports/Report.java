@@ -0,0 +1,115 @@
+
+package com.bookerino.reports;
+
+import com.bookerino.database.Jdbc;
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.Locale;
+
+/**
+ * The batch reports {@code Main --report} can export. Each one is a single query over a date
+ * range whose rows are written out as they are fetched.
+ */
+public enum Report {
+    /** Every room; the date range does not apply. */
+    ROOMS(
+        "SELECT id, name, type, capacity, price, status, created_at FROM rooms ORDER BY id"
+    ) {
+        @Override
+        void bind(PreparedStatement pstmt, LocalDate from, LocalDate to) {
+        }
+    },
+    
+    /** Bookings with at least one night between {@code from} and {@code to}. */
+    BOOKINGS(
+        "SELECT b.id, b.room_id, r.name AS room_name, b.guest_name, b.guest_email, b.guest_phone, " +
+        "b.check_in, b.check_out, b.status, b.total_price, b.created_at " +
+        "FROM bookings b LEFT JOIN rooms r ON r.id = b.room_id " +
+        "WHERE b.check_in <= ? AND b.check_out > ? ORDER BY b.check_in, b.id"
+    ) {
+        @Override
+        void bind(PreparedStatement pstmt, LocalDate from, LocalDate to) throws SQLException {
+            Jdbc.bind(pstmt, to, from);
+        }
+    },
+    
+    /** Reviews written between {@code from} and {@code to}. */
+    REVIEWS(
+        "SELECT rv.id, rv.room_id, r.name AS room_name, rv.guest_name, rv.rating, rv.comment, rv.created_at " +
+        "FROM reviews rv LEFT JOIN rooms r ON r.id = rv.room_id " +
+        "WHERE rv.created_at >= ? AND rv.created_at < ? ORDER BY rv.created_at, rv.id"
+    ) {
+        @Override
+        void bind(PreparedStatement pstmt, LocalDate from, LocalDate to) throws SQLException {
+            Jdbc.bind(pstmt, from, to.plusDays(1));
+        }
+    },
+    
+    /**
+     * One row per night between {@code from} and {@code to}: rooms booked and sold, the revenue of
+     * confirmed stays spread evenly over their nights, and the bookings and reviews created that day.
+     */
+    ANALYTICS(
+        "WITH days AS (SELECT d::date AS day FROM generate_series(?::date, ?::date, INTERVAL '1 day') d), " +
+        // Each stay in the range expands into its nights within the range, rather than every
+        // day probing every booking
+        "nights AS (" +
+        "SELECT n::date AS day, " +
+        "COUNT(*) AS booked, " +
+        "COUNT(*) FILTER (WHERE b.status = 'confirmed') AS sold, " +
+        "SUM(b.total_price / (b.check_out - b.check_in)) FILTER (WHERE b.status = 'confirmed') AS revenue " +
+        "FROM bookings b, generate_series(GREATEST(b.check_in, ?::date), LEAST(b.check_out - 1, ?::date), INTERVAL '1 day') n " +
+        "WHERE b.check_in <= ? AND b.check_out > ? AND b.status <> 'cancelled' AND b.check_out > b.check_in " +
+        "GROUP BY 1), " +
+        "created AS (" +
+        "SELECT created_at::date AS day, COUNT(*) AS bookings FROM bookings " +
+        "WHERE created_at >= ? AND created_at < ? GROUP BY 1), " +
+        "reviewed AS (" +
+        "SELECT created_at::date AS day, COUNT(*) AS reviews, AVG(rating) AS average_rating FROM reviews " +
+        "WHERE created_at >= ? AND created_at < ? GROUP BY 1) " +
+        "SELECT d.day, (SELECT COUNT(*) FROM rooms) AS rooms, COALESCE(n.booked, 0) AS room_nights_booked, " +
+        "COALESCE(n.sold, 0) AS room_nights_sold, ROUND(COALESCE(n.revenue, 0), 2) AS revenue, " +
+        "COALESCE(c.bookings, 0) AS bookings_created, COALESCE(r.reviews, 0) AS reviews_created, " +
+        "ROUND(r.average_rating, 2) AS average_rating " +
+        "FROM days d LEFT JOIN nights n ON n.day = d.day LEFT JOIN created c ON c.day = d.day " +
+        "LEFT JOIN reviewed r ON r.day = d.day " +
+        "ORDER BY d.day"
+    ) {
+        @Override
+        void bind(PreparedStatement pstmt, LocalDate from, LocalDate to) throws SQLException {
+            LocalDate end = to.plusDays(1);
+            Jdbc.bind(pstmt, from, to, from, to, to, from, from, end, from, end);
+        }
+    };
+    
+    private final String sql;
+    
+    Report(String sql) {
+        this.sql = sql;
+    }
+    
+    abstract void bind(PreparedStatement pstmt, LocalDate from, LocalDate to) throws SQLException;
+    
+    PreparedStatement prepare(Connection conn, LocalDate from, LocalDate to) throws SQLException {
+        PreparedStatement pstmt = conn.prepareStatement(sql);
+        try {
+            bind(pstmt, from, to);
+        } catch (SQLException e) {
+            pstmt.close();
+            throw e;
+        }
+        return pstmt;
+    }
+    
+    String fileName(ReportFormat format) {
+        return name().toLowerCase(Locale.ROOT) + "." + format.extension();
+    }
+    
+    static Report parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown report '" + value + "'; expected rooms, bookings, reviews, analytics or all");
+        }
+    }
+}
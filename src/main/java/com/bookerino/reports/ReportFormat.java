@@ -0,0 +1,133 @@
+
+package com.bookerino.reports;
+
+import org.json.JSONObject;
+import java.io.*;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.Locale;
+
+/**
+ * File formats a report can be written in. Both write one row at a time straight from the
+ * {@link ResultSet}, so a report of any size needs no more memory than one row.
+ */
+public enum ReportFormat {
+    /** RFC 4180: a header row, fields quoted only when they contain a comma, quote or line break. */
+    CSV("csv") {
+        @Override
+        RowWriter open(Writer out, String[] columns) throws IOException {
+            writeRecord(out, columns);
+            return new RowWriter() {
+                @Override
+                public void write(Object[] values) throws IOException {
+                    String[] fields = new String[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        fields[i] = values[i] == null ? "" : text(values[i]);
+                    }
+                    writeRecord(out, fields);
+                }
+                
+                @Override
+                public void finish() {
+                }
+            };
+        }
+        
+        private void writeRecord(Writer out, String[] fields) throws IOException {
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                String field = fields[i];
+                if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                    out.write('"');
+                    out.write(field.replace("\"", "\"\""));
+                    out.write('"');
+                } else {
+                    out.write(field);
+                }
+            }
+            out.write("\r\n");
+        }
+    },
+    
+    /** A JSON array with one object per row, keyed by column name, one row per line. */
+    JSON("json") {
+        @Override
+        RowWriter open(Writer out, String[] columns) throws IOException {
+            out.write('[');
+            return new RowWriter() {
+                private boolean first = true;
+                
+                @Override
+                public void write(Object[] values) throws IOException {
+                    out.write(first ? "\n{" : ",\n{");
+                    first = false;
+                    for (int i = 0; i < values.length; i++) {
+                        if (i > 0) {
+                            out.write(',');
+                        }
+                        JSONObject.quote(columns[i], out);
+                        out.write(':');
+                        Object value = values[i];
+                        if (value == null) {
+                            out.write("null");
+                        } else if (value instanceof Number || value instanceof Boolean) {
+                            out.write(text(value));
+                        } else {
+                            JSONObject.quote(text(value), out);
+                        }
+                    }
+                    out.write('}');
+                }
+                
+                @Override
+                public void finish() throws IOException {
+                    out.write(first ? "]\n" : "\n]\n");
+                }
+            };
+        }
+    };
+    
+    /**
+     * Writes the rows of one report.
+     */
+    interface RowWriter {
+        void write(Object[] values) throws IOException;
+        
+        void finish() throws IOException;
+    }
+    
+    private final String extension;
+    
+    ReportFormat(String extension) {
+        this.extension = extension;
+    }
+    
+    abstract RowWriter open(Writer out, String[] columns) throws IOException;
+    
+    String extension() {
+        return extension;
+    }
+    
+    /**
+     * Dates and timestamps in ISO 8601, decimals without exponent.
+     */
+    static String text(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toLocalDateTime().toString();
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        }
+        return value.toString();
+    }
+    
+    static ReportFormat parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown format '" + value + "'; expected csv or json");
+        }
+    }
+}
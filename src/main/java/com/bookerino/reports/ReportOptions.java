@@ -0,0 +1,171 @@
+
+package com.bookerino.reports;
+
+import com.bookerino.config.Env;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Command line of {@code Main --report}. Malformed arguments raise
+ * {@link IllegalArgumentException} with a message fit for the user.
+ */
+public class ReportOptions {
+    public static final String USAGE =
+        "Usage: --report <rooms|bookings|reviews|analytics|all>[,...] [--from YYYY-MM-DD] [--to YYYY-MM-DD]\n" +
+        "                [--out <file or directory>] [--format csv|json] [--fetch-size N] [--parallelism N]\n" +
+        "  --from, --to     inclusive date range (default: yesterday; --from alone runs through yesterday)\n" +
+        "  --out            the file for a single report, otherwise a directory (default: current directory)\n" +
+        "  --format         defaults to the --out file's extension, else csv\n" +
+        "  --parallelism    reports run at once, each on its own connection (default: all of them)";
+    
+    private final Set<Report> reports = EnumSet.noneOf(Report.class);
+    private LocalDate from;
+    private LocalDate to;
+    private Path out;
+    private ReportFormat format;
+    private int fetchSize = Env.getInt("REPORT_FETCH_SIZE", 1000);
+    private int parallelism;
+    
+    public static boolean isReportCommand(String[] args) {
+        for (String arg : args) {
+            if (arg.equals("--report") || arg.startsWith("--report=")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public static ReportOptions parse(String[] args) {
+        ReportOptions options = new ReportOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            String value;
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                value = arg.substring(eq + 1);
+                arg = arg.substring(0, eq);
+            } else {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + arg);
+                }
+                value = args[++i];
+            }
+            switch (arg) {
+                case "--report":
+                    for (String name : value.split(",")) {
+                        if (name.trim().equalsIgnoreCase("all")) {
+                            options.reports.addAll(EnumSet.allOf(Report.class));
+                        } else if (!name.isBlank()) {
+                            options.reports.add(Report.parse(name));
+                        }
+                    }
+                    break;
+                case "--from":
+                    options.from = date(arg, value);
+                    break;
+                case "--to":
+                    options.to = date(arg, value);
+                    break;
+                case "--out":
+                    options.out = Paths.get(value);
+                    break;
+                case "--format":
+                    options.format = ReportFormat.parse(value);
+                    break;
+                case "--fetch-size":
+                    options.fetchSize = positive(arg, value);
+                    break;
+                case "--parallelism":
+                    options.parallelism = positive(arg, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        
+        if (options.reports.isEmpty()) {
+            throw new IllegalArgumentException("No report given");
+        }
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        if (options.from == null) {
+            options.from = options.to != null ? options.to : yesterday;
+        }
+        if (options.to == null) {
+            options.to = options.from.isAfter(yesterday) ? options.from : yesterday;
+        }
+        if (options.to.isBefore(options.from)) {
+            throw new IllegalArgumentException("--to must not be before --from");
+        }
+        if (options.format == null) {
+            String name = options.out != null ? options.out.getFileName().toString().toLowerCase(Locale.ROOT) : "";
+            options.format = name.endsWith(".json") ? ReportFormat.JSON : ReportFormat.CSV;
+        }
+        if (options.parallelism == 0) {
+            options.parallelism = options.reports.size();
+        }
+        return options;
+    }
+    
+    private static LocalDate date(String option, String value) {
+        try {
+            return LocalDate.parse(value.trim());
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException(option + " must be a date (YYYY-MM-DD), got '" + value + "'");
+        }
+    }
+    
+    private static int positive(String option, String value) {
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException(option + " must be a positive integer, got '" + value + "'");
+    }
+    
+    public List<Report> getReports() {
+        return new ArrayList<>(reports);
+    }
+    
+    public LocalDate getFrom() {
+        return from;
+    }
+    
+    public LocalDate getTo() {
+        return to;
+    }
+    
+    public ReportFormat getFormat() {
+        return format;
+    }
+    
+    public int getFetchSize() {
+        return fetchSize;
+    }
+    
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    /**
+     * Where {@code report} is written: {@code --out} itself when it names the file of a single
+     * report, otherwise {@code <report>.<format>} inside the {@code --out} directory.
+     */
+    Path fileFor(Report report) {
+        Path dir = out != null ? out : Paths.get(".");
+        boolean isFile = out != null && reports.size() == 1 && !Files.isDirectory(out)
+            && out.getFileName().toString().contains(".");
+        return isFile ? out : dir.resolve(report.fileName(format));
+    }
+}
@@ -0,0 +1,134 @@
+
+package com.bookerino.reports;
+
+import com.bookerino.database.DatabaseConnection;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the reports of one {@code Main --report} invocation.
+ *
+ * Reports are independent, so up to {@code parallelism} of them run at once, each on its own
+ * pooled connection (a read replica when one is configured). Rows are fetched through a
+ * server-side cursor {@code fetchSize} at a time and written as they arrive, and each file is
+ * written under a temporary name and moved into place only once complete, so a failed or
+ * interrupted run never leaves a truncated report behind.
+ */
+public class ReportRunner {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private final ReportOptions options;
+    
+    public ReportRunner(ReportOptions options) {
+        this.options = options;
+    }
+    
+    /**
+     * Runs every report, including the rest after one fails, and returns their outcomes in
+     * {@link Report} order.
+     */
+    public List<Result> run() throws InterruptedException {
+        List<Report> reports = options.getReports();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.getParallelism(), reports.size()), r -> {
+            Thread t = new Thread(r, "bookerino-report-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Report report : reports) {
+                futures.add(executor.submit(() -> export(report)));
+            }
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // export() reports its own failures; anything else is a bug worth the trace
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private Result export(Report report) {
+        Path file = options.fileFor(report);
+        long start = System.nanoTime();
+        Path partial = file.resolveSibling("." + file.getFileName() + ".part");
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            long rows;
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(
+                    Files.newOutputStream(partial), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+                rows = query(report, out);
+            }
+            long bytes = Files.size(partial);
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Result(report, file, rows, bytes, elapsedMillis(start), null);
+        } catch (SQLException | IOException e) {
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+                // Left behind under its temporary name; the report itself was not written
+            }
+            return new Result(report, file, 0, 0, elapsedMillis(start), e);
+        }
+    }
+    
+    private long query(Report report, Writer out) throws SQLException, IOException {
+        try (Connection conn = DatabaseConnection.getReadConnection(0)) {
+            // The PostgreSQL driver only honours the fetch size inside a transaction
+            conn.setAutoCommit(false);
+            conn.setReadOnly(true);
+            try (PreparedStatement pstmt = report.prepare(conn, options.getFrom(), options.getTo())) {
+                pstmt.setFetchSize(options.getFetchSize());
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    String[] columns = new String[meta.getColumnCount()];
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i] = meta.getColumnLabel(i + 1);
+                    }
+                    ReportFormat.RowWriter writer = options.getFormat().open(out, columns);
+                    Object[] values = new Object[columns.length];
+                    long rows = 0;
+                    while (rs.next()) {
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = rs.getObject(i + 1);
+                        }
+                        writer.write(values);
+                        rows++;
+                    }
+                    writer.finish();
+                    conn.commit();
+                    return rows;
+                }
+            }
+        }
+    }
+    
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+    
+    /**
+     * Outcome of one report; {@code error} is {@code null} when the file was written.
+     */
+    public record Result(Report report, Path file, long rows, long bytes, long elapsedMillis, Exception error) {
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+}
@@ -0,0 +1,398 @@
+
+package com.bookerino.search;
+
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.events.ChangeListener;
+import com.bookerino.model.Review;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over review comments, ranked with BM25.
+ *
+ * Every term maps to a posting list of primitive arrays: the documents containing it, in
+ * ascending order, and how often it occurs in each. Documents are numbered densely in the order
+ * they are added, so appending a review keeps every list sorted. Queries walk the lists of their
+ * terms in step, document at a time; with {@code matchAll} the shortest list drives and the others
+ * skip ahead by galloping search. The best {@code offset + limit} hits are kept in a bounded
+ * heap. Only ids, rooms and ratings are held per review; comments stay in the database.
+ *
+ * The index is built from {@code reviews} at startup, extended as reviews are committed, and
+ * rebuilt periodically to pick up reviews written by other instances.
+ */
+public class ReviewSearchIndex implements ChangeListener {
+    private static final String LOAD_SQL = "SELECT id, room_id, rating, comment FROM reviews ORDER BY id";
+    private static final int FETCH_SIZE = 10_000;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock rebuilding = new ReentrantLock();
+    private Corpus corpus = new Corpus();
+    /** Reviews committed while a rebuild is loading, replayed into the new corpus; null otherwise. */
+    private List<Review> pending;
+    private volatile long changedAtMillis;
+    private ScheduledExecutorService scheduler;
+    
+    public void rebuild() throws SQLException {
+        // Scheduled rebuilds and resyncs of the reviews table wait for each other: there is
+        // only one pending buffer
+        rebuilding.lock();
+        try {
+            rebuildNow();
+        } finally {
+            rebuilding.unlock();
+        }
+    }
+    
+    private void rebuildNow() throws SQLException {
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        
+        long start = System.nanoTime();
+        Corpus fresh = new Corpus();
+        try (Connection conn = DatabaseConnection.getReadConnection(changedAtMillis)) {
+            // The PostgreSQL driver only honours the fetch size inside a transaction
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(LOAD_SQL)) {
+                pstmt.setFetchSize(FETCH_SIZE);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        fresh.add(rs.getInt("id"), rs.getInt("room_id"), rs.getInt("rating"), TextAnalyzer.terms(rs.getString("comment")));
+                    }
+                }
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            lock.writeLock().lock();
+            try {
+                pending = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            throw e;
+        }
+        
+        int loaded = fresh.size;
+        lock.writeLock().lock();
+        try {
+            for (Review review : pending) {
+                // Loaded ids are sorted; a review committed before the load started is already in
+                if (Arrays.binarySearch(fresh.reviewIds, 0, loaded, review.id()) < 0) {
+                    fresh.add(review.id(), review.roomId(), review.rating(), TextAnalyzer.terms(review.comment()));
+                }
+            }
+            corpus = fresh;
+            pending = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        System.out.println("Review search index: " + fresh.size + " reviews, " + fresh.postings.size() + " terms in " +
+            (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+    
+    public synchronized void startRebuilds(long periodSeconds) {
+        if (scheduler != null || periodSeconds <= 0) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "bookerino-search-rebuild");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                rebuild();
+            } catch (Exception e) {
+                System.err.println("Review search index rebuild failed: " + e.getMessage());
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+    
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    
+    @Override
+    public void reviewCreated(Review review) {
+        List<String> terms = TextAnalyzer.terms(review.comment());
+        changedAtMillis = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            corpus.add(review.id(), review.roomId(), review.rating(), terms);
+            if (pending != null) {
+                pending.add(review);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Ranks the reviews matching {@code query}, best first.
+     *
+     * @param matchAll  whether a review must contain every term of the query, rather than any
+     * @param roomId    only reviews of this room, or {@code null} for all
+     * @param minRating only reviews rated at least this, or {@code null} for all
+     */
+    public Page search(String query, boolean matchAll, Integer roomId, Integer minRating, int offset, int limit) {
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(TextAnalyzer.terms(query)));
+        lock.readLock().lock();
+        try {
+            Corpus c = corpus;
+            List<Postings> lists = new ArrayList<>();
+            for (String term : terms) {
+                Postings postings = c.postings.get(term);
+                if (postings != null) {
+                    lists.add(postings);
+                } else if (matchAll) {
+                    return new Page(0, List.of());
+                }
+            }
+            if (lists.isEmpty()) {
+                return new Page(0, List.of());
+            }
+            
+            Search search = new Search(c, lists, roomId, minRating, offset + limit);
+            if (matchAll) {
+                search.intersect();
+            } else {
+                search.union();
+            }
+            List<Hit> hits = search.ranked();
+            return new Page(search.total, hits.subList(Math.min(offset, hits.size()), hits.size()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return corpus.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public record Hit(int reviewId, double score) {
+    }
+    
+    /**
+     * One page of hits and the number of reviews matching in all.
+     */
+    public record Page(long total, List<Hit> hits) {
+    }
+    
+    /**
+     * A query's walk over its posting lists.
+     */
+    private static final class Search {
+        private static final Comparator<Hit> WORST_FIRST = Comparator.comparingDouble(Hit::score).thenComparingInt(Hit::reviewId);
+        
+        private final Corpus corpus;
+        private final Postings[] lists;
+        private final double[] idf;
+        private final int[] cursors;
+        private final Integer roomId;
+        private final Integer minRating;
+        private final int window;
+        private final double averageLength;
+        private final PriorityQueue<Hit> best;
+        private long total;
+        
+        Search(Corpus corpus, List<Postings> lists, Integer roomId, Integer minRating, int window) {
+            this.corpus = corpus;
+            this.lists = lists.toArray(new Postings[0]);
+            // Shortest first, so intersections are driven by the rarest term
+            Arrays.sort(this.lists, Comparator.comparingInt(p -> p.size));
+            this.idf = new double[this.lists.length];
+            for (int i = 0; i < idf.length; i++) {
+                double df = this.lists[i].size;
+                idf[i] = Math.log(1 + (corpus.size - df + 0.5) / (df + 0.5));
+            }
+            this.cursors = new int[this.lists.length];
+            this.roomId = roomId;
+            this.minRating = minRating;
+            this.window = Math.max(1, window);
+            this.averageLength = corpus.size > 0 ? (double) corpus.totalLength / corpus.size : 1;
+            this.best = new PriorityQueue<>(this.window + 1, WORST_FIRST);
+        }
+        
+        void union() {
+            while (true) {
+                int doc = Integer.MAX_VALUE;
+                for (int i = 0; i < lists.length; i++) {
+                    if (cursors[i] < lists[i].size) {
+                        doc = Math.min(doc, lists[i].docs[cursors[i]]);
+                    }
+                }
+                if (doc == Integer.MAX_VALUE) {
+                    return;
+                }
+                double score = 0;
+                for (int i = 0; i < lists.length; i++) {
+                    if (cursors[i] < lists[i].size && lists[i].docs[cursors[i]] == doc) {
+                        score += score(doc, i);
+                        cursors[i]++;
+                    }
+                }
+                collect(doc, score);
+            }
+        }
+        
+        void intersect() {
+            Postings driver = lists[0];
+            candidates:
+            for (int d = 0; d < driver.size; d++) {
+                int doc = driver.docs[d];
+                cursors[0] = d;
+                for (int i = 1; i < lists.length; i++) {
+                    cursors[i] = lists[i].advance(cursors[i], doc);
+                    if (cursors[i] >= lists[i].size) {
+                        return;
+                    }
+                    if (lists[i].docs[cursors[i]] != doc) {
+                        continue candidates;
+                    }
+                }
+                double score = 0;
+                for (int i = 0; i < lists.length; i++) {
+                    score += score(doc, i);
+                }
+                collect(doc, score);
+            }
+        }
+        
+        private double score(int doc, int list) {
+            int tf = lists[list].freqs[cursors[list]];
+            double norm = K1 * (1 - B + B * corpus.lengths[doc] / averageLength);
+            return idf[list] * tf * (K1 + 1) / (tf + norm);
+        }
+        
+        private void collect(int doc, double score) {
+            if (roomId != null && corpus.roomIds[doc] != roomId) {
+                return;
+            }
+            if (minRating != null && corpus.ratings[doc] < minRating) {
+                return;
+            }
+            total++;
+            int reviewId = corpus.reviewIds[doc];
+            if (best.size() < window) {
+                best.add(new Hit(reviewId, score));
+                return;
+            }
+            // Most matches of a common term lose to the worst hit kept; compare before allocating
+            Hit worst = best.peek();
+            if (score > worst.score() || (score == worst.score() && reviewId > worst.reviewId())) {
+                best.poll();
+                best.add(new Hit(reviewId, score));
+            }
+        }
+        
+        /**
+         * The best hits, best first; equal scores put the newer review first.
+         */
+        List<Hit> ranked() {
+            List<Hit> hits = new ArrayList<>(best);
+            hits.sort(WORST_FIRST.reversed());
+            return hits;
+        }
+    }
+    
+    /**
+     * Per-review columns and the posting lists; guarded by the index's lock.
+     */
+    private static final class Corpus {
+        private final Map<String, Postings> postings = new HashMap<>();
+        private int[] reviewIds = new int[1024];
+        private int[] roomIds = new int[1024];
+        private byte[] ratings = new byte[1024];
+        private int[] lengths = new int[1024];
+        private int size;
+        private long totalLength;
+        
+        void add(int reviewId, int roomId, int rating, List<String> terms) {
+            if (size == reviewIds.length) {
+                int capacity = size * 2;
+                reviewIds = Arrays.copyOf(reviewIds, capacity);
+                roomIds = Arrays.copyOf(roomIds, capacity);
+                ratings = Arrays.copyOf(ratings, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            int doc = size++;
+            reviewIds[doc] = reviewId;
+            roomIds[doc] = roomId;
+            ratings[doc] = (byte) rating;
+            lengths[doc] = terms.size();
+            totalLength += terms.size();
+            
+            Map<String, Integer> counts = new HashMap<>();
+            for (String term : terms) {
+                counts.merge(term, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), t -> new Postings()).add(doc, entry.getValue());
+            }
+        }
+    }
+    
+    /**
+     * Documents containing one term, ascending, with the term's frequency in each. Frequencies
+     * are capped at 127; BM25 has long saturated by then.
+     */
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private byte[] freqs = new byte[4];
+        private int size;
+        
+        void add(int doc, int frequency) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = (byte) Math.min(frequency, Byte.MAX_VALUE);
+            size++;
+        }
+        
+        /**
+         * Position of the first document at or after {@code from} that is not below {@code doc}:
+         * doubling steps to overshoot, then a binary search of the last step.
+         */
+        int advance(int from, int doc) {
+            if (from >= size || docs[from] >= doc) {
+                return from;
+            }
+            int low = from;
+            int step = 1;
+            while (low + step < size && docs[low + step] < doc) {
+                low += step;
+                step <<= 1;
+            }
+            int high = Math.min(low + step, size);
+            int found = Arrays.binarySearch(docs, low + 1, high, doc);
+            return found >= 0 ? found : -found - 1;
+        }
+    }
+}
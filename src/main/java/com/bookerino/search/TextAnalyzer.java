@@ -0,0 +1,62 @@
+
+package com.bookerino.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Splits review text into index terms: lower-cased runs of letters and digits with diacritics
+ * removed, so "Mic-dejun", "mic dejun" and "MIC DEJUN" match, and Romanian "ș", "ş", "ț", "ă",
+ * "â" and "î" match their plain letters, which is how much Romanian is typed anyway. Both the
+ * comma-below and the older cedilla forms decompose to the base letter plus a combining mark.
+ */
+final class TextAnalyzer {
+    private static final int MIN_LENGTH = 2;
+    private static final int MAX_LENGTH = 40;
+    
+    private TextAnalyzer() {
+    }
+    
+    static List<String> terms(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return terms;
+        }
+        String folded = fold(text);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                int length = i - start;
+                if (length >= MIN_LENGTH && length <= MAX_LENGTH) {
+                    terms.add(folded.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+    
+    static String fold(String text) {
+        boolean ascii = true;
+        for (int i = 0; i < text.length() && ascii; i++) {
+            ascii = text.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return text.toLowerCase(Locale.ROOT);
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder out = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                out.append(c);
+            }
+        }
+        return out.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,107 @@
+
+package com.bookerino.server;
+
+import com.sun.net.httpserver.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks keep-alive reuse and in-flight exchanges across every context, and closes connections
+ * once the server is draining.
+ *
+ * The JDK server does not expose its connections, so a connection is recognised by the client's
+ * address and port: an exchange from an address not seen within the idle timeout counts as a
+ * new connection, any other as reuse of one. A client that reconnects from the same port within
+ * the timeout is counted as reuse, which makes the figures an estimate, but a close one.
+ */
+public class ConnectionFilter extends Filter {
+    private final long idleTimeoutMillis;
+    private final int maxTracked;
+    private final Map<InetSocketAddress, Long> lastSeen = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder exchanges = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closedOnDrain = new LongAdder();
+    private volatile boolean draining;
+    
+    ConnectionFilter(ServerOptions options) {
+        this.idleTimeoutMillis = Math.max(1, options.getIdleTimeoutSeconds()) * 1000L;
+        this.maxTracked = Math.max(1024, options.getMaxIdleConnections() * 4);
+    }
+    
+    @Override
+    public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+        long now = System.currentTimeMillis();
+        exchanges.increment();
+        Long previous = lastSeen.put(exchange.getRemoteAddress(), now);
+        if (previous == null || now - previous > idleTimeoutMillis) {
+            opened.increment();
+        }
+        if (lastSeen.size() > maxTracked) {
+            forgetIdle(now);
+        }
+        
+        if (draining) {
+            // Tells the client not to send more on this connection; the server closes it after the response
+            exchange.getResponseHeaders().set("Connection", "close");
+            lastSeen.remove(exchange.getRemoteAddress());
+            closedOnDrain.increment();
+        }
+        inFlight.incrementAndGet();
+        try {
+            chain.doFilter(exchange);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+    
+    private void forgetIdle(long now) {
+        Iterator<Long> it = lastSeen.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next() > idleTimeoutMillis) {
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * From now on every response closes its connection.
+     */
+    void drain() {
+        draining = true;
+    }
+    
+    int getInFlight() {
+        return inFlight.get();
+    }
+    
+    public Stats getStats() {
+        long now = System.currentTimeMillis();
+        int open = 0;
+        for (Long seen : lastSeen.values()) {
+            if (now - seen <= idleTimeoutMillis) {
+                open++;
+            }
+        }
+        return new Stats(exchanges.sum(), opened.sum(), open, inFlight.get(), closedOnDrain.sum());
+    }
+    
+    @Override
+    public String description() {
+        return "Connection reuse and draining";
+    }
+    
+    public record Stats(long exchanges, long opened, int open, int inFlight, long closedOnDrain) {
+        /**
+         * Share of exchanges that were served on an already open connection.
+         */
+        public double reuseRatio() {
+            return exchanges == 0 ? 0 : 1.0 - (double) opened / exchanges;
+        }
+    }
+}
@@ -2,28 +2,311 @@
 package com.bookerino.server;
 
 import com.sun.net.httpserver.*;
+import com.bookerino.admission.AdmissionFilter;
+import com.bookerino.admission.ClientKeys;
+import com.bookerino.admission.RouteLimits;
+import com.bookerino.analytics.AnalyticsSnapshot;
+import com.bookerino.analytics.RevenueTimeSeries;
+import com.bookerino.analytics.RoomRatings;
+import com.bookerino.availability.AvailabilityIndex;
+import com.bookerino.cache.RoomCache;
+import com.bookerino.cache.TableVersions;
+import com.bookerino.cache.TableVersions.Table;
+import com.bookerino.config.Env;
+import com.bookerino.database.ChangeFeed;
+import com.bookerino.database.DatabaseConnection;
+import com.bookerino.events.ChangeEvents;
+import com.bookerino.events.RemoteChanges;
 import com.bookerino.handlers.*;
+import com.bookerino.ingest.ReviewIngestQueue;
+import com.bookerino.metrics.ComponentMetrics;
+import com.bookerino.metrics.Metrics;
+import com.bookerino.metrics.MetricsFilter;
+import com.bookerino.pricing.QuoteEngine;
+import com.bookerino.search.ReviewSearchIndex;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class HttpServer {
     private final int port;
+    private final ServerOptions options;
     private com.sun.net.httpserver.HttpServer server;
+    private ExecutorService executor;
+    private ConnectionFilter connections;
+    private RouteLimits admissionLimits;
+    private ClientKeys clientKeys;
+    private final List<AdmissionFilter> admission = new ArrayList<>();
+    private AnalyticsSnapshot analytics;
+    private RoomRatings ratings;
+    private RevenueTimeSeries timeSeries;
+    private RoomCache roomCache;
+    private TableVersions tableVersions;
+    private AvailabilityIndex availability;
+    private QuoteEngine quotes;
+    private ReviewIngestQueue reviewIngest;
+    private ReviewSearchIndex reviewSearch;
+    private ChangeFeed changeFeed;
+    private RemoteChanges remoteChanges;
+    private EventStream events;
+    private RequestCoalescer coalescer;
+    private final List<Metrics.Collector> collectors = new ArrayList<>();
     
     public HttpServer(int port) {
+        this(port, ServerOptions.fromEnvironment());
+    }
+    
+    public HttpServer(int port, ServerOptions options) {
         this.port = port;
+        this.options = options;
     }
     
-    public void start() throws IOException {
-        server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress("0.0.0.0", port), 0);
+    public void start() throws IOException, SQLException {
+        if (Env.getBoolean("CHANGE_FEED_ENABLED", true)) {
+            // Listening before the components load narrows the window in which another process's
+            // writes reach neither their initial load nor the feed
+            changeFeed = new ChangeFeed();
+            remoteChanges = new RemoteChanges();
+            events = new EventStream();
+            changeFeed.addListener(remoteChanges);
+            changeFeed.addListener(events);
+            changeFeed.start();
+        }
+        
+        analytics = new AnalyticsSnapshot();
+        analytics.reconcile();
+        ChangeEvents.register(analytics);
+        analytics.startReconciliation(Env.getLong("ANALYTICS_RECONCILE_SECONDS", 300));
+        
+        ratings = new RoomRatings();
+        ratings.reload();
+        ChangeEvents.register(ratings);
+        ratings.startReconciliation(Env.getLong("ANALYTICS_RECONCILE_SECONDS", 300));
+        
+        timeSeries = new RevenueTimeSeries();
+        ChangeEvents.register(timeSeries);
+        timeSeries.reload();
+        timeSeries.startReconciliation(Env.getLong("ANALYTICS_RECONCILE_SECONDS", 300));
+        
+        roomCache = new RoomCache();
+        ChangeEvents.register(roomCache);
+        
+        tableVersions = new TableVersions();
+        ChangeEvents.register(tableVersions);
+        
+        availability = new AvailabilityIndex();
+        ChangeEvents.register(availability);
+        availability.rebuild();
+        availability.startDailyRebuild();
+        
+        quotes = new QuoteEngine(roomCache::getRoom);
+        ChangeEvents.register(quotes);
+        
+        reviewSearch = new ReviewSearchIndex();
+        ChangeEvents.register(reviewSearch);
+        reviewSearch.rebuild();
+        reviewSearch.startRebuilds(Env.getLong("REVIEW_SEARCH_REBUILD_SECONDS", 3600));
+        
+        if (remoteChanges != null) {
+            registerResyncs();
+        }
+        
+        if (ReviewIngestQueue.enabled()) {
+            reviewIngest = new ReviewIngestQueue();
+            reviewIngest.start();
+        }
+        
+        if (options.isCoalescing()) {
+            coalescer = RequestCoalescer.fromEnvironment(tableVersions);
+        }
+        
+        options.applyConnectionSettings();
+        connections = new ConnectionFilter(options);
+        if (options.isAdmissionControl()) {
+            // A slow route may hold most of the workers, but never all of them
+            admissionLimits = RouteLimits.defaults(Math.max(1, options.getThreads() * 3 / 4));
+            clientKeys = ClientKeys.fromEnvironment();
+        }
+        server = com.sun.net.httpserver.HttpServer.create(new InetSocketAddress("0.0.0.0", port), options.getBacklog());
         
         // API endpoints
-        server.createContext("/api/rooms", new RoomHandler());
-        server.createContext("/api/bookings", new BookingHandler());
-        server.createContext("/api/reviews", new ReviewHandler());
-        server.createContext("/api/analytics", new AnalyticsHandler());
+        createContext("/api/rooms", new RoomHandler(roomCache, tableVersions, ratings));
+        BookingGuard bookingGuard = new BookingGuard(availability);
+        createContext("/api/bookings", new BookingHandler(roomCache, bookingGuard, tableVersions, quotes));
+        createContext("/api/bookings/bulk", BulkImportHandler.bookings(bookingGuard, quotes));
+        createContext("/api/reviews", new ReviewHandler(roomCache, tableVersions, reviewIngest, reviewSearch));
+        createContext("/api/reviews/bulk", BulkImportHandler.reviews());
+        createContext("/api/analytics", new AnalyticsHandler(analytics, timeSeries));
+        createContext("/api/quotes", new QuoteHandler(quotes, roomCache, availability));
+        createContext("/api/availability", new AvailabilityHandler(availability, roomCache, tableVersions));
+        if (events != null) {
+            createContext("/api/events", new EventsHandler(events));
+        }
+        createContext("/metrics", new MetricsHandler(), RouteLimits.UNLIMITED);
         
-        server.setExecutor(null);
+        executor = RequestExecutors.create(options);
+        server.setExecutor(executor);
+        registerCollectors();
         server.start();
+        System.out.println("HTTP server listening on port " + getPort() + " (executor: " +
+            options.getExecutionMode().name().toLowerCase() + ", backlog: " + options.getBacklog() +
+            ", idle timeout: " + options.getIdleTimeoutSeconds() + "s)");
+    }
+    
+    /**
+     * What to reload when another process changed a table in a way the listeners cannot apply row
+     * by row. Validators are bumped last, so no client revalidates against them before the reload.
+     */
+    private void registerResyncs() {
+        remoteChanges.onResync("rooms", roomCache::invalidateAll);
+        remoteChanges.onResync("rooms", analytics::reconcile);
+        remoteChanges.onResync("rooms", timeSeries::reload);
+        remoteChanges.onResync("rooms", availability::rebuild);
+        remoteChanges.onResync("rooms", () -> tableVersions.bump(Table.ROOMS));
+        remoteChanges.onResync("bookings", analytics::reconcile);
+        remoteChanges.onResync("bookings", timeSeries::reload);
+        remoteChanges.onResync("bookings", availability::rebuild);
+        remoteChanges.onResync("bookings", () -> tableVersions.bump(Table.BOOKINGS));
+        remoteChanges.onResync("reviews", analytics::reconcile);
+        remoteChanges.onResync("reviews", ratings::reload);
+        remoteChanges.onResync("reviews", reviewSearch::rebuild);
+        remoteChanges.onResync("reviews", () -> tableVersions.bump(Table.REVIEWS));
+    }
+    
+    private void createContext(String path, HttpHandler handler) {
+        createContext(path, handler, admissionLimits);
+    }
+    
+    /**
+     * Registers a context with request metrics recorded under its path, admission control
+     * starting from {@code limits}, which the route's own ADMISSION_* variables override, and
+     * request coalescing when the route is one of COALESCE_ROUTES.
+     */
+    private void createContext(String path, HttpHandler handler, RouteLimits limits) {
+        HttpContext context = server.createContext(path, handler);
+        context.getFilters().add(connections);
+        // Rejections are still counted in the route's request metrics
+        context.getFilters().add(new MetricsFilter(path));
+        if (admissionLimits != null) {
+            AdmissionFilter filter = new AdmissionFilter(path, limits.forRoute(path), clientKeys);
+            context.getFilters().add(filter);
+            admission.add(filter);
+        }
+        // After admission control, so a client's identical requests still count against its limits
+        if (coalescer != null && coalescer.covers(path)) {
+            context.getFilters().add(coalescer.filter(path));
+        }
+    }
+    
+    private void registerCollectors() {
+        collectors.add(ComponentMetrics.connectionPool());
+        if (DatabaseConnection.hasReplicas()) {
+            collectors.add(ComponentMetrics.replicas(DatabaseConnection.getReplicas()));
+        }
+        collectors.add(ComponentMetrics.connections(connections));
+        if (!admission.isEmpty()) {
+            collectors.add(ComponentMetrics.admission(admission));
+        }
+        if (coalescer != null) {
+            collectors.add(ComponentMetrics.coalescing(coalescer));
+        }
+        collectors.add(ComponentMetrics.roomCache(roomCache));
+        collectors.add(ComponentMetrics.quotes(quotes));
+        if (changeFeed != null) {
+            collectors.add(ComponentMetrics.changeFeed(changeFeed, remoteChanges));
+            collectors.add(ComponentMetrics.events(events));
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            collectors.add(ComponentMetrics.executor((ThreadPoolExecutor) executor));
+        }
+        if (reviewIngest != null) {
+            collectors.add(ComponentMetrics.reviewIngest(reviewIngest));
+        }
+        for (Metrics.Collector collector : collectors) {
+            Metrics.register(collector);
+        }
+    }
+    
+    public int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+    
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Stops accepting connections and waits up to {@code delaySeconds} for in-flight exchanges to
+     * finish; responses sent meanwhile close their connection. Exchanges still running after the
+     * delay are cut off.
+     */
+    public void stop(int delaySeconds) {
+        if (server == null) {
+            return;
+        }
+        // Event streams never finish on their own; end them so clients reconnect elsewhere
+        if (events != null) {
+            events.stop();
+        }
+        connections.drain();
+        int inFlight = connections.getInFlight();
+        // The JDK server only ends its wait early when an exchange finishes, so an idle server
+        // would otherwise sit out the whole delay
+        long start = System.nanoTime();
+        server.stop(inFlight > 0 ? delaySeconds : 0);
+        if (inFlight > 0) {
+            int abandoned = connections.getInFlight();
+            System.out.println("HTTP server drained " + Math.max(0, inFlight - abandoned) + " in-flight request(s) in " +
+                (System.nanoTime() - start) / 1_000_000 + " ms" + (abandoned > 0 ? ", " + abandoned + " cut off" : ""));
+        }
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor.shutdownNow();
+        }
+        server = null;
+        
+        // Requests are drained, so nothing more can be queued; flush what was accepted
+        if (reviewIngest != null) {
+            reviewIngest.stop(Math.max(delaySeconds, 5));
+            reviewIngest = null;
+        }
+        
+        for (Metrics.Collector collector : collectors) {
+            Metrics.unregister(collector);
+        }
+        collectors.clear();
+        admission.clear();
+        
+        if (changeFeed != null) {
+            changeFeed.stop();
+            remoteChanges.stop();
+            changeFeed = null;
+            remoteChanges = null;
+            events = null;
+        }
+        coalescer = null;
+        ChangeEvents.unregister(quotes);
+        ChangeEvents.unregister(reviewSearch);
+        reviewSearch.stop();
+        ChangeEvents.unregister(availability);
+        availability.stop();
+        ChangeEvents.unregister(tableVersions);
+        ChangeEvents.unregister(roomCache);
+        ChangeEvents.unregister(timeSeries);
+        timeSeries.stop();
+        ChangeEvents.unregister(ratings);
+        ratings.stop();
+        ChangeEvents.unregister(analytics);
+        analytics.stop();
     }
 }
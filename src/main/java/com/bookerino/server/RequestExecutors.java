@@ -0,0 +1,79 @@
+
+package com.bookerino.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the executor {@link HttpServer} hands to the JDK server for running exchanges.
+ */
+final class RequestExecutors {
+    private RequestExecutors() {
+    }
+    
+    /**
+     * Returns {@code null} for {@link ServerOptions.ExecutionMode#DISPATCHER}, which tells the JDK
+     * server to run handlers on its own dispatcher thread.
+     */
+    static ExecutorService create(ServerOptions options) {
+        switch (options.getExecutionMode()) {
+            case DISPATCHER:
+                return null;
+            case VIRTUAL:
+                ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+                if (virtual != null) {
+                    return virtual;
+                }
+                System.err.println("Virtual threads need JDK 21 or newer (running " +
+                    Runtime.version() + "); falling back to the bounded thread pool");
+                return newBoundedPool(options);
+            case POOL:
+            default:
+                return newBoundedPool(options);
+        }
+    }
+    
+    static ThreadPoolExecutor newBoundedPool(ServerOptions options) {
+        int threads = Math.max(1, options.getThreads());
+        BlockingQueue<Runnable> queue = options.getQueueCapacity() > 0
+            ? new ArrayBlockingQueue<>(options.getQueueCapacity())
+            : new SynchronousQueue<>();
+        RejectedExecutionHandler rejection = options.getRejectionPolicy() == ServerOptions.RejectionPolicy.ABORT
+            ? new ThreadPoolExecutor.AbortPolicy()
+            : new ThreadPoolExecutor.CallerRunsPolicy();
+        
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            threads, threads, 60, TimeUnit.SECONDS, queue, new NamedThreadFactory("bookerino-http-"), rejection);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    /**
+     * The server is compiled for Java 17, so the JDK 21 factory is looked up reflectively.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+        
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
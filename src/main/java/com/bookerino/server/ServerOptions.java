@@ -0,0 +1,227 @@
+
+package com.bookerino.server;
+
+import com.bookerino.config.Env;
+
+/**
+ * Startup settings for {@link HttpServer}. {@link #fromEnvironment()} reads the HTTP_* variables;
+ * the setters exist so the same server can be started with explicit settings (benchmarks, tools).
+ */
+public class ServerOptions {
+    private ExecutionMode executionMode = ExecutionMode.POOL;
+    private int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+    private int queueCapacity = 256;
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+    private int backlog = 128;
+    private int idleTimeoutSeconds = 30;
+    private int maxIdleConnections = 200;
+    private int maxConnections = -1;
+    private int maxRequestSeconds = 0;
+    private boolean tcpNoDelay = true;
+    private boolean admissionControl = true;
+    private boolean coalescing = true;
+    
+    public static ServerOptions fromEnvironment() {
+        ServerOptions options = new ServerOptions();
+        options.executionMode = ExecutionMode.parse(Env.getString("HTTP_EXECUTOR", options.executionMode.name()));
+        options.threads = Env.getInt("HTTP_THREADS", options.threads);
+        options.queueCapacity = Env.getInt("HTTP_QUEUE_CAPACITY", options.queueCapacity);
+        options.rejectionPolicy = RejectionPolicy.parse(Env.getString("HTTP_REJECTION_POLICY", options.rejectionPolicy.name()));
+        options.backlog = Env.getInt("HTTP_BACKLOG", options.backlog);
+        options.idleTimeoutSeconds = Env.getInt("HTTP_IDLE_TIMEOUT_SECONDS", options.idleTimeoutSeconds);
+        options.maxIdleConnections = Env.getInt("HTTP_MAX_IDLE_CONNECTIONS", options.maxIdleConnections);
+        options.maxConnections = Env.getInt("HTTP_MAX_CONNECTIONS", options.maxConnections);
+        options.maxRequestSeconds = Env.getInt("HTTP_MAX_REQUEST_SECONDS", options.maxRequestSeconds);
+        options.tcpNoDelay = Env.getBoolean("HTTP_TCP_NODELAY", options.tcpNoDelay);
+        options.admissionControl = Env.getBoolean("ADMISSION_ENABLED", options.admissionControl);
+        options.coalescing = Env.getBoolean("COALESCE_ENABLED", options.coalescing);
+        return options;
+    }
+    
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+    
+    public ServerOptions setExecutionMode(ExecutionMode executionMode) {
+        this.executionMode = executionMode;
+        return this;
+    }
+    
+    public int getThreads() {
+        return threads;
+    }
+    
+    public ServerOptions setThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+    
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    
+    public ServerOptions setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+    
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+    
+    public ServerOptions setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+        return this;
+    }
+    
+    public int getBacklog() {
+        return backlog;
+    }
+    
+    public ServerOptions setBacklog(int backlog) {
+        this.backlog = backlog;
+        return this;
+    }
+    
+    /**
+     * Seconds a kept-alive connection may sit idle before the server closes it.
+     */
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+    
+    public ServerOptions setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+        return this;
+    }
+    
+    /**
+     * Idle connections kept open for reuse; beyond this a finished connection is closed.
+     */
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+    
+    public ServerOptions setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+        return this;
+    }
+    
+    /**
+     * Open connections accepted at once; zero or less means no limit.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    
+    public ServerOptions setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+    
+    /**
+     * Seconds from the start of a request until its body has been read to the end, after which the
+     * connection is closed; zero or less (the default) means no limit. The clock keeps running
+     * while a handler reads the body, so a limit also cuts off bulk imports that write as they
+     * read; set it only well above the longest such upload.
+     */
+    public int getMaxRequestSeconds() {
+        return maxRequestSeconds;
+    }
+    
+    public ServerOptions setMaxRequestSeconds(int maxRequestSeconds) {
+        this.maxRequestSeconds = maxRequestSeconds;
+        return this;
+    }
+    
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+    
+    public ServerOptions setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+    
+    /**
+     * Whether each route sheds load with per-client rate limits and a concurrency cap (see
+     * {@link com.bookerino.admission.RouteLimits}).
+     */
+    public boolean isAdmissionControl() {
+        return admissionControl;
+    }
+    
+    public ServerOptions setAdmissionControl(boolean admissionControl) {
+        this.admissionControl = admissionControl;
+        return this;
+    }
+    
+    /**
+     * Whether identical concurrent GETs share one handler run (see
+     * {@link com.bookerino.handlers.RequestCoalescer}).
+     */
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+    
+    public ServerOptions setCoalescing(boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+    
+    /**
+     * Hands the connection settings to the JDK server, which reads them from system properties
+     * once, when the first server of the JVM is created; later changes have no effect. A property
+     * already given on the command line wins. There is deliberately no response time limit, which
+     * would cut off streamed list responses and {@code /api/events} streams.
+     */
+    void applyConnectionSettings() {
+        setDefault("sun.net.httpserver.idleInterval", idleTimeoutSeconds);
+        setDefault("sun.net.httpserver.maxIdleConnections", maxIdleConnections);
+        if (maxConnections > 0) {
+            setDefault("jdk.httpserver.maxConnections", maxConnections);
+        }
+        if (maxRequestSeconds > 0) {
+            setDefault("sun.net.httpserver.maxReqTime", maxRequestSeconds);
+        }
+        setDefault("sun.net.httpserver.nodelay", tcpNoDelay);
+    }
+    
+    private static void setDefault(String property, Object value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, String.valueOf(value));
+        }
+    }
+    
+    public enum ExecutionMode {
+        /** Every exchange runs on the JDK server's single dispatcher thread. */
+        DISPATCHER,
+        /** Bounded platform thread pool with a bounded work queue. */
+        POOL,
+        /** One virtual thread per exchange (JDK 21+). */
+        VIRTUAL;
+        
+        static ExecutionMode parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("HTTP_EXECUTOR must be one of dispatcher, pool, virtual; got '" + value + "'");
+            }
+        }
+    }
+    
+    public enum RejectionPolicy {
+        /** A saturated pool makes the dispatcher run the exchange itself, which stops it accepting new work. */
+        CALLER_RUNS,
+        /** A saturated pool drops the exchange and the server closes the connection. */
+        ABORT;
+        
+        static RejectionPolicy parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase().replace('-', '_'));
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("HTTP_REJECTION_POLICY must be caller-runs or abort; got '" + value + "'");
+            }
+        }
+    }
+}